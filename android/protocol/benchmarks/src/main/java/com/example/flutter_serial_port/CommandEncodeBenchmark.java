@@ -0,0 +1,62 @@
+package com.example.flutter_serial_port;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Cost of turning a command id and its arguments into wire bytes. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandEncodeBenchmark {
+
+  private final CommandWriter.Request mRequest = new CommandWriter.Request();
+  private final Command mBoardSlot = CommandTable.get(CommandTable.ALL_SINGLE_SLOT);
+  private final Command mShipment = CommandTable.get(CommandTable.SHIPMENT);
+  private final Command mStatusElevator = CommandTable.get(CommandTable.STATUS_ELEVATOR);
+  private final Command mShipmentRange = CommandTable.get(CommandTable.SHIPMENT_RANGE);
+  private final int[] mSlot = {42};
+  private final int[] mNoArgs = {};
+  private final int[] mRange = {1, 10, 42};
+
+  @Benchmark
+  public int boardSlot() {
+    CommandTable.encode(mBoardSlot, mSlot, mRequest);
+    return mRequest.length;
+  }
+
+  @Benchmark
+  public int elevatorShipment() {
+    CommandTable.encode(mShipment, mSlot, mRequest);
+    return mRequest.length;
+  }
+
+  @Benchmark
+  public int elevatorStatus() {
+    CommandTable.encode(mStatusElevator, mNoArgs, mRequest);
+    return mRequest.length;
+  }
+
+  /** Ten frames into one request. */
+  @Benchmark
+  public int shipmentRange() {
+    CommandTable.encode(mShipmentRange, mRange, mRequest);
+    return mRequest.length;
+  }
+
+  @Benchmark
+  public int lookupByName() {
+    return CommandTable.get("statusElevator").id;
+  }
+}
@@ -0,0 +1,102 @@
+package com.example.flutter_serial_port;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Moving reads through the pool and batcher to the sink. Flushes run inline
+ * instead of on a looper, so this measures the batching itself. Throughput
+ * is in reads. {@code sink} compares a new array per batch, as the event
+ * channel gets, with the reused direct buffer of the binary channel.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventBatcherBenchmark {
+
+  private static final int READS = 256;
+
+  @Param({"16", "64"})
+  public int readSize;
+
+  @Param({"64", "512", "4096"})
+  public int batchBytes;
+
+  @Param({"array", "direct"})
+  public String sink;
+
+  private ReadBufferPool mPool;
+  private EventBatcher mBatcher;
+  private Blackhole mBlackhole;
+
+  @Setup
+  public void setUp(Blackhole blackhole) {
+    mBlackhole = blackhole;
+    mPool = new ReadBufferPool(readSize, EventBatcher.poolSizeFor(batchBytes, readSize));
+    mBatcher = new EventBatcher(mPool, batchBytes, EventBatcher.DEFAULT_MAX_LATENCY_MS,
+        new EventBatcher.Scheduler() {
+          @Override
+          public void post(Runnable task) {
+            task.run();
+          }
+
+          @Override
+          public void postDelayed(Runnable task, long delayMillis) {
+            // The latency window never expires here; full batches flush on size.
+          }
+        }, new EventBatcher.Sink() {
+          @Override
+          public void onBatch(byte[] data, long firstReadAt) {
+            mBlackhole.consume(data);
+          }
+        });
+    if (sink.equals("direct")) {
+      final ByteBuffer buffer = ByteBuffer.allocateDirect(batchBytes + readSize);
+      mBatcher.setBufferSink(new EventBatcher.BufferSink() {
+        @Override
+        public ByteBuffer obtainBuffer(int size) {
+          buffer.clear();
+          return buffer;
+        }
+
+        @Override
+        public void onBatch(ByteBuffer data, long firstReadAt) {
+          mBlackhole.consume(data);
+        }
+      });
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(READS)
+  public void readAndBatch() {
+    for (int i = 0; i < READS; i++) {
+      ReadBufferPool.Chunk chunk = mPool.tryAcquire();
+      if (chunk == null) {
+        mBatcher.flush();
+        chunk = mPool.tryAcquire();
+      }
+      chunk.length = readSize;
+      chunk.readAt = System.nanoTime();
+      mBatcher.add(chunk);
+    }
+    mBatcher.flush();
+  }
+}
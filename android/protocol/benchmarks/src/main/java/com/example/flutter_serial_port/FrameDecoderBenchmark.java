@@ -0,0 +1,76 @@
+package com.example.flutter_serial_port;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Decoding a 64 KiB capture of board and elevator frames mixed with line
+ * noise, fed in reads of {@code readSize} bytes. Throughput is in captures.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameDecoderBenchmark {
+
+  private static final int CAPTURE_SIZE = 64 * 1024;
+
+  @Param({"16", "64", "512"})
+  public int readSize;
+
+  @Param({"0", "5"})
+  public int noisePercent;
+
+  private byte[] mCapture;
+  private FrameDecoder mDecoder;
+  private Blackhole mBlackhole;
+
+  @Setup
+  public void setUp(Blackhole blackhole) {
+    mBlackhole = blackhole;
+    Random random = new Random(42);
+    ByteArrayOutputStream capture = new ByteArrayOutputStream(CAPTURE_SIZE);
+    byte[] board = {0x00, (byte) 0xFF, 0x5D, (byte) 0xA2, 0x10, (byte) 0xEF};
+    byte[] elevator = {0x02, 0x03, 0x01, 0x00, 0x00, 0x03, 0x03};
+    while (capture.size() < CAPTURE_SIZE) {
+      if (random.nextInt(100) < noisePercent) {
+        capture.write(random.nextInt(256));
+      } else if (random.nextBoolean()) {
+        capture.write(board, 0, board.length);
+      } else {
+        capture.write(elevator, 0, elevator.length);
+      }
+    }
+    mCapture = capture.toByteArray();
+    mDecoder = new FrameDecoder(new FrameDecoder.Listener() {
+      @Override
+      public void onFrame(int type, byte[] frame, int length) {
+        mBlackhole.consume(frame[2]);
+      }
+    });
+  }
+
+  @Benchmark
+  public long decode() {
+    for (int offset = 0; offset < mCapture.length; offset += readSize) {
+      mDecoder.feed(mCapture, offset, Math.min(readSize, mCapture.length - offset));
+    }
+    return mDecoder.frameCount();
+  }
+}
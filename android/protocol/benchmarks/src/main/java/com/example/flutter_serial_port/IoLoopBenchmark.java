@@ -0,0 +1,130 @@
+package com.example.flutter_serial_port;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Receiving on several ports at once over pseudo-terminals. Each operation
+ * writes one frame to every port and waits until every port has read it, so
+ * the score is the time a burst across all ports takes to be read. {@code
+ * model} compares the shared {@link IoLoop} with a blocking read thread per
+ * port, as ports were read before the loop.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IoLoopBenchmark {
+
+  /** A door status reply from a board. */
+  private static final byte[] FRAME = {0x00, (byte) 0xFF, 0x01, (byte) 0xFE, 0x00, (byte) 0xFF};
+
+  @Param({"1", "4", "16"})
+  public int ports;
+
+  @Param({"loop", "threadPerPort"})
+  public String model;
+
+  private final AtomicInteger mPending = new AtomicInteger();
+  private int[] mMasters;
+  private PtyTransport[] mTransports;
+  private PortReader[] mReaders;
+  private Thread[] mThreads;
+
+  private final PortReader.Sink mSink = new PortReader.Sink() {
+    @Override
+    public void onChunk(ReadBufferPool.Chunk chunk) {
+      mPending.addAndGet(-chunk.length);
+      chunk.release();
+    }
+
+    @Override
+    public void onReadError(IOException error) {
+    }
+  };
+
+  @Setup
+  public void setUp() throws IOException {
+    IoLoop loop = new IoLoop("BenchmarkIo");
+    mMasters = new int[ports];
+    mTransports = new PtyTransport[ports];
+    mReaders = new PortReader[ports];
+    mThreads = new Thread[ports];
+    int[] master = new int[1];
+    for (int i = 0; i < ports; i++) {
+      mTransports[i] = new PtyTransport(new File(NativeIo.openPty(master)));
+      mMasters[i] = master[0];
+      if (model.equals("loop")) {
+        mReaders[i] = new PortReader("BenchmarkReader", mTransports[i], 0, 0,
+            new ReadBufferPool(ReadBufferPool.DEFAULT_BUFFER_SIZE, ReadBufferPool.DEFAULT_BUFFER_COUNT),
+            loop, mSink);
+        mReaders[i].start();
+      } else {
+        mThreads[i] = readThread(mTransports[i].inputStream());
+        mThreads[i].start();
+      }
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    // Hanging up the masters first ends the blocking reads with EIO.
+    for (int i = 0; i < ports; i++) {
+      NativeIo.close(mMasters[i]);
+    }
+    for (int i = 0; i < ports; i++) {
+      if (mReaders[i] != null) {
+        mReaders[i].close();
+      } else {
+        mThreads[i].join();
+        mTransports[i].close();
+      }
+    }
+  }
+
+  @Benchmark
+  public void burst() throws IOException {
+    mPending.set(ports * FRAME.length);
+    for (int i = 0; i < ports; i++) {
+      NativeIo.write(mMasters[i], FRAME, 0, FRAME.length);
+    }
+    while (mPending.get() > 0) {
+      Thread.yield();
+    }
+  }
+
+  private Thread readThread(final InputStream input) {
+    return new Thread("BenchmarkReader") {
+      @Override
+      public void run() {
+        byte[] buffer = new byte[ReadBufferPool.DEFAULT_BUFFER_SIZE];
+        try {
+          int size;
+          while ((size = input.read(buffer)) > 0) {
+            mPending.addAndGet(-size);
+          }
+        } catch (IOException e) {
+          // The master hung up.
+        }
+      }
+    };
+  }
+}
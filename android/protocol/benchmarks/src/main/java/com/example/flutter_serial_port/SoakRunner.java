@@ -0,0 +1,147 @@
+package com.example.flutter_serial_port;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Soak test of the request path against the {@link BoardSimulator}.
+ *
+ * {@code concurrency} loops each keep one request outstanding, cycling through
+ * door, temperature and elevator status queries with a shipment every
+ * {@code SHIPMENT_EVERY} requests, through the same writer, engine and frame
+ * decoder a port uses. The port statistics are printed every
+ * {@code reportSeconds} until {@code durationSeconds} have passed:
+ *
+ *     gradle -p android/protocol :benchmarks:soak -Psoak='3600 8 60 2 1'
+ *
+ * Arguments: duration, concurrency, report interval, drop and corrupt percent.
+ */
+public class SoakRunner implements FrameDecoder.Listener, CommandEngine.Callback {
+
+  private static final int SHIPMENT_EVERY = 50;
+  private static final int[] QUERIES = {
+      CommandTable.STATUS_DOOR, CommandTable.GET_TEMP, CommandTable.STATUS_ELEVATOR};
+
+  private final SimulatedTransport mTransport = new SimulatedTransport("BoardSimulator-soak");
+  private final PortStats mStats = new PortStats();
+  private final ScheduledThreadPoolExecutor mTimer =
+      new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("SoakTimer"));
+  private final CommandWriter mWriter;
+  private final CommandEngine mEngine;
+  private final FrameDecoder mDecoder = new FrameDecoder(this);
+  private final AtomicLong mSent = new AtomicLong();
+  private final AtomicLong mReplies = new AtomicLong();
+  private final AtomicLong mErrors = new AtomicLong();
+  private volatile boolean mStopped;
+
+  private SoakRunner(int concurrency) {
+    mWriter = new CommandWriter("SoakWriter", mTransport.outputStream(), 64, mStats);
+    mEngine = new CommandEngine(mWriter, mTimer, concurrency, mStats);
+  }
+
+  public static void main(String[] args) throws Exception {
+    long durationSeconds = args.length > 0 ? Long.parseLong(args[0]) : 60;
+    int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : CommandEngine.DEFAULT_MAX_IN_FLIGHT;
+    long reportSeconds = args.length > 2 ? Long.parseLong(args[2]) : 10;
+    SoakRunner runner = new SoakRunner(concurrency);
+    BoardSimulator simulator = runner.mTransport.simulator();
+    simulator.replyDelayMs = 2;
+    simulator.jitterMs = 3;
+    simulator.vendMs = 50;
+    simulator.dropPercent = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+    simulator.corruptPercent = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+    runner.run(durationSeconds, concurrency, reportSeconds);
+  }
+
+  private void run(long durationSeconds, int concurrency, long reportSeconds)
+      throws InterruptedException {
+    Thread reader = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        read();
+      }
+    }, "SoakReader");
+    reader.setDaemon(true);
+    reader.start();
+    mWriter.start();
+    for (int i = 0; i < concurrency; i++) {
+      next();
+    }
+    long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(durationSeconds);
+    long now;
+    while ((now = System.nanoTime()) < end) {
+      Thread.sleep(Math.min(TimeUnit.SECONDS.toMillis(reportSeconds),
+          TimeUnit.NANOSECONDS.toMillis(end - now) + 1));
+      report();
+    }
+    mStopped = true;
+    mEngine.close();
+    mWriter.close();
+    mTimer.shutdownNow();
+    mTransport.close();
+    report();
+  }
+
+  private void next() {
+    if (mStopped) {
+      return;
+    }
+    long n = mSent.incrementAndGet();
+    Command command;
+    int[] args;
+    if (n % SHIPMENT_EVERY == 0) {
+      command = CommandTable.get(CommandTable.SHIPMENT);
+      args = new int[] {(int) (n / SHIPMENT_EVERY % 60) + 1};
+    } else {
+      command = CommandTable.get(QUERIES[(int) (n % QUERIES.length)]);
+      args = new int[0];
+    }
+    mEngine.request(command, args, CommandEngine.DEFAULT_TIMEOUT_MS, CommandEngine.DEFAULT_RETRIES,
+        this);
+  }
+
+  private void read() {
+    InputStream in = mTransport.inputStream();
+    byte[] buffer = new byte[64];
+    try {
+      int size;
+      while ((size = in.read(buffer)) >= 0) {
+        mStats.bytesIn.addAndGet(size);
+        mStats.readSize.record(size);
+        mDecoder.feed(buffer, 0, size);
+      }
+    } catch (IOException e) {
+      // Closed at the end of the run.
+    }
+  }
+
+  @Override
+  public void onFrame(int type, byte[] frame, int length) {
+    mStats.framesIn.incrementAndGet();
+    mEngine.onFrame(type, frame, length);
+  }
+
+  @Override
+  public void onResponse(byte[] frame) {
+    mReplies.incrementAndGet();
+    next();
+  }
+
+  @Override
+  public void onError(String code, String message) {
+    mErrors.incrementAndGet();
+    next();
+  }
+
+  private void report() {
+    BoardSimulator simulator = mTransport.simulator();
+    System.out.println(String.format(
+        "sent %d, replies %d, errors %d, dropped by board %d, discarded bytes %d",
+        mSent.get(), mReplies.get(), mErrors.get(), simulator.droppedCount(),
+        mDecoder.discardedCount()));
+    System.out.println("  " + mStats.toMap());
+  }
+}
@@ -0,0 +1,246 @@
+/*
+ * Native half of NativeIo.java: the few POSIX calls the I/O loop needs on
+ * plain descriptor numbers, so it runs the same on Android and a desktop JVM.
+ */
+
+#define _GNU_SOURCE
+#include <errno.h>
+#include <fcntl.h>
+#include <jni.h>
+#include <poll.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <termios.h>
+#include <unistd.h>
+
+/* Bytes moved per read(2) or write(2) call through the stack. */
+#define COPY_BUFFER_SIZE 4096
+/* Channels per poll(2) call without a heap allocation. */
+#define STACK_POLL_FDS 64
+
+static void throw_io_exception(JNIEnv *env, const char *what, int error) {
+    char message[128];
+    jclass exception = (*env)->FindClass(env, "java/io/IOException");
+    if (exception == NULL) {
+        return;
+    }
+    snprintf(message, sizeof(message), "%s: %s", what, strerror(error));
+    (*env)->ThrowNew(env, exception, message);
+}
+
+JNIEXPORT jint JNICALL
+Java_com_example_flutter_1serial_1port_NativeIo_descriptor(JNIEnv *env, jclass clazz,
+        jobject file_descriptor) {
+    jclass cls = (*env)->GetObjectClass(env, file_descriptor);
+    /* "descriptor" on Android, "fd" on OpenJDK. */
+    jfieldID field = (*env)->GetFieldID(env, cls, "descriptor", "I");
+    if (field == NULL) {
+        (*env)->ExceptionClear(env);
+        field = (*env)->GetFieldID(env, cls, "fd", "I");
+    }
+    if (field == NULL) {
+        (*env)->ExceptionClear(env);
+        throw_io_exception(env, "descriptor", EBADF);
+        return -1;
+    }
+    return (*env)->GetIntField(env, file_descriptor, field);
+}
+
+JNIEXPORT jint JNICALL
+Java_com_example_flutter_1serial_1port_NativeIo_open(JNIEnv *env, jclass clazz, jstring path,
+        jboolean read_only) {
+    const char *name = (*env)->GetStringUTFChars(env, path, NULL);
+    int fd;
+    if (name == NULL) {
+        return -1;
+    }
+    fd = open(name, (read_only ? O_RDONLY : O_RDWR) | O_NOCTTY | O_NONBLOCK | O_CLOEXEC);
+    (*env)->ReleaseStringUTFChars(env, path, name);
+    if (fd < 0) {
+        throw_io_exception(env, "open", errno);
+    }
+    return fd;
+}
+
+JNIEXPORT void JNICALL
+Java_com_example_flutter_1serial_1port_NativeIo_pipe(JNIEnv *env, jclass clazz, jintArray fds) {
+    int pipe_fds[2];
+    if (pipe(pipe_fds) != 0) {
+        throw_io_exception(env, "pipe", errno);
+        return;
+    }
+    (*env)->SetIntArrayRegion(env, fds, 0, 2, pipe_fds);
+}
+
+JNIEXPORT void JNICALL
+Java_com_example_flutter_1serial_1port_NativeIo_setNonBlocking(JNIEnv *env, jclass clazz, jint fd,
+        jboolean non_blocking) {
+    int flags = fcntl(fd, F_GETFL);
+    if (flags < 0) {
+        throw_io_exception(env, "fcntl", errno);
+        return;
+    }
+    flags = non_blocking ? flags | O_NONBLOCK : flags & ~O_NONBLOCK;
+    if (fcntl(fd, F_SETFL, flags) != 0) {
+        throw_io_exception(env, "fcntl", errno);
+    }
+}
+
+JNIEXPORT jboolean JNICALL
+Java_com_example_flutter_1serial_1port_NativeIo_isNonBlocking(JNIEnv *env, jclass clazz, jint fd) {
+    int flags = fcntl(fd, F_GETFL);
+    if (flags < 0) {
+        throw_io_exception(env, "fcntl", errno);
+        return JNI_FALSE;
+    }
+    return (flags & O_NONBLOCK) != 0 ? JNI_TRUE : JNI_FALSE;
+}
+
+JNIEXPORT jint JNICALL
+Java_com_example_flutter_1serial_1port_NativeIo_poll(JNIEnv *env, jclass clazz, jintArray fds,
+        jintArray ready, jint count, jint timeout_ms) {
+    struct pollfd stack_fds[STACK_POLL_FDS];
+    jint stack_ints[STACK_POLL_FDS];
+    struct pollfd *poll_fds = stack_fds;
+    jint *ints = stack_ints;
+    int result;
+    int error;
+    int i;
+    if (count > STACK_POLL_FDS) {
+        poll_fds = malloc(sizeof(struct pollfd) * count);
+        ints = malloc(sizeof(jint) * count);
+        if (poll_fds == NULL || ints == NULL) {
+            free(poll_fds);
+            free(ints);
+            throw_io_exception(env, "poll", ENOMEM);
+            return -1;
+        }
+    }
+    (*env)->GetIntArrayRegion(env, fds, 0, count, ints);
+    for (i = 0; i < count; i++) {
+        poll_fds[i].fd = ints[i];
+        poll_fds[i].events = POLLIN;
+        poll_fds[i].revents = 0;
+    }
+    result = poll(poll_fds, count, timeout_ms);
+    error = errno;
+    if (result >= 0) {
+        for (i = 0; i < count; i++) {
+            ints[i] = (poll_fds[i].revents & (POLLIN | POLLERR | POLLHUP | POLLNVAL)) != 0;
+        }
+        (*env)->SetIntArrayRegion(env, ready, 0, count, ints);
+    }
+    if (poll_fds != stack_fds) {
+        free(poll_fds);
+        free(ints);
+    }
+    if (result < 0) {
+        if (error == EINTR) {
+            return 0;
+        }
+        throw_io_exception(env, "poll", error);
+        return -1;
+    }
+    return result;
+}
+
+JNIEXPORT jint JNICALL
+Java_com_example_flutter_1serial_1port_NativeIo_read(JNIEnv *env, jclass clazz, jint fd,
+        jbyteArray buffer, jint offset, jint length) {
+    jbyte copy[COPY_BUFFER_SIZE];
+    ssize_t size;
+    if (length > COPY_BUFFER_SIZE) {
+        length = COPY_BUFFER_SIZE;
+    }
+    do {
+        size = read(fd, copy, (size_t) length);
+    } while (size < 0 && errno == EINTR);
+    if (size < 0) {
+        if (errno == EAGAIN || errno == EWOULDBLOCK) {
+            return 0;
+        }
+        /* A pty whose other side has closed reports EIO: end of stream. */
+        if (errno == EIO) {
+            return -1;
+        }
+        throw_io_exception(env, "read", errno);
+        return -1;
+    }
+    if (size == 0) {
+        return length == 0 ? 0 : -1;
+    }
+    (*env)->SetByteArrayRegion(env, buffer, offset, (jsize) size, copy);
+    return (jint) size;
+}
+
+JNIEXPORT jint JNICALL
+Java_com_example_flutter_1serial_1port_NativeIo_write(JNIEnv *env, jclass clazz, jint fd,
+        jbyteArray buffer, jint offset, jint length) {
+    jbyte copy[COPY_BUFFER_SIZE];
+    ssize_t size;
+    if (length > COPY_BUFFER_SIZE) {
+        length = COPY_BUFFER_SIZE;
+    }
+    (*env)->GetByteArrayRegion(env, buffer, offset, length, copy);
+    do {
+        size = write(fd, copy, (size_t) length);
+    } while (size < 0 && errno == EINTR);
+    if (size < 0) {
+        if (errno == EAGAIN || errno == EWOULDBLOCK) {
+            return 0;
+        }
+        throw_io_exception(env, "write", errno);
+        return -1;
+    }
+    return (jint) size;
+}
+
+JNIEXPORT void JNICALL
+Java_com_example_flutter_1serial_1port_NativeIo_close(JNIEnv *env, jclass clazz, jint fd) {
+    if (close(fd) != 0 && errno != EINTR) {
+        throw_io_exception(env, "close", errno);
+    }
+}
+
+JNIEXPORT jstring JNICALL
+Java_com_example_flutter_1serial_1port_NativeIo_openPty(JNIEnv *env, jclass clazz, jintArray master) {
+    struct termios cfg;
+    char *name;
+    jstring path;
+    int slave;
+    int fd = posix_openpt(O_RDWR | O_NOCTTY | O_CLOEXEC);
+    if (fd < 0) {
+        throw_io_exception(env, "posix_openpt", errno);
+        return NULL;
+    }
+    if (grantpt(fd) != 0 || unlockpt(fd) != 0 || (name = ptsname(fd)) == NULL) {
+        int error = errno;
+        close(fd);
+        throw_io_exception(env, "ptsname", error);
+        return NULL;
+    }
+    path = (*env)->NewStringUTF(env, name);
+    /* Raw mode on the terminal side, so bytes pass unchanged in both directions. */
+    slave = open(name, O_RDWR | O_NOCTTY | O_CLOEXEC);
+    if (slave < 0 || tcgetattr(slave, &cfg) != 0) {
+        int error = errno;
+        if (slave >= 0) {
+            close(slave);
+        }
+        close(fd);
+        throw_io_exception(env, "tcgetattr", error);
+        return NULL;
+    }
+    cfmakeraw(&cfg);
+    if (tcsetattr(slave, TCSANOW, &cfg) != 0) {
+        int error = errno;
+        close(slave);
+        close(fd);
+        throw_io_exception(env, "tcsetattr", error);
+        return NULL;
+    }
+    close(slave);
+    (*env)->SetIntArrayRegion(env, master, 0, 1, &fd);
+    return path;
+}
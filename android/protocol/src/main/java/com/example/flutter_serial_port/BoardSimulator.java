@@ -0,0 +1,252 @@
+package com.example.flutter_serial_port;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stands in for the vending boards on the far end of a {@link Transport}.
+ *
+ * It answers the commands of {@link CommandTable} the way the TCN board, the
+ * drive board and the elevator do: {@code statusDoor}, {@code closeDoor} and
+ * {@code getTemp} get a board frame back, elevator packets get an echo of
+ * their command byte, and a {@code shipment} keeps the elevator busy for
+ * {@code vendMs}. Replies wait
+ * {@code replyDelayMs} plus up to {@code jitterMs}, and can be dropped or
+ * corrupted at random, or the next vend can be made to fail, to exercise the
+ * plugin's timeouts, retries and resynchronisation. Settings can be changed
+ * while it runs.
+ *
+ * Incoming frames are parsed leniently: the elevator BCC is not checked,
+ * because several commands are sent with a fixed or slot-number trailer.
+ */
+class BoardSimulator implements Runnable {
+
+  private static final int CMD_STATUS_DOOR = 0xDF;
+  private static final int CMD_GET_TEMP = 0xDC;
+  /** {@code closeDoor} is a door command behind an STX header: {@code 02 04 DF 20 55 AA}. */
+  private static final int CLOSE_DOOR_LENGTH = 6;
+
+  volatile int replyDelayMs = 5;
+  volatile int jitterMs;
+  volatile int vendMs = 1500;
+  volatile int dropPercent;
+  volatile int corruptPercent;
+  volatile boolean doorOpen;
+  volatile int temperature = 5;
+  /** Fault code the next shipment ends with; 0 for none. */
+  volatile int nextVendFault;
+
+  private final InputStream mInputStream;
+  private final OutputStream mOutputStream;
+  private final Thread mThread;
+  private final ScheduledThreadPoolExecutor mReplies;
+  private final Random mRandom = new Random();
+  private final AtomicLong mCommands = new AtomicLong();
+  private final AtomicLong mReplied = new AtomicLong();
+  private final AtomicLong mDropped = new AtomicLong();
+  private final byte[] mFrame = new byte[FrameDecoder.MAX_ELEVATOR_PAYLOAD + 4];
+  private int mLength;
+  private int mExpected;
+  private int mElevatorState = ReplyDecoder.ELEVATOR_IDLE;
+  private int mElevatorFault;
+  private int mVendSlot;
+
+  BoardSimulator(String name, Transport transport) {
+    mInputStream = transport.inputStream();
+    mOutputStream = transport.outputStream();
+    mThread = new Thread(this, name);
+    mThread.setDaemon(true);
+    mReplies = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory(name + "-replies"));
+  }
+
+  void start() {
+    mThread.start();
+  }
+
+  void close() {
+    mThread.interrupt();
+    mReplies.shutdownNow();
+  }
+
+  long commandCount() {
+    return mCommands.get();
+  }
+
+  long replyCount() {
+    return mReplied.get();
+  }
+
+  long droppedCount() {
+    return mDropped.get();
+  }
+
+  @Override
+  public void run() {
+    byte[] buffer = new byte[256];
+    try {
+      int size;
+      while (!mThread.isInterrupted() && (size = mInputStream.read(buffer)) >= 0) {
+        for (int i = 0; i < size; i++) {
+          parse(buffer[i]);
+        }
+      }
+    } catch (IOException e) {
+      // The transport was closed.
+    }
+  }
+
+  private void parse(byte b) {
+    if (mLength == 0) {
+      if (b == 0x00) {
+        mExpected = FrameDecoder.BOARD_FRAME_LENGTH;
+      } else if (b == 0x02) {
+        mExpected = 2;
+      } else {
+        return;
+      }
+    }
+    mFrame[mLength++] = b;
+    if (mExpected == 2 && mLength == 2) {
+      int payload = b & 0xFF;
+      if (payload == 0 || payload > FrameDecoder.MAX_ELEVATOR_PAYLOAD) {
+        mLength = 0;
+        return;
+      }
+      mExpected = payload + 4;
+      return;
+    }
+    if (mFrame[0] == 0x02 && mLength == 3 && (b & 0xFF) == CMD_STATUS_DOOR) {
+      mExpected = CLOSE_DOOR_LENGTH;
+    }
+    if (mExpected == FrameDecoder.BOARD_FRAME_LENGTH && mLength == 2 && b != (byte) 0xFF) {
+      mLength = 0;
+      parse(b);
+      return;
+    }
+    if (mLength == mExpected) {
+      mLength = 0;
+      mCommands.incrementAndGet();
+      if (mFrame[0] == 0x00) {
+        onBoardCommand(mFrame[2] & 0xFF);
+      } else if ((mFrame[2] & 0xFF) == CMD_STATUS_DOOR) {
+        doorOpen = false;
+        reply(board(CMD_STATUS_DOOR, ReplyDecoder.DOOR_CLOSED));
+      } else {
+        // Shipments carry the slot in byte 4; status packets have zeros there.
+        onElevatorCommand(mFrame[2] & 0xFF, mFrame[4] & 0xFF);
+      }
+    }
+  }
+
+  private void onBoardCommand(int cmd) {
+    switch (cmd) {
+    case CMD_STATUS_DOOR:
+      reply(board(cmd, doorOpen ? ReplyDecoder.DOOR_OPEN : ReplyDecoder.DOOR_CLOSED));
+      break;
+    case CMD_GET_TEMP:
+      reply(board(cmd, temperature));
+      break;
+    default:
+      // Slot, light, buzzer and setting commands are not answered.
+      break;
+    }
+  }
+
+  private void onElevatorCommand(int cmd, int data) {
+    switch (cmd) {
+    case ReplyDecoder.CMD_STATUS_ELEVATOR:
+      synchronized (this) {
+        reply(elevator(cmd, mElevatorState, mElevatorFault));
+      }
+      break;
+    case ReplyDecoder.CMD_SHIPMENT:
+      synchronized (this) {
+        if (mElevatorState == ReplyDecoder.ELEVATOR_BUSY || mElevatorFault != ReplyDecoder.NO_FAULT) {
+          reply(elevator(cmd, ReplyDecoder.SHIPMENT_BUSY, data));
+          break;
+        }
+        mElevatorState = ReplyDecoder.ELEVATOR_BUSY;
+        mVendSlot = data;
+        reply(elevator(cmd, ReplyDecoder.SHIPMENT_ACCEPTED, data));
+      }
+      schedule(new Runnable() {
+        @Override
+        public void run() {
+          synchronized (BoardSimulator.this) {
+            mElevatorState = ReplyDecoder.ELEVATOR_IDLE;
+            mElevatorFault = nextVendFault;
+            nextVendFault = 0;
+          }
+        }
+      }, vendMs);
+      break;
+    case ReplyDecoder.CMD_CLEAR_FAULT:
+      synchronized (this) {
+        mElevatorFault = 0;
+      }
+      reply(elevator(cmd, ReplyDecoder.SHIPMENT_ACCEPTED, 0));
+      break;
+    case ReplyDecoder.CMD_BACK_TO_ORIGIN:
+      reply(elevator(cmd, ReplyDecoder.SHIPMENT_ACCEPTED, 0));
+      break;
+    case ReplyDecoder.CMD_DRIVE_BOARD_STATUS:
+      synchronized (this) {
+        reply(elevator(cmd, mElevatorState, mElevatorFault));
+      }
+      break;
+    default:
+      break;
+    }
+  }
+
+  /** Slot of the last accepted shipment. */
+  synchronized int lastVendSlot() {
+    return mVendSlot;
+  }
+
+  private void reply(final byte[] frame) {
+    if (mRandom.nextInt(100) < dropPercent) {
+      mDropped.incrementAndGet();
+      return;
+    }
+    if (mRandom.nextInt(100) < corruptPercent) {
+      frame[2 + mRandom.nextInt(frame.length - 2)] ^= 0x5A;
+    }
+    int delay = replyDelayMs + (jitterMs > 0 ? mRandom.nextInt(jitterMs + 1) : 0);
+    schedule(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          mOutputStream.write(frame);
+          mReplied.incrementAndGet();
+        } catch (IOException e) {
+          // The transport was closed.
+        }
+      }
+    }, delay);
+  }
+
+  private void schedule(Runnable task, int delayMs) {
+    try {
+      mReplies.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      // Closed.
+    }
+  }
+
+  private static byte[] board(int cmd, int data) {
+    return new byte[] {0x00, (byte) 0xFF, (byte) cmd, (byte) ~cmd, (byte) data, (byte) ~data};
+  }
+
+  private static byte[] elevator(int cmd, int data0, int data1) {
+    byte[] frame = {0x02, 0x03, (byte) cmd, (byte) data0, (byte) data1, 0x03, 0x00};
+    frame[6] = FrameDecoder.bcc(frame, 0, 6);
+    return frame;
+  }
+}
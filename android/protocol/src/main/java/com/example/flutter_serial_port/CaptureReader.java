@@ -0,0 +1,76 @@
+package com.example.flutter_serial_port;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/** Reads the records of {@link CaptureWriter} segments back, in order. */
+class CaptureReader {
+
+  /** One captured block. {@link #data} is reused by the next call to {@link #next}. */
+  static final class Record {
+    byte direction;
+    long timestampNanos;
+    byte[] data = new byte[256];
+    int length;
+  }
+
+  private final List<File> mSegments;
+  private final Record mRecord = new Record();
+  private int mSegment;
+  private ByteBuffer mBuffer;
+
+  CaptureReader(List<File> segments) {
+    mSegments = segments;
+  }
+
+  /** Returns the next record, or null after the last one. */
+  Record next() throws IOException {
+    while (true) {
+      if (mBuffer == null) {
+        if (mSegment >= mSegments.size()) {
+          return null;
+        }
+        mBuffer = open(mSegments.get(mSegment++));
+      }
+      byte direction = mBuffer.remaining() >= CaptureWriter.RECORD_HEADER_SIZE ? mBuffer.get() : 0;
+      if (direction == 0) {
+        mBuffer = null;
+        continue;
+      }
+      mRecord.direction = direction;
+      mRecord.timestampNanos = mBuffer.getLong();
+      int length = mBuffer.getInt();
+      if (length < 0 || length > mBuffer.remaining()) {
+        throw new IOException("Corrupt capture record in " + mSegments.get(mSegment - 1));
+      }
+      if (mRecord.data.length < length) {
+        mRecord.data = new byte[length];
+      }
+      mBuffer.get(mRecord.data, 0, length);
+      mRecord.length = length;
+      return mRecord;
+    }
+  }
+
+  private static ByteBuffer open(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+      if (buffer.remaining() < CaptureWriter.HEADER_SIZE || buffer.getInt() != CaptureWriter.MAGIC) {
+        throw new IOException(file + " is not a capture");
+      }
+      if (buffer.getInt() != CaptureWriter.VERSION) {
+        throw new IOException(file + " has an unsupported capture version");
+      }
+      buffer.position(CaptureWriter.HEADER_SIZE);
+      return buffer;
+    } finally {
+      raf.close();
+    }
+  }
+}
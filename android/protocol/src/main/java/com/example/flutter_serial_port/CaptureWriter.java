@@ -0,0 +1,198 @@
+package com.example.flutter_serial_port;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Append-only capture of a port's traffic in memory-mapped segment files.
+ *
+ * Every block read from or written to the port becomes one record: a
+ * direction byte, the {@link System#nanoTime()} of the block and its bytes.
+ * {@link #record} only copies into the mapped segment, so it is cheap enough
+ * for the read and write threads. The next segment is created and mapped on a
+ * background thread while the current one fills; if it is not ready in time
+ * records are dropped and counted rather than stalling the caller, and a
+ * segment that could not be created is tried again. Only the
+ * newest {@code maxSegments} files with records are kept.
+ *
+ * Segment layout: a {@link #HEADER_SIZE} byte header (magic, version, wall
+ * clock and {@code nanoTime} at creation) followed by records. A zero
+ * direction byte marks the end of the written records.
+ */
+class CaptureWriter {
+
+  static final int MAGIC = 0x53504331; // "SPC1"
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 24;
+  static final int RECORD_HEADER_SIZE = 13;
+  static final byte IN = 1;
+  static final byte OUT = 2;
+  static final int DEFAULT_SEGMENT_BYTES = 4 * 1024 * 1024;
+  static final int DEFAULT_MAX_SEGMENTS = 4;
+
+  private final File mDirectory;
+  private final String mPrefix;
+  private final int mSegmentBytes;
+  private final int mMaxSegments;
+  private final ExecutorService mAllocator;
+  private final ArrayDeque<File> mSegments = new ArrayDeque<File>();
+  private final AtomicLong mRecords = new AtomicLong();
+  private final AtomicLong mDropped = new AtomicLong();
+  private MappedByteBuffer mCurrent;
+  private MappedByteBuffer mNext;
+  private boolean mAllocating;
+  private int mNextIndex;
+  private boolean mClosed;
+
+  CaptureWriter(File directory, String prefix, int segmentBytes, int maxSegments) throws IOException {
+    if (segmentBytes <= HEADER_SIZE + RECORD_HEADER_SIZE || maxSegments <= 0) {
+      throw new IllegalArgumentException("segmentBytes too small or maxSegments not positive");
+    }
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Cannot create " + directory);
+    }
+    mDirectory = directory;
+    mPrefix = prefix;
+    mSegmentBytes = segmentBytes;
+    mMaxSegments = maxSegments;
+    mAllocator = Executors.newSingleThreadExecutor(new NamedThreadFactory("SerialPortCapture-" + prefix));
+    mCurrent = map(newSegment());
+    allocateNext();
+  }
+
+  /** Appends one block. Safe to call from the read and write threads at once. */
+  void record(byte direction, long timestampNanos, byte[] data, int offset, int length) {
+    int size = RECORD_HEADER_SIZE + length;
+    synchronized (this) {
+      if (mClosed) {
+        return;
+      }
+      if (mCurrent.remaining() < size + 1) {
+        if (mNext == null || size + 1 > mSegmentBytes - HEADER_SIZE) {
+          if (mNext == null && !mAllocating) {
+            // The last allocation failed; try again for the records after this one.
+            allocateNext();
+          }
+          mDropped.incrementAndGet();
+          return;
+        }
+        mCurrent = mNext;
+        mNext = null;
+        allocateNext();
+      }
+      mCurrent.put(direction);
+      mCurrent.putLong(timestampNanos);
+      mCurrent.putInt(length);
+      mCurrent.put(data, offset, length);
+    }
+    mRecords.incrementAndGet();
+  }
+
+  long recordCount() {
+    return mRecords.get();
+  }
+
+  long droppedCount() {
+    return mDropped.get();
+  }
+
+  /** Segment files still on disk, oldest first. */
+  synchronized List<File> segments() {
+    return new ArrayList<File>(mSegments);
+  }
+
+  /** Flushes the current segment and stops capturing. Returns the segments, oldest first. */
+  List<File> close() {
+    synchronized (this) {
+      if (!mClosed) {
+        mClosed = true;
+        mCurrent.force();
+      }
+    }
+    mAllocator.shutdown();
+    // A segment prepared for rollover but never used is removed again.
+    synchronized (this) {
+      while (mAllocating) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+      if (mNext != null) {
+        mSegments.pollLast().delete();
+        mNext = null;
+      }
+      return new ArrayList<File>(mSegments);
+    }
+  }
+
+  /** Must hold the lock. */
+  private void allocateNext() {
+    mAllocating = true;
+    mAllocator.execute(new Runnable() {
+      @Override
+      public void run() {
+        MappedByteBuffer next = null;
+        File file;
+        synchronized (CaptureWriter.this) {
+          file = mClosed ? null : newSegment();
+        }
+        if (file != null) {
+          try {
+            next = map(file);
+          } catch (IOException e) {
+            // Records are dropped until the next one that does not fit asks
+            // for another segment and that one can be mapped.
+            synchronized (CaptureWriter.this) {
+              mSegments.remove(file);
+            }
+            file.delete();
+          }
+        }
+        synchronized (CaptureWriter.this) {
+          mNext = next;
+          mAllocating = false;
+          CaptureWriter.this.notifyAll();
+        }
+      }
+    });
+  }
+
+  /** Names the next segment and removes the oldest ones beyond the limit. Must hold the lock. */
+  private File newSegment() {
+    File file = new File(mDirectory, String.format("%s-%05d.cap", mPrefix, mNextIndex++));
+    mSegments.add(file);
+    // The segment prepared ahead does not count against the limit.
+    while (mSegments.size() > mMaxSegments + 1) {
+      mSegments.poll().delete();
+    }
+    return file;
+  }
+
+  private MappedByteBuffer map(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      raf.setLength(mSegmentBytes);
+      MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mSegmentBytes);
+      buffer.putInt(MAGIC);
+      buffer.putInt(VERSION);
+      buffer.putLong(System.currentTimeMillis());
+      buffer.putLong(System.nanoTime());
+      return buffer;
+    } finally {
+      // The mapping stays valid after the file is closed.
+      raf.close();
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package com.example.flutter_serial_port;
+
+/**
+ * Immutable description of one board command: a frame template plus the
+ * positions that take the command's data byte and its complement, and the
+ * kind of frame the board answers with.
+ */
+final class Command {
+
+  /** Response command byte wildcard for {@link #expects}. */
+  static final int ANY_COMMAND = -1;
+
+  final int id;
+  final String name;
+  final int paceMs;
+  private final byte[] mTemplate;
+  private final int[] mDataSlots;
+  private final int mComplementSlot;
+  private final int mDataOffset;
+  private int mResponseType;
+  private int mResponseCommand = ANY_COMMAND;
+
+  Command(int id, String name, byte[] template, int[] dataSlots, int complementSlot,
+      int dataOffset, int paceMs) {
+    this.id = id;
+    this.name = name;
+    this.paceMs = paceMs;
+    mTemplate = template;
+    mDataSlots = dataSlots;
+    mComplementSlot = complementSlot;
+    mDataOffset = dataOffset;
+  }
+
+  /**
+   * Declares the reply: a frame of {@code type} whose command byte is {@code command}.
+   * Only called while {@link CommandTable} is being built.
+   */
+  Command expects(int type, int command) {
+    mResponseType = type;
+    mResponseCommand = command;
+    return this;
+  }
+
+  boolean expectsResponse() {
+    return mResponseType != 0;
+  }
+
+  /** Whether the reply does not echo the command byte, so it can only be paired by order. */
+  boolean pairedByOrder() {
+    return mResponseType != 0 && mResponseCommand == ANY_COMMAND;
+  }
+
+  /** Whether a decoded frame is this command's reply. */
+  boolean matches(int type, byte[] frame, int length) {
+    if (type != mResponseType || length < 3) {
+      return false;
+    }
+    return mResponseCommand == ANY_COMMAND || (frame[2] & 0xFF) == mResponseCommand;
+  }
+
+  boolean takesData() {
+    return mDataSlots.length > 0;
+  }
+
+  int length() {
+    return mTemplate.length;
+  }
+
+  /**
+   * Writes the frame for {@code data} into {@code out} and returns its length.
+   * Commands without a data byte ignore {@code data}.
+   */
+  int encode(int data, byte[] out) {
+    System.arraycopy(mTemplate, 0, out, 0, mTemplate.length);
+    if (mDataSlots.length > 0) {
+      int value = (data + mDataOffset) & 0xFF;
+      for (int slot : mDataSlots) {
+        out[slot] = (byte) value;
+      }
+      if (mComplementSlot >= 0) {
+        out[mComplementSlot] = (byte) (0xFF - value);
+      }
+    }
+    return mTemplate.length;
+  }
+}
@@ -0,0 +1,333 @@
+package com.example.flutter_serial_port;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pairs commands with the frames the boards answer with.
+ *
+ * Up to {@code maxInFlight} requests are written without waiting for earlier
+ * replies; the rest wait in order. Board replies do not echo the command, so
+ * only one request awaiting such a reply is in flight at a time, and a lost or
+ * unsolicited board frame cannot shift the replies of the requests behind it.
+ * A decoded frame completes the oldest request it matches whose bytes have
+ * started going out, so a reply that arrives while the write call is still
+ * returning is not missed. A request whose reply does not arrive within its
+ * timeout is written again while it has retries left, and fails after that.
+ * Commands without a declared reply, and requests that do not await one,
+ * complete as soon as they have been written. An idle listener hears each
+ * time the last request completes.
+ */
+class CommandEngine implements CommandWriter.Callback {
+
+  static final int DEFAULT_MAX_IN_FLIGHT = 4;
+  static final int DEFAULT_TIMEOUT_MS = 1000;
+  static final int DEFAULT_RETRIES = 1;
+
+  /** Outcome of a request. Called on the writer, read or timer thread. */
+  interface Callback {
+    /** {@code frame} is the decoded reply, or null for commands without one. */
+    void onResponse(byte[] frame);
+
+    void onError(String code, String message);
+  }
+
+  private class Pending implements Runnable {
+    final Command command;
+    final int[] args;
+    final int timeoutMs;
+    final boolean awaitReply;
+    /** Awaits a reply that can only be told apart from others by order. */
+    final boolean pairedByOrder;
+    final boolean paced;
+    final Callback callback;
+    int retriesLeft;
+    boolean written;
+    long writtenAt;
+    ScheduledFuture<?> timeout;
+
+    Pending(Command command, int[] args, int timeoutMs, int retries, boolean awaitReply,
+        boolean paced, Callback callback) {
+      this.command = command;
+      this.args = args;
+      this.awaitReply = awaitReply && command.expectsResponse();
+      this.pairedByOrder = this.awaitReply && command.pairedByOrder();
+      this.paced = paced;
+      this.timeoutMs = timeoutMs;
+      this.retriesLeft = retries;
+      this.callback = callback;
+    }
+
+    @Override
+    public void run() {
+      onTimeout(this);
+    }
+  }
+
+  private final CommandWriter mWriter;
+  private final PortStats mStats;
+  private final int mMaxInFlight;
+  private final ScheduledExecutorService mTimer;
+  private final ArrayList<Pending> mInFlight = new ArrayList<Pending>();
+  private final ArrayDeque<Pending> mWaiting = new ArrayDeque<Pending>();
+  private boolean mClosed;
+  private volatile CommandWriter.IdleListener mIdleListener;
+
+  CommandEngine(CommandWriter writer, ScheduledExecutorService timer, int maxInFlight,
+      PortStats stats) {
+    if (maxInFlight <= 0) {
+      throw new IllegalArgumentException("maxInFlight must be positive");
+    }
+    mWriter = writer;
+    mStats = stats;
+    mTimer = timer;
+    mMaxInFlight = maxInFlight;
+  }
+
+  /** Sends {@code command} and reports its reply to {@code callback}. */
+  void request(Command command, int[] args, int timeoutMs, int retries, Callback callback) {
+    request(command, args, timeoutMs, retries, true, callback);
+  }
+
+  /**
+   * Sends {@code command}. With {@code awaitReply} false the callback gets a null
+   * frame as soon as the command has been written.
+   */
+  void request(Command command, int[] args, int timeoutMs, int retries, boolean awaitReply,
+      Callback callback) {
+    request(command, args, timeoutMs, retries, awaitReply, true, callback);
+  }
+
+  /**
+   * Sends {@code command}; with {@code paced} false the writer does not hold
+   * the next write back for the command's pace. For callers that send the
+   * next command only once the board has answered this one.
+   */
+  void request(Command command, int[] args, int timeoutMs, int retries, boolean awaitReply,
+      boolean paced, Callback callback) {
+    Pending pending = new Pending(command, args, timeoutMs, retries, awaitReply, paced, callback);
+    synchronized (this) {
+      if (mClosed) {
+        pending = null;
+      } else if (!mWaiting.isEmpty() || !canStart(pending)) {
+        mWaiting.add(pending);
+        return;
+      } else {
+        mInFlight.add(pending);
+      }
+    }
+    if (pending == null) {
+      callback.onError("NOT_OPEN", "Serial port is not open");
+      return;
+    }
+    send(pending);
+  }
+
+  /** Requests written or waiting to be written. */
+  synchronized int pendingCount() {
+    return mInFlight.size() + mWaiting.size();
+  }
+
+  /** Whether a request awaiting a board reply is in flight or waiting to be written. */
+  synchronized boolean hasBoardRequest() {
+    for (int i = 0; i < mInFlight.size(); i++) {
+      if (mInFlight.get(i).pairedByOrder) {
+        return true;
+      }
+    }
+    for (Pending pending : mWaiting) {
+      if (pending.pairedByOrder) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Calls {@code listener} each time no request is left, or no one if null. */
+  void setIdleListener(CommandWriter.IdleListener listener) {
+    mIdleListener = listener;
+  }
+
+  /** Offers a decoded frame to the oldest matching request. Called on the read thread. */
+  void onFrame(int type, byte[] frame, int length) {
+    Pending matched = null;
+    synchronized (this) {
+      for (int i = 0; i < mInFlight.size(); i++) {
+        Pending pending = mInFlight.get(i);
+        if (pending.written && pending.awaitReply && pending.command.matches(type, frame, length)) {
+          matched = pending;
+          mInFlight.remove(i);
+          break;
+        }
+      }
+    }
+    if (matched == null) {
+      return;
+    }
+    if (matched.timeout != null) {
+      matched.timeout.cancel(false);
+    }
+    mStats.responseTime.recordSince(matched.writtenAt);
+    matched.callback.onResponse(Arrays.copyOf(frame, length));
+    pump();
+  }
+
+  /** Fails every request. The timer belongs to the caller and is left running. */
+  void close() {
+    ArrayList<Pending> failed;
+    synchronized (this) {
+      mClosed = true;
+      failed = new ArrayList<Pending>(mInFlight);
+      failed.addAll(mWaiting);
+      mInFlight.clear();
+      mWaiting.clear();
+    }
+    for (Pending pending : failed) {
+      if (pending.timeout != null) {
+        pending.timeout.cancel(false);
+      }
+      pending.callback.onError("NOT_OPEN", "Serial port closed");
+    }
+  }
+
+  @Override
+  public void onWriting(CommandWriter.Request request) {
+    Pending pending = (Pending) request.tag;
+    synchronized (this) {
+      if (mInFlight.contains(pending)) {
+        pending.written = true;
+        pending.writtenAt = System.nanoTime();
+      }
+    }
+  }
+
+  @Override
+  public void onWritten(CommandWriter.Request request) {
+    Pending pending = (Pending) request.tag;
+    if (!pending.awaitReply) {
+      synchronized (this) {
+        if (!mInFlight.remove(pending)) {
+          return;
+        }
+      }
+      pending.callback.onResponse(null);
+      pump();
+      return;
+    }
+    synchronized (this) {
+      // Gone already if the reply arrived during the write.
+      if (!mInFlight.contains(pending)) {
+        return;
+      }
+      if (!mClosed) {
+        pending.timeout = mTimer.schedule(pending, pending.timeoutMs, TimeUnit.MILLISECONDS);
+      }
+    }
+  }
+
+  @Override
+  public void onWriteFailed(CommandWriter.Request request, IOException error) {
+    fail((Pending) request.tag, "WRITE_FAILED", error.getMessage());
+  }
+
+  private void send(Pending pending) {
+    CommandWriter.Request request = mWriter.obtain();
+    if (request == null) {
+      mStats.rejectedWrites.incrementAndGet();
+      fail(pending, "QUEUE_FULL", "Write queue is full");
+      return;
+    }
+    try {
+      CommandTable.encode(pending.command, pending.args, request);
+    } catch (IllegalArgumentException e) {
+      mWriter.recycle(request);
+      fail(pending, "BAD_ARGS", e.getMessage());
+      return;
+    }
+    if (!pending.paced) {
+      request.paceMs = 0;
+    }
+    request.callback = this;
+    request.tag = pending;
+    mWriter.submit(request);
+  }
+
+  private void onTimeout(Pending pending) {
+    boolean retry;
+    synchronized (this) {
+      if (!mInFlight.contains(pending)) {
+        return;
+      }
+      retry = pending.retriesLeft > 0;
+      if (retry) {
+        pending.retriesLeft--;
+        pending.written = false;
+        pending.timeout = null;
+      } else {
+        mInFlight.remove(pending);
+      }
+    }
+    if (retry) {
+      send(pending);
+      return;
+    }
+    pending.callback.onError("TIMEOUT",
+        pending.command.name + " got no reply within " + pending.timeoutMs + " ms");
+    pump();
+  }
+
+  private void fail(Pending pending, String code, String message) {
+    synchronized (this) {
+      if (!mInFlight.remove(pending)) {
+        return;
+      }
+    }
+    pending.callback.onError(code, message);
+    pump();
+  }
+
+  /**
+   * Moves waiting requests into flight, in order, while they can start. Called
+   * after a request completes.
+   */
+  private void pump() {
+    boolean idle;
+    while (true) {
+      Pending next;
+      synchronized (this) {
+        next = mWaiting.peek();
+        if (mClosed || next == null || !canStart(next)) {
+          idle = !mClosed && next == null && mInFlight.isEmpty();
+          break;
+        }
+        mWaiting.poll();
+        mInFlight.add(next);
+      }
+      send(next);
+    }
+    CommandWriter.IdleListener listener = mIdleListener;
+    if (idle && listener != null) {
+      listener.onIdle();
+    }
+  }
+
+  /** Must hold the lock. */
+  private boolean canStart(Pending pending) {
+    if (mInFlight.size() >= mMaxInFlight) {
+      return false;
+    }
+    if (pending.pairedByOrder) {
+      for (int i = 0; i < mInFlight.size(); i++) {
+        if (mInFlight.get(i).pairedByOrder) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+}
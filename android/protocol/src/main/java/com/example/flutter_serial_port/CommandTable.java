@@ -0,0 +1,234 @@
+package com.example.flutter_serial_port;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The command set understood by the drive, elevator and temperature boards.
+ *
+ * Ids are part of the method channel API (see {@code TcnCommand} on the Dart
+ * side) and must not be renumbered. {@link #RAW} and {@link #SHIPMENT_RANGE}
+ * take more than one argument and are expanded by the caller.
+ */
+final class CommandTable {
+
+  static final int WITHOUT_ELEVATOR_DROP_1_WITHOUT_SENSOR = 0;
+  static final int WITHOUT_ELEVATOR_DROP_WITHOUT_SENSOR = 1;
+  static final int WITHOUT_ELEVATOR_DROP_1_WITH_SENSOR = 2;
+  static final int WITHOUT_ELEVATOR_DROP_WITH_SENSOR = 3;
+  static final int WITHOUT_ELEVATOR_TURN_ALL = 4;
+  static final int ALL_SINGLE_SLOT = 5;
+  static final int STATUS_DOOR = 6;
+  static final int CLOSE_DOOR = 7;
+  static final int OPEN_BUZZER = 8;
+  static final int CLOSE_BUZZER = 9;
+  static final int GLASS_HEATING_ON = 10;
+  static final int GLASS_HEATING_OFF = 11;
+  static final int LIGHT_ON = 12;
+  static final int LIGHT_OFF = 13;
+  static final int HEATING_MODE = 14;
+  static final int REFRI_MODE = 15;
+  static final int SET_DOUBLE = 16;
+  static final int SET_SINGLE = 17;
+  static final int SET_1_AND_2_SINGLE = 18;
+  static final int GET_TEMP = 19;
+  static final int NO_CONTROL_TEMP = 20;
+  static final int CONTROL_TEMP = 21;
+  static final int DEFROSTING_TIME_FOR_20_MIN = 22;
+  static final int COMPRESSOR_120_MINUTES = 23;
+  static final int TEMPERATURE_DIFFERENCE_SET_TO_2 = 24;
+  static final int TEMPERATURE_COMPENSATION_SET_TO_1 = 25;
+  static final int SET_TEMP = 26;
+  static final int SET_TEMP_TO_5 = 27;
+  static final int CHECK_VALID_1 = 28;
+  static final int DRIVE_BOARD_STATUS = 29;
+  static final int STATUS_ELEVATOR = 30;
+  static final int SHIPMENT = 31;
+  static final int SHIPMENT_PACED = 32;
+  static final int CLEAR_ELEVATOR_FAULT = 33;
+  static final int BACK_ELEVATOR_TO_ORIGIN = 34;
+  /** Writes its arguments as raw bytes. */
+  static final int RAW = 35;
+  /**
+   * Args {@code [from, to, slot]}: a shipment frame for every trailer byte
+   * from..to, within 0..255.
+   */
+  static final int SHIPMENT_RANGE = 36;
+
+  static final int MAX_FRAME_LENGTH = 10;
+  static final int ELEVATOR_PACE_MS = 200;
+
+  private static final int[] NONE = new int[0];
+  private static final Command[] COMMANDS = new Command[SHIPMENT_RANGE + 1];
+  private static final Map<String, Command> BY_NAME;
+
+  static {
+    board(WITHOUT_ELEVATOR_DROP_1_WITHOUT_SENSOR, "withoutElevatorDrop1withoutSensor", 0x01, 0x55);
+    boardSlot(WITHOUT_ELEVATOR_DROP_WITHOUT_SENSOR, "withoutElevatorDropWithoutSensor", 0x55, 0);
+    board(WITHOUT_ELEVATOR_DROP_1_WITH_SENSOR, "withoutElevatorDrop1WithSensor", 0x01, 0xAA);
+    boardSlot(WITHOUT_ELEVATOR_DROP_WITH_SENSOR, "withoutElevatorDropWithSensor", 0xAA, 0);
+    board(WITHOUT_ELEVATOR_TURN_ALL, "withoutElevatorTurnAll", 0x65, 0x55);
+    board(ALL_SINGLE_SLOT, "allSingleSlot", 0xCB, 0x55);
+    board(STATUS_DOOR, "statusDoor", 0xDF, 0x55);
+    add(CLOSE_DOOR, "closeDoor", frame(0x02, 0x04, 0xDF, 0x20, 0x55, 0xAA), NONE, -1, 0);
+    board(OPEN_BUZZER, "openBuzzer", 0xDE, 0xAA);
+    board(CLOSE_BUZZER, "closeBuzzer", 0xDE, 0x55);
+    board(GLASS_HEATING_ON, "glassHeatingOn", 0xD4, 0x01);
+    board(GLASS_HEATING_OFF, "glassHeatingOff", 0xD4, 0x00);
+    board(LIGHT_ON, "lightOn", 0xDD, 0xAA);
+    board(LIGHT_OFF, "lightOff", 0xDD, 0x55);
+    board(HEATING_MODE, "heatingMode", 0xCD, 0x01);
+    board(REFRI_MODE, "refriMode", 0xCD, 0x01);
+    boardData(SET_DOUBLE, "setDouble", 0xCA);
+    boardData(SET_SINGLE, "setSingle", 0xC9);
+    board(SET_1_AND_2_SINGLE, "set1And2Single", 0xC9, 0x01);
+    board(GET_TEMP, "getTemp", 0xDC, 0x55);
+    board(NO_CONTROL_TEMP, "noControlTemp", 0xCC, 0x00);
+    board(CONTROL_TEMP, "controlTemp", 0xCC, 0x01);
+    board(DEFROSTING_TIME_FOR_20_MIN, "defrostingTimeFor20min", 0xD1, 0x14);
+    board(COMPRESSOR_120_MINUTES, "120MinutesCompressor", 0xD2, 0x78);
+    board(TEMPERATURE_DIFFERENCE_SET_TO_2, "temperatureDifferenceSetTo2", 0xCF, 0x02);
+    board(TEMPERATURE_COMPENSATION_SET_TO_1, "temperatureCompensationSetTo1", 0xD0, 0x01);
+    boardData(SET_TEMP, "setTemp", 0xCE);
+    board(SET_TEMP_TO_5, "setTempTo5", 0xCE, 0x05);
+    boardSlot(CHECK_VALID_1, "checkvalid1", 0x55, 0x78);
+    add(DRIVE_BOARD_STATUS, "driveBoardStatus", frame(0x02, 0x03, 0x52, 0x00, 0x00, 0x03, 0x03), NONE, -1, 0);
+    add(STATUS_ELEVATOR, "statusElevator", frame(0x02, 0x03, 0x01, 0x00, 0x00, 0x03, 0x03), NONE, -1, 0);
+    add(SHIPMENT, "shipment", frame(0x02, 0x06, 0x02, 0x00, 0x00, 0x00, 0x00, 0x00, 0x03, 0x05),
+        new int[] {4, 7}, -1, 0);
+    add(SHIPMENT_PACED, "d2", frame(0x02, 0x06, 0x02, 0x00, 0x00, 0x00, 0x00, 0x00, 0x03, 0x00),
+        new int[] {4, 7, 9}, -1, ELEVATOR_PACE_MS);
+    add(CLEAR_ELEVATOR_FAULT, "clearElevatorFault", frame(0x02, 0x03, 0x50, 0x00, 0x00, 0x03, 0x52),
+        NONE, -1, ELEVATOR_PACE_MS);
+    add(BACK_ELEVATOR_TO_ORIGIN, "backElevatorToOrigin", frame(0x02, 0x03, 0x05, 0x00, 0x00, 0x03, 0x05),
+        NONE, -1, ELEVATOR_PACE_MS);
+    add(RAW, "t", new byte[0], NONE, -1, 0);
+    add(SHIPMENT_RANGE, "d", frame(0x02, 0x06, 0x02, 0x00, 0x00, 0x00, 0x00, 0x00, 0x03, 0x00),
+        new int[] {4, 7}, -1, ELEVATOR_PACE_MS);
+
+    // Board replies carry no reliable echo, so they are paired in order of
+    // sending, one request at a time. Elevator and drive board packets echo
+    // the command byte.
+    COMMANDS[STATUS_DOOR].expects(FrameDecoder.TYPE_BOARD, Command.ANY_COMMAND);
+    // The door board answers closeDoor with the door state, as it does statusDoor.
+    COMMANDS[CLOSE_DOOR].expects(FrameDecoder.TYPE_BOARD, Command.ANY_COMMAND);
+    COMMANDS[GET_TEMP].expects(FrameDecoder.TYPE_BOARD, Command.ANY_COMMAND);
+    COMMANDS[DRIVE_BOARD_STATUS].expects(FrameDecoder.TYPE_ELEVATOR, 0x52);
+    COMMANDS[STATUS_ELEVATOR].expects(FrameDecoder.TYPE_ELEVATOR, 0x01);
+    COMMANDS[SHIPMENT].expects(FrameDecoder.TYPE_ELEVATOR, 0x02);
+    COMMANDS[CLEAR_ELEVATOR_FAULT].expects(FrameDecoder.TYPE_ELEVATOR, 0x50);
+    COMMANDS[BACK_ELEVATOR_TO_ORIGIN].expects(FrameDecoder.TYPE_ELEVATOR, 0x05);
+
+    Map<String, Command> byName = new HashMap<String, Command>();
+    for (Command command : COMMANDS) {
+      byName.put(command.name, command);
+    }
+    BY_NAME = Collections.unmodifiableMap(byName);
+  }
+
+  private CommandTable() {
+  }
+
+  /** Returns the command with the given id, or null if there is none. */
+  static Command get(int id) {
+    return id >= 0 && id < COMMANDS.length ? COMMANDS[id] : null;
+  }
+
+  /** Returns the command with the given {@code tcnCommand} name, or null if there is none. */
+  static Command get(String name) {
+    return BY_NAME.get(name);
+  }
+
+  /** Whether {@code id} makes a board or the elevator hand out goods. */
+  static boolean dispenses(int id) {
+    switch (id) {
+    case WITHOUT_ELEVATOR_DROP_1_WITHOUT_SENSOR:
+    case WITHOUT_ELEVATOR_DROP_WITHOUT_SENSOR:
+    case WITHOUT_ELEVATOR_DROP_1_WITH_SENSOR:
+    case WITHOUT_ELEVATOR_DROP_WITH_SENSOR:
+    case WITHOUT_ELEVATOR_TURN_ALL:
+    case SHIPMENT:
+    case SHIPMENT_PACED:
+    case SHIPMENT_RANGE:
+      return true;
+    default:
+      return false;
+    }
+  }
+
+  /** Fills {@code request} with the frames for {@code command}. */
+  static void encode(Command command, int[] args, CommandWriter.Request request) {
+    request.commandId = command.id;
+    switch (command.id) {
+    case CommandTable.RAW:
+      if (args.length == 0) {
+        throw new IllegalArgumentException(command.name + " expects at least one byte");
+      }
+      byte[] raw = request.ensureCapacity(args.length);
+      for (int i = 0; i < args.length; i++) {
+        raw[i] = (byte) args[i];
+      }
+      request.length = args.length;
+      break;
+    case CommandTable.SHIPMENT_RANGE:
+      if (args.length < 3 || args[0] < 0 || args[1] < args[0] || args[1] > 0xFF) {
+        throw new IllegalArgumentException(
+            command.name + " expects [from, to, slot] with 0 <= from <= to <= 255");
+      }
+      int frames = args[1] - args[0] + 1;
+      byte[] data = request.ensureCapacity(frames * command.length());
+      int length = command.encode(args[2], data);
+      for (int i = 1; i < frames; i++) {
+        System.arraycopy(data, 0, data, i * length, length);
+      }
+      for (int i = 0; i < frames; i++) {
+        data[(i + 1) * length - 1] = (byte) (args[0] + i);
+      }
+      request.length = frames * length;
+      request.frameLength = length;
+      request.paceMs = command.paceMs;
+      break;
+    default:
+      if (command.takesData() && args.length < 1) {
+        throw new IllegalArgumentException(command.name + " expects a data argument");
+      }
+      request.length = command.encode(args.length > 0 ? args[0] : 0, request.data);
+      request.paceMs = command.paceMs;
+      break;
+    }
+  }
+
+  /** {@code 00 FF cmd ~cmd data ~data} with a fixed data byte. */
+  private static void board(int id, String name, int cmd, int data) {
+    add(id, name, frame(0x00, 0xFF, cmd, 0xFF - cmd, data, 0xFF - data), NONE, -1, 0);
+  }
+
+  /** {@code 00 FF cmd ~cmd data ~data} with the data byte taken from the caller. */
+  private static void boardData(int id, String name, int cmd) {
+    add(id, name, frame(0x00, 0xFF, cmd, 0xFF - cmd, 0x00, 0xFF), new int[] {4}, 5, 0);
+  }
+
+  /** {@code 00 FF slot ~slot mode ~mode} where the slot (plus offset) is taken from the caller. */
+  private static void boardSlot(int id, String name, int mode, int offset) {
+    add(id, name, frame(0x00, 0xFF, 0x00, 0xFF, mode, 0xFF - mode), new int[] {2}, 3, offset, 0);
+  }
+
+  private static void add(int id, String name, byte[] template, int[] dataSlots, int complementSlot,
+      int paceMs) {
+    add(id, name, template, dataSlots, complementSlot, 0, paceMs);
+  }
+
+  private static void add(int id, String name, byte[] template, int[] dataSlots, int complementSlot,
+      int dataOffset, int paceMs) {
+    COMMANDS[id] = new Command(id, name, template, dataSlots, complementSlot, dataOffset, paceMs);
+  }
+
+  private static byte[] frame(int... bytes) {
+    byte[] frame = new byte[bytes.length];
+    for (int i = 0; i < bytes.length; i++) {
+      frame[i] = (byte) bytes[i];
+    }
+    return frame;
+  }
+}
@@ -0,0 +1,349 @@
+package com.example.flutter_serial_port;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes queued commands to a port on a dedicated thread.
+ *
+ * Requests come from a fixed pool, so the pool size is also the queue bound:
+ * {@link #obtain()} returns null while every request is queued or in flight,
+ * and the caller reports that back as back-pressure. A request can carry
+ * several frames of the same length; after each frame the writer holds the
+ * next write back for the request's pace instead of sleeping on the caller's
+ * thread.
+ *
+ * Requests without a pace are coalesced: the writer gathers the unpaced
+ * requests queued behind the first one, waiting up to {@code coalesceDelayMs}
+ * for more, and writes them with a single call of at most
+ * {@code coalesceBytes}. A paced request ends the gather and is written after
+ * it, so requests always reach the wire in the order they were submitted.
+ *
+ * With a journal set, dispensing commands are begun in it when submitted and
+ * marked once written, or ended if they are discarded unwritten. An idle
+ * listener hears each time the writer has written everything queued.
+ */
+class CommandWriter implements Runnable {
+
+  static final int DEFAULT_CAPACITY = 32;
+  static final int DEFAULT_COALESCE_BYTES = 256;
+  static final int DEFAULT_COALESCE_DELAY_MS = 0;
+
+  /** One queued write: {@code length / frameLength} frames, each followed by {@code paceMs}. */
+  static final class Request {
+    byte[] data = new byte[CommandTable.MAX_FRAME_LENGTH];
+    int length;
+    int frameLength;
+    int paceMs;
+    /** The {@link CommandTable} id the request was encoded from, or -1 for raw bytes. */
+    int commandId = -1;
+    /** Its journal transaction, or 0. */
+    long txn;
+    Callback callback;
+    Object tag;
+
+    /** Makes sure {@link #data} can hold {@code capacity} bytes; existing content is discarded. */
+    byte[] ensureCapacity(int capacity) {
+      if (data.length < capacity) {
+        data = new byte[capacity];
+      }
+      return data;
+    }
+
+    private void reset() {
+      length = 0;
+      frameLength = 0;
+      paceMs = 0;
+      commandId = -1;
+      txn = 0;
+      callback = null;
+      tag = null;
+    }
+  }
+
+  /**
+   * Told about a request as its bytes go out and once it has been written or
+   * has failed. Called on the writer thread.
+   */
+  interface Callback {
+    /** The request's first byte is about to be written; a reply may arrive before the write returns. */
+    void onWriting(Request request);
+
+    void onWritten(Request request);
+
+    void onWriteFailed(Request request, IOException error);
+  }
+
+  /** Told that nothing is left to write. Called on the writer thread. */
+  interface IdleListener {
+    void onIdle();
+  }
+
+  private final OutputStream mOutputStream;
+  private final PortStats mStats;
+  private final int mCapacity;
+  private final int mCoalesceBytes;
+  private final long mCoalesceDelayNanos;
+  private final byte[] mGather;
+  private final ArrayList<Request> mGathered;
+  /** Taken from the queue while gathering but not coalescable; written next. */
+  private Request mHeld;
+  private final ArrayBlockingQueue<Request> mFree;
+  private final ArrayBlockingQueue<Request> mQueue;
+  private final Thread mThread;
+  private volatile boolean mClosed;
+  private long mNextWriteAt;
+  private volatile CaptureWriter mCapture;
+  private volatile VendJournal.Tracker mJournal;
+  private volatile IdleListener mIdleListener;
+
+  CommandWriter(String name, OutputStream outputStream, int capacity, PortStats stats) {
+    this(name, outputStream, capacity, DEFAULT_COALESCE_BYTES, DEFAULT_COALESCE_DELAY_MS, stats);
+  }
+
+  /** A {@code coalesceBytes} of 0 writes every request on its own. */
+  CommandWriter(String name, OutputStream outputStream, int capacity, int coalesceBytes,
+      int coalesceDelayMs, PortStats stats) {
+    if (capacity <= 0 || coalesceBytes < 0 || coalesceDelayMs < 0) {
+      throw new IllegalArgumentException("capacity must be positive and coalescing not negative");
+    }
+    mOutputStream = outputStream;
+    mStats = stats;
+    mCapacity = capacity;
+    mCoalesceBytes = coalesceBytes;
+    mCoalesceDelayNanos = TimeUnit.MILLISECONDS.toNanos(coalesceDelayMs);
+    mGather = new byte[coalesceBytes];
+    mGathered = new ArrayList<Request>(capacity);
+    mFree = new ArrayBlockingQueue<Request>(capacity);
+    mQueue = new ArrayBlockingQueue<Request>(capacity);
+    for (int i = 0; i < capacity; i++) {
+      mFree.offer(new Request());
+    }
+    mThread = new Thread(this, name);
+    mNextWriteAt = System.nanoTime();
+  }
+
+  void start() {
+    mThread.start();
+  }
+
+  /** Returns a free request to fill in, or null if the queue is full. */
+  Request obtain() {
+    return mClosed ? null : mFree.poll();
+  }
+
+  /** Queues a request obtained from {@link #obtain()}; its callback must be set. */
+  void submit(Request request) {
+    if (request.frameLength <= 0) {
+      request.frameLength = request.length;
+    }
+    VendJournal.Tracker journal = mJournal;
+    if (journal != null && request.commandId >= 0) {
+      request.txn = journal.begin(request.commandId, request.data, 0, request.length);
+    }
+    mQueue.offer(request);
+    mStats.recordWriteQueueDepth(depth());
+    if (mClosed) {
+      failPending();
+    }
+  }
+
+  /** Hands a request obtained from {@link #obtain()} back without writing it. */
+  void recycle(Request request) {
+    request.reset();
+    mFree.offer(request);
+  }
+
+  /** Requests queued or being written. */
+  int depth() {
+    return mCapacity - mFree.size();
+  }
+
+  int capacity() {
+    return mCapacity;
+  }
+
+  /** Records every frame written from now on to {@code capture}, or stops recording if null. */
+  void setCapture(CaptureWriter capture) {
+    mCapture = capture;
+  }
+
+  /** Journals dispensing commands submitted from now on to {@code journal}, or none if null. */
+  void setJournal(VendJournal.Tracker journal) {
+    mJournal = journal;
+  }
+
+  /** Calls {@code listener} each time the queue drains, or no one if null. */
+  void setIdleListener(IdleListener listener) {
+    mIdleListener = listener;
+  }
+
+  /** Stops the writer thread; queued requests fail. */
+  void close() {
+    mClosed = true;
+    mThread.interrupt();
+  }
+
+  @Override
+  public void run() {
+    while (!mClosed) {
+      Request request;
+      if (mHeld != null) {
+        request = mHeld;
+        mHeld = null;
+      } else {
+        try {
+          request = mQueue.take();
+        } catch (InterruptedException e) {
+          break;
+        }
+      }
+      mGathered.add(request);
+      try {
+        if (request.paceMs == 0 && request.length <= mCoalesceBytes) {
+          gather(request.length);
+        }
+        if (mGathered.size() == 1) {
+          write(request);
+        } else {
+          writeGathered();
+        }
+        for (int i = 0; i < mGathered.size(); i++) {
+          Request written = mGathered.get(i);
+          VendJournal.Tracker journal = mJournal;
+          if (written.txn != 0 && journal != null) {
+            journal.onWritten(written.txn);
+          }
+          written.callback.onWritten(written);
+        }
+      } catch (IOException e) {
+        // Part of the bytes may have gone out, so journaled commands stay in doubt.
+        for (int i = 0; i < mGathered.size(); i++) {
+          mGathered.get(i).callback.onWriteFailed(mGathered.get(i), e);
+        }
+      } catch (InterruptedException e) {
+        // Possibly part written while pacing, so also left in doubt.
+        for (int i = 0; i < mGathered.size(); i++) {
+          mGathered.get(i).callback.onWriteFailed(mGathered.get(i), new IOException("Port closed"));
+        }
+        recycleGathered();
+        break;
+      }
+      recycleGathered();
+      IdleListener idle = mIdleListener;
+      if (idle != null && mHeld == null && mQueue.isEmpty()) {
+        idle.onIdle();
+      }
+    }
+    if (mHeld != null) {
+      notWritten(mHeld);
+      mHeld.callback.onWriteFailed(mHeld, new IOException("Port closed"));
+      recycle(mHeld);
+      mHeld = null;
+    }
+    failPending();
+  }
+
+  /** Adds the unpaced requests queued behind the first, in order, while they fit. */
+  private void gather(int size) throws InterruptedException {
+    long deadline = System.nanoTime() + mCoalesceDelayNanos;
+    while (mGathered.size() < mCapacity) {
+      Request next = mQueue.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+      if (next == null) {
+        return;
+      }
+      if (next.paceMs != 0 || size + next.length > mCoalesceBytes) {
+        mHeld = next;
+        return;
+      }
+      mGathered.add(next);
+      size += next.length;
+    }
+  }
+
+  private void recycleGathered() {
+    for (int i = 0; i < mGathered.size(); i++) {
+      recycle(mGathered.get(i));
+    }
+    mGathered.clear();
+  }
+
+  private void write(Request request) throws IOException, InterruptedException {
+    for (int offset = 0; offset < request.length; offset += request.frameLength) {
+      long wait = mNextWriteAt - System.nanoTime();
+      if (wait > 0) {
+        TimeUnit.NANOSECONDS.sleep(wait);
+      }
+      if (offset == 0) {
+        request.callback.onWriting(request);
+      }
+      long start = System.nanoTime();
+      mOutputStream.write(request.data, offset, request.frameLength);
+      mStats.writeTime.recordSince(start);
+      CaptureWriter capture = mCapture;
+      if (capture != null) {
+        capture.record(CaptureWriter.OUT, start, request.data, offset, request.frameLength);
+      }
+      mStats.bytesOut.addAndGet(request.frameLength);
+      mStats.framesOut.incrementAndGet();
+      mStats.writeCalls.incrementAndGet();
+      mStats.framesPerWrite.record(1);
+      mNextWriteAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(request.paceMs);
+    }
+  }
+
+  /** Writes every gathered request with one call. None of them is paced. */
+  private void writeGathered() throws IOException, InterruptedException {
+    int size = 0;
+    int frames = 0;
+    for (int i = 0; i < mGathered.size(); i++) {
+      Request request = mGathered.get(i);
+      System.arraycopy(request.data, 0, mGather, size, request.length);
+      size += request.length;
+      if (request.length > 0) {
+        frames += request.length / request.frameLength;
+      }
+    }
+    long wait = mNextWriteAt - System.nanoTime();
+    if (wait > 0) {
+      TimeUnit.NANOSECONDS.sleep(wait);
+    }
+    for (int i = 0; i < mGathered.size(); i++) {
+      mGathered.get(i).callback.onWriting(mGathered.get(i));
+    }
+    long start = System.nanoTime();
+    mOutputStream.write(mGather, 0, size);
+    mStats.writeTime.recordSince(start);
+    CaptureWriter capture = mCapture;
+    if (capture != null) {
+      for (int i = 0; i < mGathered.size(); i++) {
+        Request request = mGathered.get(i);
+        capture.record(CaptureWriter.OUT, start, request.data, 0, request.length);
+      }
+    }
+    mStats.bytesOut.addAndGet(size);
+    mStats.framesOut.addAndGet(frames);
+    mStats.writeCalls.incrementAndGet();
+    mStats.framesPerWrite.record(frames);
+    mNextWriteAt = System.nanoTime();
+  }
+
+  private void failPending() {
+    Request request;
+    while ((request = mQueue.poll()) != null) {
+      notWritten(request);
+      request.callback.onWriteFailed(request, new IOException("Port closed"));
+      recycle(request);
+    }
+  }
+
+  private void notWritten(Request request) {
+    VendJournal.Tracker journal = mJournal;
+    if (request.txn != 0 && journal != null) {
+      journal.onNotWritten(request.txn);
+    }
+  }
+}
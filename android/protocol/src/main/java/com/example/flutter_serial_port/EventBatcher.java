@@ -0,0 +1,153 @@
+package com.example.flutter_serial_port;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Coalesces received chunks into larger event payloads.
+ *
+ * The reader adds chunks as they arrive. A batch is flushed on the
+ * scheduler's thread (the main looper) as soon as it holds {@code maxBytes}
+ * bytes, or at the latest {@code maxLatencyMs} after its first chunk arrived.
+ * A {@code maxLatencyMs} of 0 flushes every chunk on its own. With a
+ * {@link BufferSink} set, batches are copied into the buffer it lends instead
+ * of a new array.
+ */
+class EventBatcher implements Runnable {
+
+  static final int DEFAULT_MAX_BYTES = 512;
+  static final int DEFAULT_MAX_LATENCY_MS = 5;
+
+  /** Runs flushes on the delivery thread. */
+  interface Scheduler {
+    void post(Runnable task);
+
+    void postDelayed(Runnable task, long delayMillis);
+  }
+
+  /** Receives each coalesced batch on the delivery thread. */
+  interface Sink {
+    /** {@code firstReadAt} is the {@code readAt} of the batch's oldest chunk. */
+    void onBatch(byte[] data, long firstReadAt);
+  }
+
+  /** Receives each batch in a buffer it owns, on the delivery thread. */
+  interface BufferSink {
+    /** Returns an empty buffer with room for at least {@code size} bytes. */
+    ByteBuffer obtainBuffer(int size);
+
+    /** {@code data} holds the batch up to its position. */
+    void onBatch(ByteBuffer data, long firstReadAt);
+  }
+
+  private final Scheduler mScheduler;
+  private final Sink mSink;
+  private volatile BufferSink mBufferSink;
+  private final int mMaxBytes;
+  private final int mMaxLatencyMs;
+  private final ReadBufferPool.Chunk[] mPending;
+  private int mPendingCount;
+  private int mPendingBytes;
+  private boolean mWindowOpen;
+  private boolean mFlushPosted;
+
+  EventBatcher(ReadBufferPool pool, int maxBytes, int maxLatencyMs, Scheduler scheduler, Sink sink) {
+    if (maxBytes <= 0 || maxLatencyMs < 0) {
+      throw new IllegalArgumentException("maxBytes must be positive and maxLatencyMs not negative");
+    }
+    mScheduler = scheduler;
+    mSink = sink;
+    mMaxBytes = maxBytes;
+    mMaxLatencyMs = maxLatencyMs;
+    mPending = new ReadBufferPool.Chunk[pool.bufferCount()];
+  }
+
+  /** Number of read buffers a pool needs so that a full batch never starves the reader. */
+  static int poolSizeFor(int maxBytes, int readBufferSize) {
+    int chunksPerBatch = (maxBytes + readBufferSize - 1) / readBufferSize;
+    return Math.max(ReadBufferPool.DEFAULT_BUFFER_COUNT, 2 * chunksPerBatch);
+  }
+
+  /** Delivers batches to {@code sink} instead of the {@link Sink}, or to the sink again if null. */
+  void setBufferSink(BufferSink sink) {
+    mBufferSink = sink;
+  }
+
+  /** Queues a chunk for delivery. Ownership of the chunk passes to the batcher. */
+  void add(ReadBufferPool.Chunk chunk) {
+    boolean flushNow = false;
+    boolean openWindow = false;
+    synchronized (this) {
+      mPending[mPendingCount++] = chunk;
+      mPendingBytes += chunk.length;
+      if (mPendingBytes >= mMaxBytes || mPendingCount == mPending.length || mMaxLatencyMs == 0) {
+        if (!mFlushPosted) {
+          mFlushPosted = true;
+          flushNow = true;
+        }
+      } else if (!mWindowOpen) {
+        mWindowOpen = true;
+        openWindow = true;
+      }
+    }
+    if (flushNow) {
+      mScheduler.post(this);
+    } else if (openWindow) {
+      mScheduler.postDelayed(this, mMaxLatencyMs);
+    }
+  }
+
+  @Override
+  public void run() {
+    flush();
+  }
+
+  /** Delivers whatever is pending. Must be called on the scheduler's thread. */
+  void flush() {
+    BufferSink bufferSink = mBufferSink;
+    byte[] data = null;
+    ByteBuffer buffer = null;
+    long firstReadAt;
+    synchronized (this) {
+      mFlushPosted = false;
+      mWindowOpen = false;
+      if (mPendingCount == 0) {
+        return;
+      }
+      if (bufferSink != null) {
+        buffer = bufferSink.obtainBuffer(mPendingBytes);
+      } else {
+        data = new byte[mPendingBytes];
+      }
+      firstReadAt = mPending[0].readAt;
+      int offset = 0;
+      for (int i = 0; i < mPendingCount; i++) {
+        ReadBufferPool.Chunk chunk = mPending[i];
+        if (buffer != null) {
+          buffer.put(chunk.data, 0, chunk.length);
+        } else {
+          System.arraycopy(chunk.data, 0, data, offset, chunk.length);
+          offset += chunk.length;
+        }
+        mPending[i] = null;
+        chunk.release();
+      }
+      mPendingCount = 0;
+      mPendingBytes = 0;
+    }
+    if (buffer != null) {
+      bufferSink.onBatch(buffer, firstReadAt);
+    } else {
+      mSink.onBatch(data, firstReadAt);
+    }
+  }
+
+  /** Returns pending chunks to the pool without delivering them. */
+  synchronized void clear() {
+    for (int i = 0; i < mPendingCount; i++) {
+      mPending[i].release();
+      mPending[i] = null;
+    }
+    mPendingCount = 0;
+    mPendingBytes = 0;
+  }
+}
@@ -0,0 +1,157 @@
+package com.example.flutter_serial_port;
+
+/**
+ * Incremental decoder for the two wire formats spoken by the boards.
+ *
+ * <ul>
+ *   <li>Board frames: {@code 0x00 0xFF cmd ~cmd data ~data}.</li>
+ *   <li>Elevator / drive board packets: {@code STX len cmd data... ETX BCC}, where
+ *   {@code len} counts {@code cmd} plus the data bytes and BCC is the XOR of
+ *   every byte from STX to ETX.</li>
+ * </ul>
+ *
+ * Bytes may be fed in arbitrary fragments; state is kept across calls. When a
+ * candidate frame fails its complement or BCC check the bytes after its start
+ * byte are scanned again, so a real frame hidden behind line noise is not lost.
+ * The decoder is not thread safe and is meant to be fed by the read thread only.
+ */
+class FrameDecoder {
+
+  static final int TYPE_BOARD = 1;
+  static final int TYPE_ELEVATOR = 2;
+
+  static final int BOARD_FRAME_LENGTH = 6;
+  static final int MAX_ELEVATOR_PAYLOAD = 64;
+
+  static final byte STX = 0x02;
+  static final byte ETX = 0x03;
+
+  /** Receives every complete frame. {@code frame} is reused after the call returns. */
+  interface Listener {
+    void onFrame(int type, byte[] frame, int length);
+  }
+
+  private static final int STATE_IDLE = 0;
+  private static final int STATE_BOARD = 1;
+  private static final int STATE_ELEVATOR_LENGTH = 2;
+  private static final int STATE_ELEVATOR_BODY = 3;
+
+  private final Listener mListener;
+  private final byte[] mFrame = new byte[MAX_ELEVATOR_PAYLOAD + 4];
+  private int mLength;
+  private int mExpected;
+  private int mState = STATE_IDLE;
+  private long mFrames;
+  private long mDiscarded;
+
+  FrameDecoder(Listener listener) {
+    mListener = listener;
+  }
+
+  static String typeName(int type) {
+    return type == TYPE_BOARD ? "board" : "elevator";
+  }
+
+  /** XOR of {@code length} bytes starting at {@code offset}. */
+  static byte bcc(byte[] data, int offset, int length) {
+    byte bcc = 0;
+    for (int i = offset; i < offset + length; i++) {
+      bcc ^= data[i];
+    }
+    return bcc;
+  }
+
+  void feed(byte[] data, int offset, int length) {
+    for (int i = offset; i < offset + length; i++) {
+      process(data[i]);
+    }
+  }
+
+  void reset() {
+    mLength = 0;
+    mState = STATE_IDLE;
+  }
+
+  /** Number of frames emitted so far. */
+  long frameCount() {
+    return mFrames;
+  }
+
+  /** Number of bytes dropped while looking for a valid frame. */
+  long discardedCount() {
+    return mDiscarded;
+  }
+
+  private void process(byte b) {
+    switch (mState) {
+    case STATE_IDLE:
+      if (b == 0x00) {
+        mState = STATE_BOARD;
+        mExpected = BOARD_FRAME_LENGTH;
+      } else if (b == STX) {
+        mState = STATE_ELEVATOR_LENGTH;
+      } else {
+        mDiscarded++;
+        return;
+      }
+      mFrame[0] = b;
+      mLength = 1;
+      break;
+    case STATE_BOARD:
+      mFrame[mLength++] = b;
+      if (mLength == 2 && b != (byte) 0xFF) {
+        resync();
+      } else if (mLength == mExpected) {
+        if (((mFrame[2] ^ mFrame[3]) & 0xFF) == 0xFF && ((mFrame[4] ^ mFrame[5]) & 0xFF) == 0xFF) {
+          emit(TYPE_BOARD);
+        } else {
+          resync();
+        }
+      }
+      break;
+    case STATE_ELEVATOR_LENGTH:
+      mFrame[mLength++] = b;
+      int payload = b & 0xFF;
+      if (payload == 0 || payload > MAX_ELEVATOR_PAYLOAD) {
+        resync();
+      } else {
+        mExpected = payload + 4;
+        mState = STATE_ELEVATOR_BODY;
+      }
+      break;
+    case STATE_ELEVATOR_BODY:
+      mFrame[mLength++] = b;
+      if (mLength == mExpected) {
+        if (mFrame[mLength - 2] == ETX && bcc(mFrame, 0, mLength - 1) == b) {
+          emit(TYPE_ELEVATOR);
+        } else {
+          resync();
+        }
+      }
+      break;
+    }
+  }
+
+  private void emit(int type) {
+    int length = mLength;
+    mLength = 0;
+    mState = STATE_IDLE;
+    mFrames++;
+    mListener.onFrame(type, mFrame, length);
+  }
+
+  /**
+   * Drops the start byte of the current candidate and runs the remaining bytes
+   * through the state machine again. Bytes are only ever written at an index
+   * lower than the one being re-read, so this can work in place.
+   */
+  private void resync() {
+    int length = mLength;
+    mLength = 0;
+    mState = STATE_IDLE;
+    mDiscarded++;
+    for (int i = 1; i < length; i++) {
+      process(mFrame[i]);
+    }
+  }
+}
@@ -0,0 +1,105 @@
+package com.example.flutter_serial_port;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear histogram of non-negative values, in the style of HdrHistogram.
+ *
+ * Every power of two is split into {@code 2^SUB_BITS} equal buckets, so a
+ * recorded value is off by at most 1/16 of itself. Values from 0 to
+ * {@code 2^MAX_BITS - 1} fit in a fixed array of counters; larger values are
+ * counted in the last bucket. Recording is lock-free and does not allocate, so
+ * it can be called from any thread on the hot path.
+ */
+class Histogram {
+
+  private static final int SUB_BITS = 4;
+  private static final int SUB_COUNT = 1 << SUB_BITS;
+  private static final int MAX_BITS = 36;
+  private static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+
+  private final AtomicLongArray mCounts = new AtomicLongArray(index(MAX_VALUE) + 1);
+  private final AtomicLong mCount = new AtomicLong();
+  private final AtomicLong mSum = new AtomicLong();
+  private final AtomicLong mMax = new AtomicLong();
+
+  void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+    mCounts.incrementAndGet(index(Math.min(value, MAX_VALUE)));
+    mCount.incrementAndGet();
+    mSum.addAndGet(value);
+    long max = mMax.get();
+    while (value > max && !mMax.compareAndSet(max, value)) {
+      max = mMax.get();
+    }
+  }
+
+  /** Records the time since {@code startNanos}, in microseconds. */
+  void recordSince(long startNanos) {
+    record((System.nanoTime() - startNanos) / 1000);
+  }
+
+  long count() {
+    return mCount.get();
+  }
+
+  /**
+   * Upper bound of the bucket holding the {@code percentile}th value, or 0 if
+   * nothing was recorded. Counts recorded concurrently may be half applied.
+   */
+  long percentile(double percentile) {
+    long[] counts = new long[mCounts.length()];
+    long total = 0;
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] = mCounts.get(i);
+      total += counts[i];
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(highestEquivalent(i), mMax.get());
+      }
+    }
+    return mMax.get();
+  }
+
+  /** {@code count}, {@code mean}, {@code p50}, {@code p90}, {@code p99} and {@code max}. */
+  Map<String, Object> toMap() {
+    Map<String, Object> map = new HashMap<String, Object>(8);
+    long count = mCount.get();
+    map.put("count", count);
+    map.put("mean", count > 0 ? mSum.get() / count : 0L);
+    map.put("p50", percentile(50));
+    map.put("p90", percentile(90));
+    map.put("p99", percentile(99));
+    map.put("max", mMax.get());
+    return map;
+  }
+
+  static int index(long value) {
+    if (value < SUB_COUNT) {
+      return (int) value;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+    return (shift + 1) * SUB_COUNT + (int) ((value >>> shift) - SUB_COUNT);
+  }
+
+  static long highestEquivalent(int index) {
+    if (index < SUB_COUNT) {
+      return index;
+    }
+    int shift = index / SUB_COUNT - 1;
+    long lowest = (long) (SUB_COUNT + index % SUB_COUNT) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+}
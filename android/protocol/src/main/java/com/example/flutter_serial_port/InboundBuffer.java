@@ -0,0 +1,134 @@
+package com.example.flutter_serial_port;
+
+import java.util.ArrayDeque;
+
+/**
+ * Bounded ring of received bytes that no one has consumed yet.
+ *
+ * A port's reader offers its chunks here while nothing listens to the data
+ * stream, and pull reads and a newly attached listener take the bytes out in
+ * order. When a chunk does not fit, the policy decides: {@link #DROP_OLDEST}
+ * overwrites the oldest bytes, {@link #DROP_NEWEST} keeps what fits of the new
+ * chunk, and {@link #BLOCK} parks the chunk until there is room. Parked chunks
+ * stay out of the read buffer pool, so once the pool runs dry the reader stops
+ * reading and the driver's buffer and flow control take over.
+ *
+ * All methods are thread safe; callers that need several calls to be atomic
+ * synchronize on the buffer.
+ */
+class InboundBuffer {
+
+  static final int DEFAULT_CAPACITY = 64 * 1024;
+
+  static final int DROP_OLDEST = 0;
+  static final int DROP_NEWEST = 1;
+  static final int BLOCK = 2;
+
+  private final byte[] mRing;
+  private final int mPolicy;
+  private final ArrayDeque<ReadBufferPool.Chunk> mParked = new ArrayDeque<ReadBufferPool.Chunk>();
+  private int mHead;
+  private int mSize;
+  private long mDroppedBytes;
+
+  InboundBuffer(int capacity, int policy) {
+    if (capacity <= 0 || policy < DROP_OLDEST || policy > BLOCK) {
+      throw new IllegalArgumentException("capacity must be positive and policy one of the constants");
+    }
+    mRing = new byte[capacity];
+    mPolicy = policy;
+  }
+
+  /**
+   * Takes the bytes of {@code chunk}. The chunk goes back to its pool unless it
+   * is parked. Returns the number of bytes dropped to make it fit.
+   */
+  synchronized int offer(ReadBufferPool.Chunk chunk) {
+    if (!mParked.isEmpty() || (mPolicy == BLOCK && chunk.length > mRing.length - mSize)) {
+      mParked.add(chunk);
+      return 0;
+    }
+    int dropped = 0;
+    int offset = 0;
+    int length = chunk.length;
+    int free = mRing.length - mSize;
+    if (length > free) {
+      if (mPolicy == DROP_NEWEST) {
+        dropped = length - free;
+        length = free;
+      } else {
+        if (length > mRing.length) {
+          offset = length - mRing.length;
+          length = mRing.length;
+        }
+        int overwrite = length - (mRing.length - mSize);
+        mHead = (mHead + overwrite) % mRing.length;
+        mSize -= overwrite;
+        dropped = offset + overwrite;
+      }
+    }
+    put(chunk.data, offset, length);
+    mDroppedBytes += dropped;
+    chunk.release();
+    return dropped;
+  }
+
+  /** Removes and returns up to {@code maxBytes} of the oldest bytes; empty if there are none. */
+  synchronized byte[] take(int maxBytes) {
+    int length = Math.min(maxBytes, mSize);
+    byte[] data = new byte[length];
+    int first = Math.min(length, mRing.length - mHead);
+    System.arraycopy(mRing, mHead, data, 0, first);
+    System.arraycopy(mRing, 0, data, first, length - first);
+    mHead = (mHead + length) % mRing.length;
+    mSize -= length;
+    unpark();
+    return data;
+  }
+
+  /** Bytes waiting, parked chunks included. */
+  synchronized int size() {
+    int size = mSize;
+    for (ReadBufferPool.Chunk chunk : mParked) {
+      size += chunk.length;
+    }
+    return size;
+  }
+
+  synchronized boolean isEmpty() {
+    return mSize == 0 && mParked.isEmpty();
+  }
+
+  synchronized long droppedBytes() {
+    return mDroppedBytes;
+  }
+
+  /** Discards every byte and returns parked chunks to their pool. */
+  synchronized void clear() {
+    mHead = 0;
+    mSize = 0;
+    ReadBufferPool.Chunk chunk;
+    while ((chunk = mParked.poll()) != null) {
+      chunk.release();
+    }
+  }
+
+  /** Must hold the lock. Moves parked chunks into the ring while they fit. */
+  private void unpark() {
+    ReadBufferPool.Chunk chunk;
+    while ((chunk = mParked.peek()) != null && chunk.length <= mRing.length - mSize) {
+      mParked.poll();
+      put(chunk.data, 0, chunk.length);
+      chunk.release();
+    }
+  }
+
+  /** Must hold the lock. {@code length} must fit. */
+  private void put(byte[] data, int offset, int length) {
+    int tail = (mHead + mSize) % mRing.length;
+    int first = Math.min(length, mRing.length - tail);
+    System.arraycopy(data, offset, mRing, tail, first);
+    System.arraycopy(data, offset + first, mRing, 0, length - first);
+    mSize += length;
+  }
+}
@@ -0,0 +1,258 @@
+package com.example.flutter_serial_port;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * One thread that waits in {@code poll(2)} on every open port's descriptor.
+ *
+ * Channels are read on the loop thread when their descriptor is readable, so
+ * opening another port costs a poll slot instead of a thread. Registered
+ * descriptors are switched to non-blocking, so a read that finds less than
+ * poll promised, or nothing, returns at once instead of stalling every other
+ * port. A channel can also ask for a timeout, which bounds the wait. A pipe
+ * wakes the loop whenever the set of channels changes. The thread starts with
+ * the first channel and ends once the last one has been unregistered. Once
+ * running, the loop allocates nothing per wakeup.
+ */
+class IoLoop implements Runnable {
+
+  /** A readable descriptor served by the loop. Methods are called on the loop thread. */
+  interface Channel {
+    /** A descriptor the channel owns; the loop makes it non-blocking. */
+    int fd();
+
+    /** False while the channel cannot take more input, e.g. its buffers are all in use. */
+    boolean wantsRead();
+
+    /**
+     * Reads what is available; a read that finds nothing returns 0 instead of
+     * blocking. Returning false, at end of stream or on error, drops the
+     * channel from the loop.
+     */
+    boolean onReadable();
+
+    /** Milliseconds until {@link #onTimeout} is due, 0 once it is, or -1 for no timeout. */
+    int timeoutMs();
+
+    /** Called once {@link #timeoutMs} has run out, after any read of the same wakeup. */
+    void onTimeout();
+  }
+
+  private final String mName;
+  private final ArrayList<Channel> mChannels = new ArrayList<Channel>();
+  private final ArrayList<Channel> mPolled = new ArrayList<Channel>();
+  private final ArrayList<Channel> mAdded = new ArrayList<Channel>();
+  private final ArrayList<Channel> mRemoved = new ArrayList<Channel>();
+  private final ArrayList<CountDownLatch> mRemovedLatches = new ArrayList<CountDownLatch>();
+  private final int[] mPipe = new int[2];
+  private final byte[] mWakeByte = new byte[1];
+  private final byte[] mDrainBuffer = new byte[16];
+  /** Poll set: the wake pipe first, then the polled channels. */
+  private int[] mFds = new int[8];
+  private int[] mReady = new int[8];
+  private Thread mThread;
+  private int mWakeRead = -1;
+  private int mWakeWrite = -1;
+
+  IoLoop(String name) {
+    mName = name;
+  }
+
+  /** Makes {@code channel}'s descriptor non-blocking and starts polling it. */
+  void register(Channel channel) throws IOException {
+    NativeIo.setNonBlocking(channel.fd(), true);
+    synchronized (this) {
+      if (mThread == null) {
+        NativeIo.pipe(mPipe);
+        mWakeRead = mPipe[0];
+        mWakeWrite = mPipe[1];
+        try {
+          NativeIo.setNonBlocking(mWakeRead, true);
+          NativeIo.setNonBlocking(mWakeWrite, true);
+        } catch (IOException e) {
+          closePipe();
+          throw e;
+        }
+        mThread = new Thread(this, mName);
+        mThread.setDaemon(true);
+        mThread.start();
+      }
+      mAdded.add(channel);
+      wakeup();
+    }
+  }
+
+  /**
+   * Drops {@code channel} from the loop. When called off the loop thread this
+   * returns only once the loop no longer polls or reads the channel, so its
+   * descriptor can be closed right after.
+   */
+  void unregister(Channel channel) {
+    CountDownLatch latch;
+    synchronized (this) {
+      if (Thread.currentThread() == mThread) {
+        mChannels.remove(channel);
+        mAdded.remove(channel);
+        return;
+      }
+      if (mThread == null) {
+        return;
+      }
+      latch = new CountDownLatch(1);
+      mRemoved.add(channel);
+      mRemovedLatches.add(latch);
+      wakeup();
+    }
+    boolean interrupted = false;
+    while (true) {
+      try {
+        latch.await();
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Makes the loop re-check its channels, e.g. after a paused channel can read again. */
+  void wakeup() {
+    // Written under the lock so the pipe cannot be closed, and its number
+    // reused, between the check and the write.
+    synchronized (this) {
+      if (mWakeWrite < 0) {
+        return;
+      }
+      try {
+        // A full pipe already wakes the loop.
+        NativeIo.write(mWakeWrite, mWakeByte, 0, 1);
+      } catch (IOException e) {
+        // The loop ends with its last channel; nothing is left to wake.
+      }
+    }
+  }
+
+  @Override
+  public void run() {
+    while (applyChanges()) {
+      mPolled.clear();
+      int timeoutMs = -1;
+      for (int i = 0; i < mChannels.size(); i++) {
+        Channel channel = mChannels.get(i);
+        if (channel.wantsRead()) {
+          mPolled.add(channel);
+        }
+        int channelTimeoutMs = channel.timeoutMs();
+        if (channelTimeoutMs >= 0 && (timeoutMs < 0 || channelTimeoutMs < timeoutMs)) {
+          timeoutMs = channelTimeoutMs;
+        }
+      }
+      int count = mPolled.size() + 1;
+      if (mFds.length < count) {
+        mFds = new int[count * 2];
+        mReady = new int[count * 2];
+      }
+      mFds[0] = mWakeRead;
+      for (int i = 1; i < count; i++) {
+        mFds[i] = mPolled.get(i - 1).fd();
+      }
+      int ready;
+      try {
+        ready = NativeIo.poll(mFds, mReady, count, timeoutMs);
+      } catch (IOException e) {
+        abort();
+        return;
+      }
+      if (ready > 0) {
+        if (mReady[0] != 0) {
+          drainWakeups();
+        }
+        for (int i = 1; i < count; i++) {
+          Channel channel = mPolled.get(i - 1);
+          if (mReady[i] != 0 && !channel.onReadable()) {
+            mChannels.remove(channel);
+          }
+        }
+      }
+      if (timeoutMs >= 0) {
+        for (int i = 0; i < mChannels.size(); i++) {
+          if (mChannels.get(i).timeoutMs() == 0) {
+            mChannels.get(i).onTimeout();
+          }
+        }
+      }
+    }
+  }
+
+  /** Applies pending registrations. Returns false once the loop should end. */
+  private boolean applyChanges() {
+    synchronized (this) {
+      // Checked first: addAll and removeAll copy their argument even when empty.
+      if (!mAdded.isEmpty()) {
+        mChannels.addAll(mAdded);
+        mAdded.clear();
+      }
+      if (!mRemoved.isEmpty()) {
+        mChannels.removeAll(mRemoved);
+        mRemoved.clear();
+      }
+      releaseRemoved();
+      if (!mChannels.isEmpty()) {
+        return true;
+      }
+      shutdown();
+      return false;
+    }
+  }
+
+  private void drainWakeups() {
+    try {
+      while (NativeIo.read(mWakeRead, mDrainBuffer, 0, mDrainBuffer.length) > 0) {
+        // Wakeups carry no data.
+      }
+    } catch (IOException e) {
+      // The pipe is only closed by this thread.
+    }
+  }
+
+  /** Drops every channel after poll failed. */
+  private void abort() {
+    synchronized (this) {
+      mChannels.clear();
+      mAdded.clear();
+      mRemoved.clear();
+      releaseRemoved();
+      shutdown();
+    }
+  }
+
+  /** Must hold the lock. */
+  private void releaseRemoved() {
+    for (int i = 0; i < mRemovedLatches.size(); i++) {
+      mRemovedLatches.get(i).countDown();
+    }
+    mRemovedLatches.clear();
+  }
+
+  /** Must hold the lock. */
+  private void shutdown() {
+    mThread = null;
+    closePipe();
+  }
+
+  /** Must hold the lock. */
+  private void closePipe() {
+    try {
+      NativeIo.close(mWakeRead);
+      NativeIo.close(mWakeWrite);
+    } catch (IOException e) {
+      // Both ends are dropped either way.
+    }
+    mWakeRead = -1;
+    mWakeWrite = -1;
+  }
+}
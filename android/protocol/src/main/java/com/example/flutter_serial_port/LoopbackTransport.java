@@ -0,0 +1,134 @@
+package com.example.flutter_serial_port;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * In-memory transport. {@link #pair} returns two ends where bytes written to
+ * one are read from the other, through bounded buffers that block the writer
+ * when full, like a serial line whose receiver falls behind.
+ */
+class LoopbackTransport implements Transport {
+
+  static final int DEFAULT_CAPACITY = 4096;
+
+  /** One direction: a blocking ring buffer. */
+  private static final class Pipe {
+    private final byte[] mRing;
+    private int mHead;
+    private int mCount;
+    private boolean mClosed;
+
+    Pipe(int capacity) {
+      mRing = new byte[capacity];
+    }
+
+    synchronized void write(byte[] data, int offset, int length) throws IOException {
+      while (length > 0) {
+        while (mCount == mRing.length && !mClosed) {
+          await();
+        }
+        if (mClosed) {
+          throw new IOException("Loopback closed");
+        }
+        int tail = (mHead + mCount) % mRing.length;
+        int n = Math.min(length, Math.min(mRing.length - mCount, mRing.length - tail));
+        System.arraycopy(data, offset, mRing, tail, n);
+        mCount += n;
+        offset += n;
+        length -= n;
+        notifyAll();
+      }
+    }
+
+    /** Blocks until at least one byte is available; returns -1 once closed and drained. */
+    synchronized int read(byte[] data, int offset, int length) throws IOException {
+      while (mCount == 0 && !mClosed) {
+        await();
+      }
+      if (mCount == 0) {
+        return -1;
+      }
+      int n = Math.min(length, Math.min(mCount, mRing.length - mHead));
+      System.arraycopy(mRing, mHead, data, offset, n);
+      mHead = (mHead + n) % mRing.length;
+      mCount -= n;
+      notifyAll();
+      return n;
+    }
+
+    synchronized void close() {
+      mClosed = true;
+      notifyAll();
+    }
+
+    private void await() throws InterruptedIOException {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException();
+      }
+    }
+  }
+
+  private final Pipe mIn;
+  private final Pipe mOut;
+  private final InputStream mInputStream = new InputStream() {
+    @Override
+    public int read() throws IOException {
+      byte[] one = new byte[1];
+      return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] data, int offset, int length) throws IOException {
+      return length == 0 ? 0 : mIn.read(data, offset, length);
+    }
+  };
+  private final OutputStream mOutputStream = new OutputStream() {
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+      mOut.write(data, offset, length);
+    }
+  };
+
+  private LoopbackTransport(Pipe in, Pipe out) {
+    mIn = in;
+    mOut = out;
+  }
+
+  /** Two connected ends, each direction buffering up to {@code capacity} bytes. */
+  static LoopbackTransport[] pair(int capacity) {
+    Pipe a = new Pipe(capacity);
+    Pipe b = new Pipe(capacity);
+    return new LoopbackTransport[] {new LoopbackTransport(a, b), new LoopbackTransport(b, a)};
+  }
+
+  @Override
+  public InputStream inputStream() {
+    return mInputStream;
+  }
+
+  @Override
+  public OutputStream outputStream() {
+    return mOutputStream;
+  }
+
+  @Override
+  public int fd() {
+    return -1;
+  }
+
+  @Override
+  public void close() {
+    mIn.close();
+    mOut.close();
+  }
+}
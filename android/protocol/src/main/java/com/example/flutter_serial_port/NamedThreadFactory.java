@@ -0,0 +1,20 @@
+package com.example.flutter_serial_port;
+
+import java.util.concurrent.ThreadFactory;
+
+/** Gives executor threads a recognisable name. */
+class NamedThreadFactory implements ThreadFactory {
+
+  private final String mName;
+
+  NamedThreadFactory(String name) {
+    mName = name;
+  }
+
+  @Override
+  public Thread newThread(Runnable runnable) {
+    Thread thread = new Thread(runnable, mName);
+    thread.setDaemon(true);
+    return thread;
+  }
+}
@@ -0,0 +1,59 @@
+package com.example.flutter_serial_port;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+/**
+ * The POSIX calls {@link IoLoop} makes, on plain descriptor numbers.
+ *
+ * The same native library is built for Android and, for the tests and
+ * benchmarks, for the host JVM, so the loop runs unchanged on both. Reads and
+ * writes return 0 instead of blocking on a non-blocking descriptor; interrupted
+ * calls are retried, or reported as nothing ready by {@link #poll}.
+ */
+final class NativeIo {
+
+  static {
+    System.loadLibrary("serial_io");
+  }
+
+  private NativeIo() {}
+
+  /** The number behind {@code fd}. */
+  static native int descriptor(FileDescriptor fd) throws IOException;
+
+  /** Opens {@code path} non-blocking and without making it the controlling terminal. */
+  static native int open(String path, boolean readOnly) throws IOException;
+
+  /** Fills {@code fds} with the read and write end of a new pipe. */
+  static native void pipe(int[] fds) throws IOException;
+
+  static native void setNonBlocking(int fd, boolean nonBlocking) throws IOException;
+
+  static native boolean isNonBlocking(int fd) throws IOException;
+
+  /**
+   * Waits up to {@code timeoutMs}, or without limit if negative, for one of the
+   * first {@code count} of {@code fds} to be readable, hung up or failed, and
+   * sets {@code ready[i]} to 1 for those that are, 0 for the others. Returns
+   * how many are ready; 0 also when the wait was interrupted.
+   */
+  static native int poll(int[] fds, int[] ready, int count, int timeoutMs) throws IOException;
+
+  /**
+   * Reads up to {@code length} bytes. Returns 0 when a non-blocking descriptor
+   * has nothing, and -1 at end of stream or when a terminal hung up.
+   */
+  static native int read(int fd, byte[] buffer, int offset, int length) throws IOException;
+
+  /** Writes up to {@code length} bytes; returns 0 when a non-blocking descriptor is full. */
+  static native int write(int fd, byte[] buffer, int offset, int length) throws IOException;
+
+  static native void close(int fd) throws IOException;
+
+  /**
+   * Opens a new pseudo-terminal in raw mode. Puts the master descriptor into
+   * {@code master[0]} and returns the path of the terminal side.
+   */
+  static native String openPty(int[] master) throws IOException;
+}
@@ -0,0 +1,98 @@
+package com.example.flutter_serial_port;
+
+/** Settings a port is opened with. Unset fields keep their defaults. */
+class PortConfig {
+
+  static final String TRANSPORT_SERIAL = "serial";
+  static final String TRANSPORT_PTY = "pty";
+  static final String TRANSPORT_SIMULATOR = "simulator";
+
+  static final int PARITY_NONE = 0;
+  static final int PARITY_ODD = 1;
+  static final int PARITY_EVEN = 2;
+  static final int FLOW_NONE = 0;
+  static final int FLOW_RTS_CTS = 1;
+  static final int FLOW_XON_XOFF = 2;
+
+  /** One of the {@code TRANSPORT_} names. */
+  String transport = TRANSPORT_SERIAL;
+  /** Device to open; for the simulator only a name for the port. */
+  String devicePath;
+  int baudrate = -1;
+  int dataBits = 8;
+  /** One of the {@code PARITY_} constants. */
+  int parity = PARITY_NONE;
+  int stopBits = 1;
+  /** One of the {@code FLOW_} constants. */
+  int flowControl = FLOW_NONE;
+  /**
+   * {@code VMIN}: bytes a read waits for; negative keeps the driver's setting.
+   * The I/O loop's reads never block, but with {@link #vtime} 0 the serial
+   * driver only reports the port readable once this many bytes are queued.
+   */
+  int vmin = -1;
+  /**
+   * {@code VTIME}: inter-byte timeout in tenths of a second; negative keeps
+   * the driver's setting. Together with a {@link #vmin} above 1 it is applied
+   * by {@link PortReader}, see {@link #gapMs()}.
+   */
+  int vtime = -1;
+  /**
+   * Quiet time that ends a burst. When positive, reads are gathered until the
+   * line has been quiet that long, overriding {@link #vmin} and {@link #vtime},
+   * and each burst is passed on as one read.
+   */
+  int frameGapMs;
+  int readBufferSize = ReadBufferPool.DEFAULT_BUFFER_SIZE;
+  int batchBytes = EventBatcher.DEFAULT_MAX_BYTES;
+  int batchLatencyMs = EventBatcher.DEFAULT_MAX_LATENCY_MS;
+  /** Received bytes kept while no one consumes them; at least {@link #readBufferSize}. */
+  int inboundBytes = InboundBuffer.DEFAULT_CAPACITY;
+  /** What a full inbound buffer does: one of the {@code InboundBuffer} policies. */
+  int overflowPolicy = InboundBuffer.DROP_OLDEST;
+  int maxInFlight = CommandEngine.DEFAULT_MAX_IN_FLIGHT;
+  int writeQueueCapacity = CommandWriter.DEFAULT_CAPACITY;
+  /** Largest write that unpaced commands are merged into; 0 writes each on its own. */
+  int coalesceBytes = CommandWriter.DEFAULT_COALESCE_BYTES;
+  /** How long the writer waits for more unpaced commands to merge. */
+  int coalesceDelayMs = CommandWriter.DEFAULT_COALESCE_DELAY_MS;
+  /** Period of {@code serial_port/stats/<handle>} events; 0 sends none. */
+  int statsIntervalMs;
+
+  boolean isValid() {
+    boolean transportValid = TRANSPORT_SERIAL.equals(transport) ? baudrate != -1
+        : TRANSPORT_PTY.equals(transport) || TRANSPORT_SIMULATOR.equals(transport);
+    return devicePath != null && devicePath.length() > 0 && transportValid && readBufferSize > 0
+        && batchBytes > 0 && batchLatencyMs >= 0 && maxInFlight > 0 && writeQueueCapacity > 0
+        && inboundBytes >= readBufferSize && overflowPolicy >= InboundBuffer.DROP_OLDEST
+        && overflowPolicy <= InboundBuffer.BLOCK
+        && coalesceBytes >= 0 && coalesceDelayMs >= 0
+        && statsIntervalMs >= 0 && dataBits >= 5 && dataBits <= 8 && parity >= PARITY_NONE
+        && parity <= PARITY_EVEN && (stopBits == 1 || stopBits == 2) && flowControl >= FLOW_NONE
+        && flowControl <= FLOW_XON_XOFF && vmin <= 255 && vtime <= 255 && frameGapMs >= 0;
+  }
+
+  /**
+   * Quiet time after which {@link PortReader} passes on what it has gathered:
+   * {@link #frameGapMs}, or {@link #vtime} while {@link #vmin} asks for more
+   * than one byte, as {@code read(2)} on a blocking terminal would. 0 passes
+   * on every read.
+   */
+  int gapMs() {
+    if (frameGapMs > 0) {
+      return frameGapMs;
+    }
+    return vmin > 1 && vtime > 0 ? vtime * 100 : 0;
+  }
+
+  /** Bytes after which {@link PortReader} passes on a gathered read without waiting for the gap. */
+  int burstBytes() {
+    return frameGapMs > 0 ? readBufferSize : Math.min(Math.max(vmin, 1), readBufferSize);
+  }
+
+  @Override
+  public String toString() {
+    return devicePath + ", " + transport + ", baudrate: " + baudrate + ", " + dataBits
+        + "/" + parity + "/" + stopBits + ", flow: " + flowControl + ", frameGapMs: " + frameGapMs;
+  }
+}
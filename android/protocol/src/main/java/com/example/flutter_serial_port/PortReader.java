@@ -0,0 +1,243 @@
+package com.example.flutter_serial_port;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a port into chunks of its {@link ReadBufferPool}.
+ *
+ * A transport with a descriptor is read on the shared {@link IoLoop} thread,
+ * one non-blocking read per wakeup, and is not polled while every chunk is
+ * still queued for delivery. With a gap, reads are gathered into one chunk
+ * until the line has been quiet that long or the chunk holds the burst size,
+ * so a burst is passed on whole. Any other transport is read on a thread of
+ * its own that blocks in the transport's input stream.
+ */
+class PortReader implements IoLoop.Channel {
+
+  /** How long {@link #close} waits for a read thread to end. */
+  static final int CLOSE_TIMEOUT_MS = 1000;
+
+  /** Receives what the reader reads, on the loop or read thread. */
+  interface Sink {
+    /** {@code chunk} holds at least one byte; the sink releases it once delivered. */
+    void onChunk(ReadBufferPool.Chunk chunk);
+
+    /** Reading stopped on {@code error}; no more chunks follow. */
+    void onReadError(IOException error);
+  }
+
+  private final Transport mTransport;
+  private final int mFd;
+  private final long mGapNanos;
+  private final int mBurstBytes;
+  private final ReadBufferPool mPool;
+  private final IoLoop mIoLoop;
+  private final Sink mSink;
+  private final ReadThread mReadThread;
+  private volatile boolean mClosed;
+  /** The burst being gathered with a gap; only touched on the loop thread. */
+  private ReadBufferPool.Chunk mBurst;
+  /** {@link System#nanoTime()} when the burst ends unless more arrives. */
+  private long mBurstEndsAt;
+
+  /** Blocking reader for transports the I/O loop cannot poll. */
+  private class ReadThread extends Thread {
+    private final InputStream mInputStream;
+
+    ReadThread(String name, InputStream inputStream) {
+      super(name);
+      mInputStream = inputStream;
+      // Not kept past close, see CLOSE_TIMEOUT_MS.
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      while (!mClosed) {
+        ReadBufferPool.Chunk chunk;
+        try {
+          chunk = mPool.acquire();
+        } catch (InterruptedException e) {
+          return;
+        }
+        int size;
+        try {
+          size = mInputStream.read(chunk.data);
+        } catch (IOException e) {
+          chunk.release();
+          if (!mClosed) {
+            mSink.onReadError(e);
+          }
+          return;
+        }
+        if (mClosed) {
+          chunk.release();
+          return;
+        }
+        if (!deliver(chunk, size)) {
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * {@code name} names the read thread of a transport without a descriptor.
+   * A positive {@code gapMs} gathers bursts of up to {@code burstBytes}, at
+   * most a chunk, on a transport with one; see {@link PortConfig#gapMs()}.
+   */
+  PortReader(String name, Transport transport, int gapMs, int burstBytes, ReadBufferPool pool,
+      IoLoop ioLoop, Sink sink) throws IOException {
+    mTransport = transport;
+    mFd = transport.fd();
+    mGapNanos = gapMs * 1000000L;
+    mBurstBytes = Math.min(Math.max(burstBytes, 1), pool.bufferSize());
+    mPool = pool;
+    mIoLoop = ioLoop;
+    mSink = sink;
+    mReadThread = mFd < 0 ? new ReadThread(name, transport.inputStream()) : null;
+    if (mReadThread == null) {
+      pool.setOnAvailable(new Runnable() {
+        @Override
+        public void run() {
+          // A chunk came back to an empty pool; poll this port again.
+          mIoLoop.wakeup();
+        }
+      });
+    }
+  }
+
+  void start() throws IOException {
+    if (mReadThread != null) {
+      mReadThread.start();
+    } else {
+      mIoLoop.register(this);
+    }
+  }
+
+  /**
+   * Stops reading and closes the transport. A partly gathered burst is
+   * dropped. Waits at most {@link #CLOSE_TIMEOUT_MS} for a read thread whose
+   * read the transport's close did not end; what that read returns is dropped.
+   */
+  void close() {
+    mClosed = true;
+    if (mReadThread == null) {
+      mIoLoop.unregister(this);
+      mTransport.close();
+      if (mBurst != null) {
+        mBurst.release();
+        mBurst = null;
+      }
+      return;
+    }
+    mReadThread.interrupt();
+    mTransport.close();
+    try {
+      mReadThread.join(CLOSE_TIMEOUT_MS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public int fd() {
+    return mFd;
+  }
+
+  @Override
+  public boolean wantsRead() {
+    return mBurst != null || mPool.hasFree();
+  }
+
+  @Override
+  public boolean onReadable() {
+    if (mGapNanos > 0) {
+      return gather();
+    }
+    ReadBufferPool.Chunk chunk = mPool.tryAcquire();
+    if (chunk == null) {
+      return true;
+    }
+    int size;
+    try {
+      size = NativeIo.read(mFd, chunk.data, 0, chunk.data.length);
+    } catch (IOException e) {
+      chunk.release();
+      mSink.onReadError(e);
+      return false;
+    }
+    return deliver(chunk, size);
+  }
+
+  @Override
+  public int timeoutMs() {
+    if (mBurst == null) {
+      return -1;
+    }
+    long left = mBurstEndsAt - System.nanoTime();
+    return left <= 0 ? 0 : (int) ((left + 999999) / 1000000);
+  }
+
+  /** The line has been quiet for the gap: the burst is complete. */
+  @Override
+  public void onTimeout() {
+    ReadBufferPool.Chunk burst = mBurst;
+    mBurst = null;
+    deliver(burst, 0);
+  }
+
+  /** Adds what is available to the burst. Returns false at end of stream or on error. */
+  private boolean gather() {
+    if (mBurst == null) {
+      mBurst = mPool.tryAcquire();
+      if (mBurst == null) {
+        return true;
+      }
+    }
+    ReadBufferPool.Chunk burst = mBurst;
+    int size;
+    try {
+      size = NativeIo.read(mFd, burst.data, burst.length, mBurstBytes - burst.length);
+    } catch (IOException e) {
+      mBurst = null;
+      deliver(burst, 0);
+      mSink.onReadError(e);
+      return false;
+    }
+    if (size < 0 || burst.length + size == 0) {
+      mBurst = null;
+      return deliver(burst, size);
+    }
+    if (size == 0) {
+      // Nothing new, so the quiet time keeps running.
+      return true;
+    }
+    burst.length += size;
+    mBurstEndsAt = System.nanoTime() + mGapNanos;
+    if (burst.length == mBurstBytes) {
+      mBurst = null;
+      deliver(burst, 0);
+    }
+    return true;
+  }
+
+  /**
+   * Passes on {@code chunk} once a read of {@code size} bytes has added to
+   * it, or releases it if it is still empty. Returns false at end of stream.
+   */
+  private boolean deliver(ReadBufferPool.Chunk chunk, int size) {
+    if (size > 0) {
+      chunk.length += size;
+    }
+    if (chunk.length > 0) {
+      chunk.readAt = System.nanoTime();
+      mSink.onChunk(chunk);
+      return size >= 0;
+    }
+    chunk.release();
+    // 0: poll reported more than a non-blocking read found. -1: the device hung up.
+    return size == 0;
+  }
+}
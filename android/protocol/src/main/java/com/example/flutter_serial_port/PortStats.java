@@ -0,0 +1,63 @@
+package com.example.flutter_serial_port;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and histograms of one port, updated by its reader, writer, engine
+ * and delivery stages without locking. Latencies are in microseconds.
+ */
+class PortStats {
+
+  final AtomicLong bytesIn = new AtomicLong();
+  final AtomicLong bytesOut = new AtomicLong();
+  final AtomicLong framesIn = new AtomicLong();
+  final AtomicLong framesOut = new AtomicLong();
+  /** Reads that lost bytes to the inbound buffer's overflow policy. */
+  final AtomicLong droppedReads = new AtomicLong();
+  /** Commands refused because the write queue was full. */
+  final AtomicLong rejectedWrites = new AtomicLong();
+  final AtomicLong maxWriteQueueDepth = new AtomicLong();
+  /** Write calls made; {@code framesOut / writeCalls} is the coalescing ratio. */
+  final AtomicLong writeCalls = new AtomicLong();
+
+  /** Bytes returned by each read. */
+  final Histogram readSize = new Histogram();
+  /** From the read of a batch's first chunk until the batch is handed to the sink. */
+  final Histogram deliveryLatency = new Histogram();
+  /** From posting an event to the main looper until it runs. */
+  final Histogram postDelay = new Histogram();
+  /** From a command being written until its reply is decoded. */
+  final Histogram responseTime = new Histogram();
+  /** Time spent in each write call. */
+  final Histogram writeTime = new Histogram();
+  /** Frames written by each write call. */
+  final Histogram framesPerWrite = new Histogram();
+
+  void recordWriteQueueDepth(long depth) {
+    long max = maxWriteQueueDepth.get();
+    while (depth > max && !maxWriteQueueDepth.compareAndSet(max, depth)) {
+      max = maxWriteQueueDepth.get();
+    }
+  }
+
+  Map<String, Object> toMap() {
+    Map<String, Object> map = new HashMap<String, Object>(16);
+    map.put("bytesIn", bytesIn.get());
+    map.put("bytesOut", bytesOut.get());
+    map.put("framesIn", framesIn.get());
+    map.put("framesOut", framesOut.get());
+    map.put("droppedReads", droppedReads.get());
+    map.put("rejectedWrites", rejectedWrites.get());
+    map.put("maxWriteQueueDepth", maxWriteQueueDepth.get());
+    map.put("writeCalls", writeCalls.get());
+    map.put("readSize", readSize.toMap());
+    map.put("deliveryLatency", deliveryLatency.toMap());
+    map.put("postDelay", postDelay.toMap());
+    map.put("responseTime", responseTime.toMap());
+    map.put("writeTime", writeTime.toMap());
+    map.put("framesPerWrite", framesPerWrite.toMap());
+    return map;
+  }
+}
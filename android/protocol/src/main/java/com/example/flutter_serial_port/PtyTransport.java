@@ -0,0 +1,60 @@
+package com.example.flutter_serial_port;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A Linux pseudo-terminal, or any other character device, opened by path.
+ *
+ * No line settings are applied, so the other side is expected to have put
+ * the terminal in raw mode, e.g. {@code socat -d -d pty,raw,echo=0 pty,raw,echo=0}.
+ */
+class PtyTransport implements Transport {
+
+  private final FileInputStream mInputStream;
+  private final FileOutputStream mOutputStream;
+
+  PtyTransport(File path) throws IOException {
+    mInputStream = new FileInputStream(path);
+    try {
+      mOutputStream = new FileOutputStream(path);
+    } catch (IOException e) {
+      mInputStream.close();
+      throw e;
+    }
+  }
+
+  @Override
+  public InputStream inputStream() {
+    return mInputStream;
+  }
+
+  @Override
+  public OutputStream outputStream() {
+    return mOutputStream;
+  }
+
+  @Override
+  public int fd() throws IOException {
+    // Opened apart from the output stream, so non-blocking reads leave writes alone.
+    return NativeIo.descriptor(mInputStream.getFD());
+  }
+
+  @Override
+  public void close() {
+    try {
+      mInputStream.close();
+    } catch (IOException e) {
+      // Nothing left to do with a descriptor that failed to close.
+    }
+    try {
+      mOutputStream.close();
+    } catch (IOException e) {
+      // Same as above.
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package com.example.flutter_serial_port;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Fixed set of read buffers shared by the reader and the delivery stage.
+ *
+ * Buffers are allocated once when the port is opened. The reader fills a
+ * chunk, hands it on and the chunk goes back to the pool once its bytes have
+ * been delivered, so the steady state receive path does not allocate.
+ */
+class ReadBufferPool {
+
+  static final int DEFAULT_BUFFER_SIZE = 64;
+  static final int DEFAULT_BUFFER_COUNT = 16;
+
+  /** A pooled read buffer and the number of valid bytes in it. */
+  static class Chunk {
+    final byte[] data;
+    int length;
+    /** {@link System#nanoTime()} when the chunk was filled. */
+    long readAt;
+    private final ReadBufferPool mPool;
+
+    private Chunk(ReadBufferPool pool, int size) {
+      mPool = pool;
+      data = new byte[size];
+    }
+
+    void release() {
+      length = 0;
+      boolean wasEmpty = mPool.mFree.isEmpty();
+      mPool.mFree.offer(this);
+      Runnable onAvailable = mPool.mOnAvailable;
+      if (wasEmpty && onAvailable != null) {
+        onAvailable.run();
+      }
+    }
+  }
+
+  private final ArrayBlockingQueue<Chunk> mFree;
+  private final int mBufferSize;
+  private final int mBufferCount;
+  private volatile Runnable mOnAvailable;
+
+  ReadBufferPool(int bufferSize, int bufferCount) {
+    if (bufferSize <= 0 || bufferCount <= 0) {
+      throw new IllegalArgumentException("bufferSize and bufferCount must be positive");
+    }
+    mBufferSize = bufferSize;
+    mBufferCount = bufferCount;
+    mFree = new ArrayBlockingQueue<Chunk>(bufferCount);
+    for (int i = 0; i < bufferCount; i++) {
+      mFree.offer(new Chunk(this, bufferSize));
+    }
+  }
+
+  /** Takes a free chunk, waiting while every chunk is still queued for delivery. */
+  Chunk acquire() throws InterruptedException {
+    return mFree.take();
+  }
+
+  /** Takes a free chunk, or returns null while every chunk is still queued for delivery. */
+  Chunk tryAcquire() {
+    return mFree.poll();
+  }
+
+  boolean hasFree() {
+    return !mFree.isEmpty();
+  }
+
+  /** Runs {@code onAvailable} on the releasing thread when a chunk is released into an empty pool. */
+  void setOnAvailable(Runnable onAvailable) {
+    mOnAvailable = onAvailable;
+  }
+
+  int bufferSize() {
+    return mBufferSize;
+  }
+
+  int bufferCount() {
+    return mBufferCount;
+  }
+}
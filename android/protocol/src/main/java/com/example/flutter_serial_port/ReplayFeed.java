@@ -0,0 +1,36 @@
+package com.example.flutter_serial_port;
+
+/**
+ * Hands a {@link Replayer}'s bytes to a port in pooled chunks, as if they had
+ * just been read, and decodes them apart from the port's live traffic.
+ *
+ * Replayed frames only reach {@code frames}, e.g. the frame event stream.
+ * They never reach the command engine, the vend journal or the port's
+ * counters, so a captured reply cannot complete a live request or settle a
+ * real shipment.
+ */
+abstract class ReplayFeed implements Replayer.Receiver {
+
+  private final ReadBufferPool mPool;
+  private final FrameDecoder mDecoder;
+
+  ReplayFeed(ReadBufferPool pool, FrameDecoder.Listener frames) {
+    mPool = pool;
+    mDecoder = new FrameDecoder(frames);
+  }
+
+  /** Takes a replayed chunk on the replay thread and releases it once delivered. */
+  abstract void onChunk(ReadBufferPool.Chunk chunk);
+
+  @Override
+  public void onReplayed(byte[] data, int length) throws InterruptedException {
+    for (int offset = 0; offset < length; offset += mPool.bufferSize()) {
+      ReadBufferPool.Chunk chunk = mPool.acquire();
+      chunk.length = Math.min(mPool.bufferSize(), length - offset);
+      chunk.readAt = System.nanoTime();
+      System.arraycopy(data, offset, chunk.data, 0, chunk.length);
+      mDecoder.feed(chunk.data, 0, chunk.length);
+      onChunk(chunk);
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package com.example.flutter_serial_port;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Feeds the inbound records of a capture back into a receive pipeline on its
+ * own thread, either spaced as they were recorded (scaled by {@code speed}) or,
+ * with a speed of 0, as fast as the pipeline takes them. Outbound records are
+ * skipped; they only keep the timing right.
+ */
+class Replayer implements Runnable {
+
+  /** Takes replayed bytes as if they had just been read from the port. Called on the replay thread. */
+  interface Receiver {
+    void onReplayed(byte[] data, int length) throws InterruptedException;
+
+    /**
+     * {@code records} counts the inbound records replayed; {@code error} is
+     * null when the capture was replayed to the end.
+     */
+    void onReplayFinished(long records, IOException error);
+  }
+
+  private final List<File> mSegments;
+  private final double mSpeed;
+  private final Receiver mReceiver;
+  private final Thread mThread;
+
+  Replayer(String name, List<File> segments, double speed, Receiver receiver) {
+    if (speed < 0) {
+      throw new IllegalArgumentException("speed must not be negative");
+    }
+    mSegments = segments;
+    mSpeed = speed;
+    mReceiver = receiver;
+    mThread = new Thread(this, name);
+  }
+
+  void start() {
+    mThread.start();
+  }
+
+  void cancel() {
+    mThread.interrupt();
+  }
+
+  @Override
+  public void run() {
+    CaptureReader reader = new CaptureReader(mSegments);
+    long records = 0;
+    boolean started = false;
+    long firstRecorded = 0;
+    long firstReplayed = 0;
+    try {
+      CaptureReader.Record record;
+      while ((record = reader.next()) != null) {
+        if (mSpeed > 0) {
+          if (!started) {
+            started = true;
+            firstRecorded = record.timestampNanos;
+            firstReplayed = System.nanoTime();
+          }
+          long due = firstReplayed + (long) ((record.timestampNanos - firstRecorded) / mSpeed);
+          long wait = due - System.nanoTime();
+          if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+          }
+        }
+        if (record.direction == CaptureWriter.IN) {
+          mReceiver.onReplayed(record.data, record.length);
+          records++;
+        }
+      }
+      mReceiver.onReplayFinished(records, null);
+    } catch (IOException e) {
+      mReceiver.onReplayFinished(records, e);
+    } catch (InterruptedException e) {
+      mReceiver.onReplayFinished(records, new IOException("Replay cancelled"));
+    }
+  }
+}
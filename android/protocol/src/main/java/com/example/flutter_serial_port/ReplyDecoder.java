@@ -0,0 +1,97 @@
+package com.example.flutter_serial_port;
+
+/**
+ * Reads the fields of the boards' replies, so that vends, the journal and
+ * status polls agree on what they mean.
+ *
+ * An elevator reply is {@code STX len cmd data0 data1 ETX BCC}; {@code cmd}
+ * echoes the command answered. A board reply is
+ * {@code 0x00 0xFF cmd ~cmd data ~data}. The meanings below are those the
+ * plugin works by, not taken from a board manual:
+ * <ul>
+ * <li>a {@code shipment} reply with {@link #SHIPMENT_ACCEPTED} in data0 means
+ * the elevator took the vend; anything else, usually {@link #SHIPMENT_BUSY},
+ * means it refused it;</li>
+ * <li>a {@code statusElevator} or {@code driveBoardStatus} reply has the
+ * elevator state in data0, {@link #ELEVATOR_IDLE} or, while it works,
+ * {@link #ELEVATOR_BUSY}, and a fault code in data1, {@link #NO_FAULT} if
+ * there is none;</li>
+ * <li>a {@code statusDoor} or {@code closeDoor} reply has
+ * {@link #DOOR_CLOSED} in data when the door is closed; anything else,
+ * usually {@link #DOOR_OPEN}, is taken as open;</li>
+ * <li>a {@code getTemp} reply has the temperature in whole degrees Celsius
+ * in data, as a signed byte.</li>
+ * </ul>
+ */
+final class ReplyDecoder {
+
+  static final int ELEVATOR_CMD = 2;
+  static final int ELEVATOR_DATA0 = 3;
+  static final int ELEVATOR_DATA1 = 4;
+  /** {@code STX len cmd data0 data1 ETX BCC}. */
+  static final int ELEVATOR_REPLY_LENGTH = ELEVATOR_DATA1 + 3;
+
+  static final int CMD_STATUS_ELEVATOR = 0x01;
+  static final int CMD_SHIPMENT = 0x02;
+  static final int CMD_CLEAR_FAULT = 0x50;
+  static final int CMD_DRIVE_BOARD_STATUS = 0x52;
+  static final int CMD_BACK_TO_ORIGIN = 0x05;
+
+  static final int SHIPMENT_ACCEPTED = 0x00;
+  static final int SHIPMENT_BUSY = 0x01;
+  static final int ELEVATOR_IDLE = 0x00;
+  static final int ELEVATOR_BUSY = 0x01;
+  static final int NO_FAULT = 0x00;
+
+  static final int BOARD_DATA = 4;
+  static final int DOOR_CLOSED = 0x00;
+  static final int DOOR_OPEN = 0x01;
+
+  /**
+   * Whether {@code frame} is a whole elevator reply, holding the fields below.
+   * A shorter elevator frame would leave its ETX or BCC in data1.
+   */
+  static boolean isElevator(int type, int length) {
+    return type == FrameDecoder.TYPE_ELEVATOR && length >= ELEVATOR_REPLY_LENGTH;
+  }
+
+  /** The command an elevator reply answers. */
+  static int command(byte[] frame) {
+    return frame[ELEVATOR_CMD] & 0xFF;
+  }
+
+  /** Whether a status reply carries the elevator state. */
+  static boolean isStatus(int command) {
+    return command == CMD_STATUS_ELEVATOR || command == CMD_DRIVE_BOARD_STATUS;
+  }
+
+  /** Whether a shipment reply says the elevator took the vend. */
+  static boolean accepted(byte[] frame) {
+    return (frame[ELEVATOR_DATA0] & 0xFF) == SHIPMENT_ACCEPTED;
+  }
+
+  /** Whether a status reply says the elevator is at rest. */
+  static boolean idle(byte[] frame) {
+    return (frame[ELEVATOR_DATA0] & 0xFF) == ELEVATOR_IDLE;
+  }
+
+  /** The fault code of a status reply, or {@link #NO_FAULT}. */
+  static int fault(byte[] frame) {
+    return frame[ELEVATOR_DATA1] & 0xFF;
+  }
+
+  /** The data byte of a board reply. */
+  static int boardData(byte[] frame) {
+    return frame[BOARD_DATA] & 0xFF;
+  }
+
+  /** Whether a door reply says the door is open. */
+  static boolean doorOpen(byte[] frame) {
+    return boardData(frame) != DOOR_CLOSED;
+  }
+
+  /** The temperature of a {@code getTemp} reply, in degrees Celsius. */
+  static int temperature(byte[] frame) {
+    return frame[BOARD_DATA];
+  }
+}
@@ -0,0 +1,46 @@
+package com.example.flutter_serial_port;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/** Loopback transport with a {@link BoardSimulator} on the other end. */
+class SimulatedTransport implements Transport {
+
+  private final LoopbackTransport mNear;
+  private final LoopbackTransport mFar;
+  private final BoardSimulator mSimulator;
+
+  SimulatedTransport(String name) {
+    LoopbackTransport[] pair = LoopbackTransport.pair(LoopbackTransport.DEFAULT_CAPACITY);
+    mNear = pair[0];
+    mFar = pair[1];
+    mSimulator = new BoardSimulator(name, mFar);
+    mSimulator.start();
+  }
+
+  BoardSimulator simulator() {
+    return mSimulator;
+  }
+
+  @Override
+  public InputStream inputStream() {
+    return mNear.inputStream();
+  }
+
+  @Override
+  public OutputStream outputStream() {
+    return mNear.outputStream();
+  }
+
+  @Override
+  public int fd() {
+    return -1;
+  }
+
+  @Override
+  public void close() {
+    mSimulator.close();
+    mNear.close();
+    mFar.close();
+  }
+}
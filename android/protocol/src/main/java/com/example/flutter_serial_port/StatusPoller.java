@@ -0,0 +1,257 @@
+package com.example.flutter_serial_port;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends status queries such as {@code statusDoor} or {@code getTemp} on a
+ * port's command engine at fixed intervals and reports only changes.
+ *
+ * At most one query is outstanding at a time and first runs are spread over
+ * the shortest interval, so polls do not bunch up. A query that comes due
+ * while other traffic is queued or awaiting replies, in particular another
+ * board request whose reply it could be mistaken for, is held until
+ * {@link #onIdle()} reports that the port has gone quiet, so polling never
+ * delays a vend. Replies are read with {@link ReplyDecoder}; the payload is
+ * compared with the previous one and the listener hears about it only when it
+ * differs, or when the query starts or stops failing.
+ */
+class StatusPoller {
+
+  static final int MIN_INTERVAL_MS = 100;
+
+  /** Whether anything other than the poller is using the port. */
+  interface Traffic {
+    boolean isBusy();
+  }
+
+  /** Told about changed statuses. Called on the engine's threads. */
+  interface Listener {
+    void onStatusChanged(Map<String, Object> event);
+  }
+
+  private class Poll implements Runnable, CommandEngine.Callback {
+    final Command command;
+    final int intervalMs;
+    ScheduledFuture<?> future;
+    /** Came due while the port was busy; sent at the next idle. */
+    boolean due;
+    byte[] lastPayload;
+    String lastError;
+    Map<String, Object> lastEvent;
+
+    Poll(Command command, int intervalMs) {
+      this.command = command;
+      this.intervalMs = intervalMs;
+    }
+
+    @Override
+    public void run() {
+      synchronized (StatusPoller.this) {
+        if (mStopped) {
+          return;
+        }
+        if (!canPoll()) {
+          due = true;
+          return;
+        }
+        mPolling = true;
+      }
+      mEngine.request(command, NO_ARGS, CommandEngine.DEFAULT_TIMEOUT_MS, 0, this);
+    }
+
+    @Override
+    public void onResponse(byte[] frame) {
+      byte[] payload = payload(frame);
+      Map<String, Object> event = null;
+      synchronized (StatusPoller.this) {
+        if (!mStopped && (lastError != null || !Arrays.equals(payload, lastPayload))) {
+          lastPayload = payload;
+          lastError = null;
+          event = decode(command, frame, payload);
+          lastEvent = event;
+        }
+        done(this);
+      }
+      if (event != null) {
+        mListener.onStatusChanged(event);
+      }
+    }
+
+    @Override
+    public void onError(String code, String message) {
+      Map<String, Object> event = null;
+      synchronized (StatusPoller.this) {
+        if (!mStopped && !code.equals(lastError)) {
+          lastError = code;
+          lastPayload = null;
+          event = event(command);
+          event.put("error", code);
+          event.put("message", message);
+          lastEvent = event;
+        }
+        if ("NOT_OPEN".equals(code)) {
+          mStopped = true;
+        }
+        done(this);
+      }
+      if (event != null) {
+        mListener.onStatusChanged(event);
+      }
+    }
+  }
+
+  private static final int[] NO_ARGS = new int[0];
+
+  private final CommandEngine mEngine;
+  private final ScheduledExecutorService mScheduler;
+  private final Traffic mTraffic;
+  private final Listener mListener;
+  private final List<Poll> mPolls = new ArrayList<Poll>();
+  private boolean mPolling;
+  private boolean mStopped;
+
+  StatusPoller(CommandEngine engine, ScheduledExecutorService scheduler, Traffic traffic,
+      Listener listener) {
+    mEngine = engine;
+    mScheduler = scheduler;
+    mTraffic = traffic;
+    mListener = listener;
+  }
+
+  /**
+   * Polls {@code command} every {@code intervalMs}. Must be called before
+   * {@link #start()}; the command must expect a reply and take no data.
+   */
+  void add(Command command, int intervalMs) {
+    if (!command.expectsResponse() || command.takesData() || intervalMs < MIN_INTERVAL_MS) {
+      throw new IllegalArgumentException(command.name + " cannot be polled every " + intervalMs + " ms");
+    }
+    mPolls.add(new Poll(command, intervalMs));
+  }
+
+  synchronized void start() {
+    int shortest = Integer.MAX_VALUE;
+    for (Poll poll : mPolls) {
+      shortest = Math.min(shortest, poll.intervalMs);
+    }
+    for (int i = 0; i < mPolls.size(); i++) {
+      schedule(mPolls.get(i), shortest * i / mPolls.size());
+    }
+  }
+
+  /** The last event of every poll that has completed at least once. */
+  synchronized List<Map<String, Object>> current() {
+    List<Map<String, Object>> events = new ArrayList<Map<String, Object>>(mPolls.size());
+    for (Poll poll : mPolls) {
+      if (poll.lastEvent != null) {
+        events.add(poll.lastEvent);
+      }
+    }
+    return events;
+  }
+
+  /**
+   * Sends the first query that came due while the port was busy, if the port
+   * is idle now. Called by the port when its writer or engine runs out of
+   * work and when a vend ends.
+   */
+  void onIdle() {
+    Poll next = null;
+    synchronized (this) {
+      if (mStopped || !canPoll()) {
+        return;
+      }
+      for (int i = 0; i < mPolls.size() && next == null; i++) {
+        if (mPolls.get(i).due) {
+          next = mPolls.get(i);
+        }
+      }
+      if (next == null) {
+        return;
+      }
+      next.due = false;
+      mPolling = true;
+    }
+    mEngine.request(next.command, NO_ARGS, CommandEngine.DEFAULT_TIMEOUT_MS, 0, next);
+  }
+
+  /** Stops polling; a query in flight still completes but is not reported. */
+  synchronized void stop() {
+    mStopped = true;
+    for (Poll poll : mPolls) {
+      if (poll.future != null) {
+        poll.future.cancel(false);
+      }
+    }
+  }
+
+  /** Must hold the lock. */
+  private boolean canPoll() {
+    return !mPolling && !mTraffic.isBusy() && !mEngine.hasBoardRequest();
+  }
+
+  /** Must hold the lock. */
+  private void done(Poll poll) {
+    mPolling = false;
+    schedule(poll, poll.intervalMs);
+  }
+
+  /** Must hold the lock. */
+  private void schedule(Poll poll, int delayMs) {
+    if (mStopped) {
+      return;
+    }
+    try {
+      poll.future = mScheduler.schedule(poll, delayMs, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      mStopped = true;
+    }
+  }
+
+  /** The data bytes of a reply, without framing, command byte and checks. */
+  private static byte[] payload(byte[] frame) {
+    if (frame.length == FrameDecoder.BOARD_FRAME_LENGTH && frame[0] == 0x00) {
+      return new byte[] {frame[ReplyDecoder.BOARD_DATA]};
+    }
+    // Elevator data runs up to ETX BCC.
+    return Arrays.copyOfRange(frame, ReplyDecoder.ELEVATOR_DATA0, frame.length - 2);
+  }
+
+  private static Map<String, Object> event(Command command) {
+    Map<String, Object> event = new HashMap<String, Object>(8);
+    event.put("command", command.id);
+    event.put("name", command.name);
+    return event;
+  }
+
+  private static Map<String, Object> decode(Command command, byte[] frame, byte[] payload) {
+    Map<String, Object> event = event(command);
+    event.put("data", payload);
+    switch (command.id) {
+    case CommandTable.STATUS_DOOR:
+      event.put("doorOpen", ReplyDecoder.doorOpen(frame));
+      break;
+    case CommandTable.GET_TEMP:
+      event.put("temperature", ReplyDecoder.temperature(frame));
+      break;
+    case CommandTable.STATUS_ELEVATOR:
+    case CommandTable.DRIVE_BOARD_STATUS:
+      if (frame.length > ReplyDecoder.ELEVATOR_DATA1) {
+        event.put("state", frame[ReplyDecoder.ELEVATOR_DATA0] & 0xFF);
+        event.put("fault", ReplyDecoder.fault(frame));
+      }
+      break;
+    default:
+      break;
+    }
+    return event;
+  }
+}
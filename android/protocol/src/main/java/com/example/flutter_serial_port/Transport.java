@@ -0,0 +1,23 @@
+package com.example.flutter_serial_port;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/** Byte pipe a port talks to the boards through. */
+interface Transport {
+
+  InputStream inputStream();
+
+  OutputStream outputStream();
+
+  /**
+   * Descriptor the I/O loop can poll for input, or -1 if the transport has
+   * none and its input stream has to be read on a thread of its own. The loop
+   * makes it non-blocking, so it must not be shared with the output stream.
+   */
+  int fd() throws IOException;
+
+  /** Closes both directions; a blocked read then returns end of stream or fails. */
+  void close();
+}
@@ -0,0 +1,543 @@
+package com.example.flutter_serial_port;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead journal of the commands that dispense, so that after a crash
+ * the app can tell which vends may or may not have happened.
+ *
+ * A dispensing command is begun when it is queued for writing, marked written
+ * once it is on the wire, and ended when its outcome is known. Commands the
+ * boards do not answer end once written. A {@code shipment} is followed
+ * through the elevator's replies, read with {@link ReplyDecoder}: busy ends
+ * it, acceptance marks it, and the first elevator status reporting idle after
+ * one reporting busy ends it as delivered. An idle status with a fault code
+ * ends it with the fault. Whatever is not ended when the journal is opened again is in
+ * doubt until the app resolves it.
+ *
+ * Records are only copied into a memory-mapped segment on the caller's
+ * thread, which survives the process dying; a background thread forces the
+ * segment to storage every {@code syncIntervalMs} when it has changed, so
+ * power loss costs at most that window. When a segment is three quarters full
+ * the open transactions are copied into a fresh one and the old one is
+ * deleted, so the journal stays small; the fresh segment is made larger than
+ * {@code segmentBytes} when the open transactions need it. If storage fails
+ * the journal stops recording rather than hold up the port, and
+ * {@link #failure()} tells why.
+ *
+ * Segment layout: a {@link #HEADER_SIZE} byte header (magic, version, wall
+ * clock at creation) followed by records. A record is its body length
+ * (short), the CRC32 of the body (int) and the body: sequence number (long),
+ * type (byte), transaction id (long), wall clock (long) and a type specific
+ * payload. A zero length, a bad CRC or a sequence number that does not
+ * increase ends the records.
+ */
+class VendJournal {
+
+  static final int MAGIC = 0x53504A31; // "SPJ1"
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 16;
+  static final int DEFAULT_SEGMENT_BYTES = 256 * 1024;
+  static final int DEFAULT_SYNC_INTERVAL_MS = 100;
+
+  static final byte BEGIN = 1;
+  static final byte WRITTEN = 2;
+  static final byte ACCEPTED = 3;
+  static final byte END = 4;
+
+  static final String DELIVERED = "delivered";
+  static final String FAULT = "fault";
+  static final String BUSY = "busy";
+  static final String SENT = "sent";
+  static final String NOT_SENT = "notSent";
+  static final String RESOLVED = "resolved";
+
+  /** Replies to a shipment written longer ago than this are no longer expected. */
+  static final int REPLY_WINDOW_MS = 2 * CommandEngine.DEFAULT_TIMEOUT_MS;
+
+  private static final int RECORD_HEADER_SIZE = 6;
+  private static final int BODY_HEADER_SIZE = 25;
+  /** Frames longer than this, such as a whole shipment range, are journaled cut short. */
+  private static final int MAX_FRAME_BYTES = 64;
+  private static final int MAX_BODY_SIZE = BODY_HEADER_SIZE + 2 + 1 + 255 + 1 + MAX_FRAME_BYTES;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final String[] STATE_NAMES = {null, "begun", "written", "accepted"};
+
+  /** A transaction that has not ended. */
+  private static final class Txn {
+    final long id;
+    final String port;
+    final int command;
+    final byte[] frame;
+    final long startedAt;
+    byte state = BEGIN;
+    long writtenAt;
+    /** The elevator has reported busy since accepting it. */
+    boolean moved;
+    boolean recovered;
+
+    Txn(long id, String port, int command, byte[] frame, long startedAt) {
+      this.id = id;
+      this.port = port;
+      this.command = command;
+      this.frame = frame;
+      this.startedAt = startedAt;
+    }
+  }
+
+  /**
+   * Journals the dispensing commands of one port. Its writer begins and marks
+   * them; its decoded frames end shipments.
+   */
+  final class Tracker {
+    private final String mPort;
+    /** Written shipments, oldest first, that the elevator has not answered. */
+    private final ArrayDeque<Txn> mAwaitingReply = new ArrayDeque<Txn>();
+    /** Accepted shipments the elevator is still working on. */
+    private final ArrayList<Txn> mMoving = new ArrayList<Txn>();
+
+    private Tracker(String port) {
+      mPort = port;
+    }
+
+    /**
+     * Starts a transaction for {@code command}, encoded in {@code data}, and
+     * returns its id; returns 0 for commands that do not dispense.
+     */
+    long begin(int command, byte[] data, int offset, int length) {
+      if (!CommandTable.dispenses(command)) {
+        return 0;
+      }
+      synchronized (VendJournal.this) {
+        if (!ensureRoom()) {
+          return 0;
+        }
+        long id = mSeq;
+        Txn txn = new Txn(id, mPort, command,
+            Arrays.copyOfRange(data, offset, offset + Math.min(length, MAX_FRAME_BYTES)),
+            System.currentTimeMillis());
+        mOpen.put(id, txn);
+        appendBegin(txn);
+        return id;
+      }
+    }
+
+    /** The transaction's bytes are on the wire. */
+    void onWritten(long id) {
+      synchronized (VendJournal.this) {
+        Txn txn = mOpen.get(id);
+        if (txn == null || !ensureRoom()) {
+          return;
+        }
+        if (txn.command == CommandTable.SHIPMENT) {
+          txn.state = WRITTEN;
+          txn.writtenAt = System.nanoTime();
+          append(WRITTEN, id, System.currentTimeMillis(), 0);
+          mAwaitingReply.add(txn);
+        } else {
+          end(txn, SENT, 0);
+        }
+      }
+    }
+
+    /** The transaction's bytes were discarded before any of them was written. */
+    void onNotWritten(long id) {
+      synchronized (VendJournal.this) {
+        Txn txn = mOpen.get(id);
+        if (txn != null && ensureRoom()) {
+          end(txn, NOT_SENT, 0);
+        }
+      }
+    }
+
+    /** Follows shipments through the elevator's replies. Called on the read thread. */
+    void onFrame(int type, byte[] frame, int length) {
+      if (!ReplyDecoder.isElevator(type, length)) {
+        return;
+      }
+      int cmd = ReplyDecoder.command(frame);
+      if (cmd != ReplyDecoder.CMD_SHIPMENT && !ReplyDecoder.isStatus(cmd)) {
+        return;
+      }
+      synchronized (VendJournal.this) {
+        if (cmd == ReplyDecoder.CMD_SHIPMENT) {
+          onShipmentReply(ReplyDecoder.accepted(frame));
+        } else if (!ReplyDecoder.idle(frame)) {
+          for (int i = 0; i < mMoving.size(); i++) {
+            mMoving.get(i).moved = true;
+          }
+        } else {
+          int fault = ReplyDecoder.fault(frame);
+          for (int i = mMoving.size() - 1; i >= 0; i--) {
+            Txn txn = mMoving.get(i);
+            boolean open = mOpen.containsKey(txn.id);
+            if (open && fault == ReplyDecoder.NO_FAULT && !txn.moved) {
+              // Idle before any busy status: the elevator has not started yet.
+              continue;
+            }
+            mMoving.remove(i);
+            if (open && ensureRoom()) {
+              end(txn, fault == ReplyDecoder.NO_FAULT ? DELIVERED : FAULT, fault);
+            }
+          }
+        }
+      }
+    }
+
+    /** Must hold the journal's lock. */
+    private void onShipmentReply(boolean accepted) {
+      long expiredBefore = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(REPLY_WINDOW_MS);
+      Txn txn;
+      while ((txn = mAwaitingReply.poll()) != null) {
+        // An older shipment that got no answer stays in doubt.
+        if (txn.writtenAt - expiredBefore >= 0 && mOpen.containsKey(txn.id)) {
+          break;
+        }
+      }
+      if (txn == null || !ensureRoom()) {
+        return;
+      }
+      if (accepted) {
+        txn.state = ACCEPTED;
+        append(ACCEPTED, txn.id, System.currentTimeMillis(), 0);
+        mMoving.add(txn);
+      } else {
+        end(txn, BUSY, 0);
+      }
+    }
+  }
+
+  private final File mDirectory;
+  private final int mSegmentBytes;
+  private final ScheduledThreadPoolExecutor mSyncer;
+  private final LinkedHashMap<Long, Txn> mOpen = new LinkedHashMap<Long, Txn>();
+  private final byte[] mBody = new byte[MAX_BODY_SIZE];
+  private final ByteBuffer mBodyBuffer = ByteBuffer.wrap(mBody);
+  private final CRC32 mCrc = new CRC32();
+  private MappedByteBuffer mCurrent;
+  private File mCurrentFile;
+  private int mNextIndex;
+  private long mSeq = 1;
+  private boolean mDirty;
+  private boolean mClosed;
+  private IOException mFailure;
+
+  /**
+   * Opens the journal in {@code directory}, recovering the transactions left
+   * open by the previous run; they are reported as in doubt.
+   */
+  VendJournal(File directory, int segmentBytes, int syncIntervalMs) throws IOException {
+    if (segmentBytes < HEADER_SIZE + 16 * (RECORD_HEADER_SIZE + MAX_BODY_SIZE) || syncIntervalMs <= 0) {
+      throw new IllegalArgumentException("segmentBytes too small or syncIntervalMs not positive");
+    }
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Cannot create " + directory);
+    }
+    mDirectory = directory;
+    mSegmentBytes = segmentBytes;
+    List<File> old = recover();
+    synchronized (this) {
+      compact();
+    }
+    for (File file : old) {
+      file.delete();
+    }
+    mSyncer = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("SerialPortJournal"));
+    mSyncer.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        sync();
+      }
+    }, syncIntervalMs, syncIntervalMs, TimeUnit.MILLISECONDS);
+  }
+
+  /** A tracker for the port at {@code port}. */
+  Tracker tracker(String port) {
+    return new Tracker(port);
+  }
+
+  /**
+   * Transactions that have not ended, oldest first. Those left by an earlier
+   * run are marked {@code recovered}; the others may still be in progress.
+   */
+  synchronized List<Map<String, Object>> inDoubt() {
+    List<Map<String, Object>> list = new ArrayList<Map<String, Object>>(mOpen.size());
+    for (Txn txn : mOpen.values()) {
+      Map<String, Object> map = new HashMap<String, Object>(8);
+      Command command = CommandTable.get(txn.command);
+      map.put("txn", txn.id);
+      map.put("port", txn.port);
+      map.put("command", txn.command);
+      map.put("name", command != null ? command.name : null);
+      map.put("frame", txn.frame);
+      map.put("state", STATE_NAMES[txn.state]);
+      map.put("startedAt", txn.startedAt);
+      map.put("recovered", txn.recovered);
+      list.add(map);
+    }
+    return list;
+  }
+
+  /** Ends the given transactions as resolved by the app. Returns how many were open. */
+  synchronized int resolve(List<Long> ids) {
+    int resolved = 0;
+    for (Long id : ids) {
+      Txn txn = mOpen.get(id);
+      if (txn != null && ensureRoom()) {
+        end(txn, RESOLVED, 0);
+        resolved++;
+      }
+    }
+    return resolved;
+  }
+
+  /** Why the journal stopped recording, or null while it records. */
+  synchronized IOException failure() {
+    return mFailure;
+  }
+
+  /** Forces the records appended since the last sync to storage. */
+  void sync() {
+    MappedByteBuffer segment;
+    synchronized (this) {
+      if (mClosed || !mDirty) {
+        return;
+      }
+      if (mCurrent.position() > mCurrent.capacity() / 4 * 3) {
+        try {
+          File old = mCurrentFile;
+          compact();
+          old.delete();
+        } catch (IOException e) {
+          // Appends go on in the current segment; the next sync tries again.
+        }
+      }
+      mDirty = false;
+      segment = mCurrent;
+    }
+    // Appends go on while the pages are written out; that is the group commit.
+    segment.force();
+  }
+
+  /** Syncs and stops the background thread. The files stay for the next run. */
+  void close() {
+    sync();
+    synchronized (this) {
+      mClosed = true;
+    }
+    mSyncer.shutdownNow();
+  }
+
+  /** Must hold the lock. */
+  private void end(Txn txn, String outcome, int fault) {
+    mOpen.remove(txn.id);
+    byte[] name = outcome.getBytes(UTF_8);
+    mBodyBuffer.clear();
+    mBodyBuffer.position(BODY_HEADER_SIZE);
+    mBodyBuffer.put((byte) name.length);
+    mBodyBuffer.put(name);
+    mBodyBuffer.putInt(fault);
+    append(END, txn.id, System.currentTimeMillis(), mBodyBuffer.position() - BODY_HEADER_SIZE);
+  }
+
+  /** Must hold the lock. */
+  private void appendBegin(Txn txn) {
+    byte[] port = txn.port.getBytes(UTF_8);
+    int portLength = Math.min(port.length, 255);
+    mBodyBuffer.clear();
+    mBodyBuffer.position(BODY_HEADER_SIZE);
+    mBodyBuffer.putShort((short) txn.command);
+    mBodyBuffer.put((byte) portLength);
+    mBodyBuffer.put(port, 0, portLength);
+    mBodyBuffer.put((byte) txn.frame.length);
+    mBodyBuffer.put(txn.frame);
+    append(BEGIN, txn.id, txn.startedAt, mBodyBuffer.position() - BODY_HEADER_SIZE);
+  }
+
+  /**
+   * Must hold the lock. Makes sure the current segment has room for one more
+   * record, compacting into a new one if needed. Returns false once the
+   * journal is closed or has stopped because storage failed.
+   */
+  private boolean ensureRoom() {
+    if (mClosed) {
+      return false;
+    }
+    if (mCurrent.remaining() >= RECORD_HEADER_SIZE + MAX_BODY_SIZE + 2) {
+      return true;
+    }
+    try {
+      File old = mCurrentFile;
+      compact();
+      old.delete();
+      return true;
+    } catch (IOException e) {
+      mFailure = e;
+      mClosed = true;
+      return false;
+    }
+  }
+
+  /**
+   * Must hold the lock and have ensured room. Appends a record whose payload
+   * has been put into {@link #mBody} after the body header.
+   */
+  private void append(byte type, long txn, long wallMillis, int payloadLength) {
+    int bodyLength = BODY_HEADER_SIZE + payloadLength;
+    mBodyBuffer.clear();
+    mBodyBuffer.putLong(mSeq++);
+    mBodyBuffer.put(type);
+    mBodyBuffer.putLong(txn);
+    mBodyBuffer.putLong(wallMillis);
+    mCrc.reset();
+    mCrc.update(mBody, 0, bodyLength);
+    mCurrent.putShort((short) bodyLength);
+    mCurrent.putInt((int) mCrc.getValue());
+    mCurrent.put(mBody, 0, bodyLength);
+    mDirty = true;
+  }
+
+  /**
+   * Must hold the lock. Starts a new segment holding only the open
+   * transactions and forces it; the caller deletes the old one. The segment
+   * is at least twice the size the open transactions can take, so that they
+   * fill less than the three quarters that trigger the next compaction.
+   */
+  private void compact() throws IOException {
+    long needed = HEADER_SIZE + (long) mOpen.size() * 2 * (RECORD_HEADER_SIZE + MAX_BODY_SIZE);
+    long size = Math.max(mSegmentBytes, 2 * needed);
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("Too many open transactions for a journal segment: " + mOpen.size());
+    }
+    File file = new File(mDirectory, String.format("journal-%05d.log", mNextIndex++));
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    MappedByteBuffer segment;
+    try {
+      raf.setLength(size);
+      segment = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    } finally {
+      // The mapping stays valid after the file is closed.
+      raf.close();
+    }
+    segment.putInt(MAGIC);
+    segment.putInt(VERSION);
+    segment.putLong(System.currentTimeMillis());
+    mCurrent = segment;
+    mCurrentFile = file;
+    for (Txn txn : mOpen.values()) {
+      appendBegin(txn);
+      if (txn.state != BEGIN) {
+        append(txn.state, txn.id, txn.startedAt, 0);
+      }
+    }
+    mCurrent.force();
+    mDirty = false;
+  }
+
+  /** Replays every segment on disk into {@link #mOpen}. Returns the segments read. */
+  private List<File> recover() throws IOException {
+    File[] files = mDirectory.listFiles();
+    List<File> segments = new ArrayList<File>();
+    if (files != null) {
+      for (File file : files) {
+        if (file.getName().startsWith("journal-") && file.getName().endsWith(".log")) {
+          segments.add(file);
+        }
+      }
+    }
+    // Zero padded indices sort by name.
+    Collections.sort(segments);
+    for (File file : segments) {
+      String name = file.getName();
+      try {
+        mNextIndex = Math.max(mNextIndex,
+            Integer.parseInt(name.substring("journal-".length(), name.length() - ".log".length())) + 1);
+      } catch (NumberFormatException e) {
+        continue;
+      }
+      replay(file);
+    }
+    for (Txn txn : mOpen.values()) {
+      txn.recovered = true;
+    }
+    return segments;
+  }
+
+  private void replay(File file) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    ByteBuffer buffer;
+    try {
+      buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+    } finally {
+      raf.close();
+    }
+    if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+      return;
+    }
+    buffer.getLong();
+    byte[] body = new byte[MAX_BODY_SIZE];
+    CRC32 crc = new CRC32();
+    while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+      int length = buffer.getShort() & 0xFFFF;
+      int expected = buffer.getInt();
+      if (length < BODY_HEADER_SIZE || length > MAX_BODY_SIZE || length > buffer.remaining()) {
+        return;
+      }
+      buffer.get(body, 0, length);
+      crc.reset();
+      crc.update(body, 0, length);
+      if ((int) crc.getValue() != expected) {
+        // A record torn by a crash or power loss ends the segment.
+        return;
+      }
+      ByteBuffer record = ByteBuffer.wrap(body, 0, length);
+      long seq = record.getLong();
+      if (seq < mSeq) {
+        return;
+      }
+      mSeq = seq + 1;
+      byte type = record.get();
+      long id = record.getLong();
+      long wallMillis = record.getLong();
+      Txn txn = mOpen.get(id);
+      switch (type) {
+      case BEGIN:
+        int command = record.getShort();
+        byte[] port = new byte[record.get() & 0xFF];
+        record.get(port);
+        byte[] frame = new byte[record.get() & 0xFF];
+        record.get(frame);
+        mOpen.put(id, new Txn(id, new String(port, UTF_8), command, frame, wallMillis));
+        break;
+      case WRITTEN:
+      case ACCEPTED:
+        if (txn != null) {
+          txn.state = type;
+        }
+        break;
+      case END:
+        mOpen.remove(id);
+        break;
+      default:
+        return;
+      }
+    }
+  }
+}
@@ -0,0 +1,148 @@
+package com.example.flutter_serial_port;
+
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a list of commands one after the other on a port's command engine.
+ *
+ * Each step is sent once the previous one has completed and its
+ * {@code delayMs} has passed, so a whole vend batch costs one platform call
+ * instead of one round trip per slot. Steps run on the engine's threads; the
+ * listener is told about every step and about the end of the plan.
+ */
+class VendPlan implements CommandEngine.Callback, Runnable {
+
+  static final String COMPLETED = "completed";
+  static final String FAILED = "failed";
+  static final String CANCELLED = "cancelled";
+
+  static final class Step {
+    final Command command;
+    final int[] args;
+    final int delayMs;
+    final boolean waitResponse;
+    final int timeoutMs;
+    final int retries;
+
+    Step(Command command, int[] args, int delayMs, boolean waitResponse, int timeoutMs, int retries) {
+      this.command = command;
+      this.args = args;
+      this.delayMs = delayMs;
+      this.waitResponse = waitResponse;
+      this.timeoutMs = timeoutMs;
+      this.retries = retries;
+    }
+  }
+
+  /** Progress of a plan. Called on the writer, read or timer thread. */
+  interface Listener {
+    /** {@code code} is null when the step succeeded. */
+    void onStep(VendPlan plan, int index, byte[] frame, String code, String message);
+
+    /** Called exactly once, after the last step that ran. */
+    void onFinished(VendPlan plan, String status, int completed);
+  }
+
+  final int id;
+  private final List<Step> mSteps;
+  private final boolean mStopOnError;
+  private final CommandEngine mEngine;
+  private final ScheduledExecutorService mScheduler;
+  private final Listener mListener;
+  private volatile boolean mCancelled;
+  private int mIndex;
+  private int mCompleted;
+  private boolean mFinished;
+
+  VendPlan(int id, List<Step> steps, boolean stopOnError, CommandEngine engine,
+      ScheduledExecutorService scheduler, Listener listener) {
+    this.id = id;
+    mSteps = steps;
+    mStopOnError = stopOnError;
+    mEngine = engine;
+    mScheduler = scheduler;
+    mListener = listener;
+  }
+
+  void start() {
+    next(0);
+  }
+
+  /** Stops the plan after the step in progress. */
+  void cancel() {
+    mCancelled = true;
+  }
+
+  @Override
+  public void run() {
+    Step step;
+    synchronized (this) {
+      if (mFinished) {
+        return;
+      }
+      if (mCancelled || mIndex >= mSteps.size()) {
+        finish(mCancelled ? CANCELLED : COMPLETED);
+        return;
+      }
+      step = mSteps.get(mIndex);
+    }
+    mEngine.request(step.command, step.args, step.timeoutMs, step.retries, step.waitResponse, this);
+  }
+
+  @Override
+  public void onResponse(byte[] frame) {
+    int index;
+    int delayMs;
+    synchronized (this) {
+      index = mIndex++;
+      mCompleted++;
+      delayMs = mSteps.get(index).delayMs;
+    }
+    mListener.onStep(this, index, frame, null, null);
+    next(delayMs);
+  }
+
+  @Override
+  public void onError(String code, String message) {
+    int index;
+    int delayMs;
+    synchronized (this) {
+      index = mIndex++;
+      delayMs = mSteps.get(index).delayMs;
+    }
+    mListener.onStep(this, index, null, code, message);
+    if (mStopOnError || "NOT_OPEN".equals(code)) {
+      synchronized (this) {
+        finish(FAILED);
+      }
+      return;
+    }
+    next(delayMs);
+  }
+
+  private void next(int delayMs) {
+    try {
+      if (delayMs > 0) {
+        mScheduler.schedule(this, delayMs, TimeUnit.MILLISECONDS);
+      } else {
+        mScheduler.execute(this);
+      }
+    } catch (RejectedExecutionException e) {
+      synchronized (this) {
+        finish(CANCELLED);
+      }
+    }
+  }
+
+  /** Must hold the lock. */
+  private void finish(String status) {
+    if (mFinished) {
+      return;
+    }
+    mFinished = true;
+    mListener.onFinished(this, status, mCompleted);
+  }
+}
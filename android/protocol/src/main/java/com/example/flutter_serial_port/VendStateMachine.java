@@ -0,0 +1,285 @@
+package com.example.flutter_serial_port;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs one elevator vend on a port's command engine, moving on when the
+ * elevator answers rather than after fixed delays.
+ *
+ * A {@code shipment} for the slot is sent first. Once the elevator accepts it,
+ * {@code statusElevator} is polled every {@code pollIntervalMs} until the
+ * elevator has been busy and is idle again; an idle reply before any busy one
+ * is taken to mean it has not started yet. Replies are read with
+ * {@link ReplyDecoder}. A fault code at that point is cleared with
+ * {@code clearElevatorFault}, the elevator is sent home with
+ * {@code backElevatorToOrigin} and polled until idle, and the vend ends with
+ * the fault. If the elevator answers the shipment with busy, the machine waits
+ * for it to go idle, clearing a fault left by an earlier vend, and tries again
+ * up to {@code busyRetries} times. A shipment is never repeated after it went
+ * unanswered, since it may have been accepted.
+ *
+ * Every command is sent unpaced as soon as the previous reply is in. Polls that
+ * fail are repeated until the vend's timeout. The listener hears about each
+ * state entered if it asked for steps, and exactly once about the outcome.
+ * Callbacks run on the engine's threads.
+ */
+class VendStateMachine implements CommandEngine.Callback, Runnable {
+
+  static final String DELIVERED = "delivered";
+  static final String FAULT = "fault";
+  static final String BUSY = "busy";
+  static final String TIMEOUT = "timeout";
+  static final String FAILED = "failed";
+  static final String CANCELLED = "cancelled";
+
+  static final int DEFAULT_POLL_INTERVAL_MS = 100;
+  static final int DEFAULT_TIMEOUT_MS = 30000;
+  static final int DEFAULT_BUSY_RETRIES = 3;
+  static final int MIN_POLL_INTERVAL_MS = 20;
+
+  private static final int SHIPPING = 0;
+  private static final int WAITING_IDLE = 1;
+  private static final int MOVING = 2;
+  private static final int CLEARING = 3;
+  private static final int RETURNING = 4;
+  private static final int HOMING = 5;
+  private static final String[] STATE_NAMES = {
+      "shipping", "waitingIdle", "moving", "clearing", "returning", "homing"};
+
+  private static final int[] NO_ARGS = new int[0];
+
+  /** Progress of a vend. Called on the writer, read or timer thread. */
+  interface Listener {
+    /** {@code frame} is the reply that led into {@code state}, or null. */
+    void onVendStep(VendStateMachine vend, String state, byte[] frame);
+
+    /**
+     * Called exactly once. {@code fault} is the elevator's fault code or 0;
+     * {@code code} and {@code message} describe a failed command, or are null.
+     */
+    void onVendFinished(VendStateMachine vend, String outcome, int fault, String code,
+        String message);
+  }
+
+  final int id;
+  final int slot;
+  private final int mPollIntervalMs;
+  private final int mTimeoutMs;
+  private final boolean mReportSteps;
+  private final CommandEngine mEngine;
+  private final ScheduledExecutorService mScheduler;
+  private final Listener mListener;
+  private int mBusyRetriesLeft;
+  private int mState = SHIPPING;
+  private boolean mAccepted;
+  /** The elevator has reported busy since the shipment was accepted. */
+  private boolean mMoved;
+  private int mFault;
+  private boolean mCancelled;
+  private boolean mFinished;
+  private ScheduledFuture<?> mPoll;
+  private ScheduledFuture<?> mDeadline;
+
+  VendStateMachine(int id, int slot, int pollIntervalMs, int timeoutMs, int busyRetries,
+      boolean reportSteps, CommandEngine engine, ScheduledExecutorService scheduler,
+      Listener listener) {
+    if (pollIntervalMs < MIN_POLL_INTERVAL_MS || timeoutMs <= 0 || busyRetries < 0) {
+      throw new IllegalArgumentException("pollIntervalMs must be at least " + MIN_POLL_INTERVAL_MS
+          + ", timeoutMs positive and busyRetries not negative");
+    }
+    this.id = id;
+    this.slot = slot;
+    mPollIntervalMs = pollIntervalMs;
+    mTimeoutMs = timeoutMs;
+    mBusyRetriesLeft = busyRetries;
+    mReportSteps = reportSteps;
+    mEngine = engine;
+    mScheduler = scheduler;
+    mListener = listener;
+  }
+
+  synchronized void start() {
+    try {
+      mDeadline = mScheduler.schedule(new Runnable() {
+        @Override
+        public void run() {
+          synchronized (VendStateMachine.this) {
+            finish(TIMEOUT, null, "Vend did not finish within " + mTimeoutMs + " ms");
+          }
+        }
+      }, mTimeoutMs, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      finish(CANCELLED, null, null);
+      return;
+    }
+    enter(SHIPPING, null);
+  }
+
+  /**
+   * Ends the vend at its next step. The elevator is not stopped: a shipment
+   * it has accepted still runs, only no longer watched.
+   */
+  synchronized void cancel() {
+    mCancelled = true;
+  }
+
+  /** The next status poll. */
+  @Override
+  public synchronized void run() {
+    if (mFinished) {
+      return;
+    }
+    if (mCancelled) {
+      finish(CANCELLED, null, null);
+      return;
+    }
+    send(CommandTable.get(CommandTable.STATUS_ELEVATOR), NO_ARGS);
+  }
+
+  @Override
+  public synchronized void onResponse(byte[] frame) {
+    if (mFinished) {
+      return;
+    }
+    if (mCancelled) {
+      finish(CANCELLED, null, null);
+      return;
+    }
+    switch (mState) {
+    case SHIPPING:
+      if (ReplyDecoder.accepted(frame)) {
+        mAccepted = true;
+        mMoved = false;
+        enter(MOVING, frame);
+      } else if (mBusyRetriesLeft > 0) {
+        mBusyRetriesLeft--;
+        enter(WAITING_IDLE, frame);
+      } else {
+        finish(BUSY, null, null);
+      }
+      break;
+    case WAITING_IDLE:
+    case MOVING:
+    case HOMING:
+      int fault = ReplyDecoder.fault(frame);
+      if (!ReplyDecoder.idle(frame)) {
+        mMoved = true;
+        schedulePoll();
+      } else if (mState == HOMING) {
+        // Home after clearing a fault: this vend's, or one left by an earlier vend.
+        if (mAccepted || fault != ReplyDecoder.NO_FAULT) {
+          mFault = mAccepted ? mFault : fault;
+          finish(FAULT, null, null);
+        } else {
+          enter(SHIPPING, frame);
+        }
+      } else if (fault != ReplyDecoder.NO_FAULT) {
+        if (mAccepted) {
+          mFault = fault;
+        }
+        enter(CLEARING, frame);
+      } else if (mState == MOVING) {
+        if (mMoved) {
+          finish(DELIVERED, null, null);
+        } else {
+          schedulePoll();
+        }
+      } else {
+        enter(SHIPPING, frame);
+      }
+      break;
+    case CLEARING:
+      enter(RETURNING, frame);
+      break;
+    case RETURNING:
+      enter(HOMING, frame);
+      break;
+    default:
+      break;
+    }
+  }
+
+  @Override
+  public synchronized void onError(String code, String message) {
+    if (mFinished) {
+      return;
+    }
+    if (mCancelled) {
+      finish(CANCELLED, null, null);
+      return;
+    }
+    if ("NOT_OPEN".equals(code)) {
+      finish(FAILED, code, message);
+      return;
+    }
+    switch (mState) {
+    case WAITING_IDLE:
+    case MOVING:
+    case HOMING:
+      schedulePoll();
+      break;
+    case CLEARING:
+    case RETURNING:
+      finish(FAULT, code, message);
+      break;
+    default:
+      finish(FAILED, code, message);
+      break;
+    }
+  }
+
+  /** Must hold the lock. Sends the command that {@code state} starts with. */
+  private void enter(int state, byte[] frame) {
+    mState = state;
+    if (mReportSteps) {
+      mListener.onVendStep(this, STATE_NAMES[state], frame);
+    }
+    switch (state) {
+    case SHIPPING:
+      send(CommandTable.get(CommandTable.SHIPMENT), new int[] {slot});
+      break;
+    case CLEARING:
+      send(CommandTable.get(CommandTable.CLEAR_ELEVATOR_FAULT), NO_ARGS);
+      break;
+    case RETURNING:
+      send(CommandTable.get(CommandTable.BACK_ELEVATOR_TO_ORIGIN), NO_ARGS);
+      break;
+    default:
+      schedulePoll();
+      break;
+    }
+  }
+
+  /** Must hold the lock. Replies arrive in onResponse or onError, possibly before this returns. */
+  private void send(Command command, int[] args) {
+    int retries = command.id == CommandTable.SHIPMENT ? 0 : CommandEngine.DEFAULT_RETRIES;
+    mEngine.request(command, args, CommandEngine.DEFAULT_TIMEOUT_MS, retries, true, false, this);
+  }
+
+  /** Must hold the lock. */
+  private void schedulePoll() {
+    try {
+      mPoll = mScheduler.schedule(this, mPollIntervalMs, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      finish(CANCELLED, null, null);
+    }
+  }
+
+  /** Must hold the lock. */
+  private void finish(String outcome, String code, String message) {
+    if (mFinished) {
+      return;
+    }
+    mFinished = true;
+    if (mPoll != null) {
+      mPoll.cancel(false);
+    }
+    if (mDeadline != null) {
+      mDeadline.cancel(false);
+    }
+    mListener.onVendFinished(this, outcome, mFault, code, message);
+  }
+}
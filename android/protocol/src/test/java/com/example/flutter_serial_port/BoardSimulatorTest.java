@@ -0,0 +1,108 @@
+package com.example.flutter_serial_port;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BoardSimulatorTest {
+
+  private final PortStats mStats = new PortStats();
+  private SimulatedTransport mTransport;
+  private ScheduledThreadPoolExecutor mTimer;
+  private CommandWriter mWriter;
+  private CommandEngine mEngine;
+
+  @Before
+  public void setUp() {
+    mTransport = new SimulatedTransport("TestSimulator");
+    mTransport.simulator().vendMs = 10;
+    mTimer = new ScheduledThreadPoolExecutor(1);
+    mWriter = new CommandWriter("TestWriter", mTransport.outputStream(), 8, mStats);
+    mEngine = new CommandEngine(mWriter, mTimer, 4, mStats);
+    final FrameDecoder decoder = new FrameDecoder(new FrameDecoder.Listener() {
+      @Override
+      public void onFrame(int type, byte[] frame, int length) {
+        mEngine.onFrame(type, frame, length);
+      }
+    });
+    Thread reader = new Thread("TestReader") {
+      @Override
+      public void run() {
+        byte[] buffer = new byte[64];
+        try {
+          int size;
+          while ((size = mTransport.inputStream().read(buffer)) >= 0) {
+            decoder.feed(buffer, 0, size);
+          }
+        } catch (IOException e) {
+          // Closed.
+        }
+      }
+    };
+    reader.setDaemon(true);
+    reader.start();
+    mWriter.start();
+  }
+
+  @After
+  public void tearDown() {
+    mEngine.close();
+    mWriter.close();
+    mTimer.shutdownNow();
+    mTransport.close();
+  }
+
+  @Test
+  public void answersEveryCommandThatExpectsAReply() throws Exception {
+    int answered = 0;
+    for (int id = 0; CommandTable.get(id) != null; id++) {
+      Command command = CommandTable.get(id);
+      if (!command.expectsResponse()) {
+        continue;
+      }
+      Object reply = request(command, command.takesData() ? new int[] {1} : new int[0]);
+      assertTrue(command.name + " got " + reply, reply instanceof byte[]);
+      answered++;
+      // Let a shipment finish before the next elevator command.
+      Thread.sleep(20);
+    }
+    assertEquals(8, answered);
+  }
+
+  @Test
+  public void closeDoorKeepsFramingAndClosesTheDoor() throws Exception {
+    mTransport.simulator().doorOpen = true;
+    byte[] closed = (byte[]) request(CommandTable.get(CommandTable.CLOSE_DOOR), new int[0]);
+    assertEquals(0x00, closed[4]);
+    byte[] status = (byte[]) request(CommandTable.get(CommandTable.STATUS_DOOR), new int[0]);
+    assertEquals(0x00, status[4]);
+    byte[] elevator = (byte[]) request(CommandTable.get(CommandTable.STATUS_ELEVATOR), new int[0]);
+    assertEquals(0x01, elevator[2]);
+  }
+
+  /** The reply frame, or the error code. */
+  private Object request(Command command, int[] args) throws InterruptedException {
+    final BlockingQueue<Object> result = new LinkedBlockingQueue<Object>();
+    mEngine.request(command, args, 500, 0, new CommandEngine.Callback() {
+      @Override
+      public void onResponse(byte[] frame) {
+        result.add(frame);
+      }
+
+      @Override
+      public void onError(String code, String message) {
+        result.add(code);
+      }
+    });
+    return result.poll(2, TimeUnit.SECONDS);
+  }
+}
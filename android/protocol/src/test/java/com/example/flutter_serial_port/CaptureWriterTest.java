@@ -0,0 +1,45 @@
+package com.example.flutter_serial_port;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CaptureWriterTest {
+
+  private static final int SEGMENT_BYTES = 1024;
+
+  @Rule
+  public final TemporaryFolder mFolder = new TemporaryFolder();
+
+  @Test
+  public void recordsResumeAfterASegmentCouldNotBeCreated() throws Exception {
+    File directory = mFolder.newFolder("capture");
+    File moved = new File(mFolder.getRoot(), "moved");
+    CaptureWriter capture = new CaptureWriter(directory, "test", SEGMENT_BYTES, 8);
+    byte[] block = new byte[100];
+    // Lets the second segment be prepared, then takes the directory away so
+    // the third cannot be created.
+    Thread.sleep(100);
+    assertTrue(directory.renameTo(moved));
+    long dropped = 0;
+    for (int i = 0; i < 4 * SEGMENT_BYTES / block.length && dropped == 0; i++) {
+      capture.record(CaptureWriter.IN, System.nanoTime(), block, 0, block.length);
+      dropped = capture.droppedCount();
+    }
+    assertTrue("nothing dropped", dropped > 0);
+
+    assertTrue(moved.renameTo(directory));
+    long recorded = capture.recordCount();
+    long deadline = System.currentTimeMillis() + 2000;
+    while (capture.recordCount() == recorded && System.currentTimeMillis() < deadline) {
+      capture.record(CaptureWriter.IN, System.nanoTime(), block, 0, block.length);
+      Thread.sleep(10);
+    }
+    assertTrue("records still dropped", capture.recordCount() > recorded);
+    capture.close();
+  }
+}
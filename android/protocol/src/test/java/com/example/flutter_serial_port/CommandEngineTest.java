@@ -0,0 +1,136 @@
+package com.example.flutter_serial_port;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CommandEngineTest {
+
+  private static final byte[] DOOR_CLOSED = {0x00, (byte) 0xFF, (byte) 0xDF, 0x20, 0x00, (byte) 0xFF};
+  private static final byte[] DOOR_OPEN = {0x00, (byte) 0xFF, (byte) 0xDF, 0x20, 0x01, (byte) 0xFE};
+  private static final byte[] ELEVATOR_IDLE = {0x02, 0x03, 0x01, 0x00, 0x00, 0x03, 0x01};
+  private static final int[] NO_ARGS = new int[0];
+
+  /** Records every write; can answer a command before the write returns. */
+  private class Line extends OutputStream {
+    final BlockingQueue<byte[]> writes = new LinkedBlockingQueue<byte[]>();
+    volatile byte[] instantReply;
+
+    @Override
+    public void write(int b) {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) {
+      byte[] reply = instantReply;
+      if (reply != null) {
+        mEngine.onFrame(FrameDecoder.TYPE_ELEVATOR, reply, reply.length);
+      }
+      writes.add(Arrays.copyOfRange(data, offset, offset + length));
+    }
+  }
+
+  /** Keeps the outcome of one request. */
+  private static class Outcome implements CommandEngine.Callback {
+    final BlockingQueue<Object> result = new LinkedBlockingQueue<Object>();
+
+    @Override
+    public void onResponse(byte[] frame) {
+      result.add(frame);
+    }
+
+    @Override
+    public void onError(String code, String message) {
+      result.add(code);
+    }
+
+    Object await() throws InterruptedException {
+      return result.poll(2, TimeUnit.SECONDS);
+    }
+  }
+
+  private final Line mLine = new Line();
+  private final PortStats mStats = new PortStats();
+  private ScheduledThreadPoolExecutor mTimer;
+  private CommandWriter mWriter;
+  private CommandEngine mEngine;
+
+  @Before
+  public void setUp() {
+    mTimer = new ScheduledThreadPoolExecutor(1);
+    mWriter = new CommandWriter("TestWriter", mLine, 8, 0, 0, mStats);
+    mEngine = new CommandEngine(mWriter, mTimer, 4, mStats);
+    mWriter.start();
+  }
+
+  @After
+  public void tearDown() {
+    mEngine.close();
+    mWriter.close();
+    mTimer.shutdownNow();
+  }
+
+  @Test
+  public void replyDuringWriteIsMatched() throws Exception {
+    mLine.instantReply = ELEVATOR_IDLE;
+    Outcome outcome = new Outcome();
+    mEngine.request(CommandTable.get(CommandTable.STATUS_ELEVATOR), NO_ARGS, 200, 1, outcome);
+    assertArrayEquals(ELEVATOR_IDLE, (byte[]) outcome.await());
+    Thread.sleep(300);
+    assertEquals("no retry", 1, mStats.framesOut.get());
+  }
+
+  @Test
+  public void boardRequestsAreInFlightOneAtATime() throws Exception {
+    Outcome first = new Outcome();
+    Outcome second = new Outcome();
+    Outcome elevator = new Outcome();
+    mEngine.request(CommandTable.get(CommandTable.STATUS_DOOR), NO_ARGS, 1000, 0, first);
+    mEngine.request(CommandTable.get(CommandTable.GET_TEMP), NO_ARGS, 1000, 0, second);
+    mEngine.request(CommandTable.get(CommandTable.STATUS_ELEVATOR), NO_ARGS, 1000, 0, elevator);
+    assertEquals((byte) 0xDF, nextWrite()[2]);
+    assertNull("second board request written early", mLine.writes.poll(100, TimeUnit.MILLISECONDS));
+
+    mEngine.onFrame(FrameDecoder.TYPE_BOARD, DOOR_OPEN, DOOR_OPEN.length);
+    assertArrayEquals(DOOR_OPEN, (byte[]) first.await());
+    assertEquals((byte) 0xDC, nextWrite()[2]);
+    assertEquals(0x01, nextWrite()[2]);
+    mEngine.onFrame(FrameDecoder.TYPE_BOARD, DOOR_CLOSED, DOOR_CLOSED.length);
+    assertArrayEquals(DOOR_CLOSED, (byte[]) second.await());
+    mEngine.onFrame(FrameDecoder.TYPE_ELEVATOR, ELEVATOR_IDLE, ELEVATOR_IDLE.length);
+    assertArrayEquals(ELEVATOR_IDLE, (byte[]) elevator.await());
+  }
+
+  @Test
+  public void lostBoardReplyFailsOnlyItsRequest() throws Exception {
+    Outcome lost = new Outcome();
+    Outcome next = new Outcome();
+    mEngine.request(CommandTable.get(CommandTable.STATUS_DOOR), NO_ARGS, 100, 0, lost);
+    mEngine.request(CommandTable.get(CommandTable.STATUS_DOOR), NO_ARGS, 1000, 0, next);
+    nextWrite();
+    assertEquals("TIMEOUT", lost.await());
+    nextWrite();
+    mEngine.onFrame(FrameDecoder.TYPE_BOARD, DOOR_OPEN, DOOR_OPEN.length);
+    assertArrayEquals(DOOR_OPEN, (byte[]) next.await());
+  }
+
+  private byte[] nextWrite() throws InterruptedException {
+    byte[] write = mLine.writes.poll(2, TimeUnit.SECONDS);
+    assertNotNull("nothing written", write);
+    return write;
+  }
+}
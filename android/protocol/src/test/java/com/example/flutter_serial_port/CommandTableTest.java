@@ -0,0 +1,44 @@
+package com.example.flutter_serial_port;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+
+public class CommandTableTest {
+
+  private final CommandWriter mWriter = new CommandWriter("TestWriter", new ByteArrayOutputStream(),
+      1, 0, 0, new PortStats());
+
+  @Test
+  public void shipmentRangeCoversEveryTrailerByte() {
+    CommandWriter.Request request = mWriter.obtain();
+    CommandTable.encode(CommandTable.get(CommandTable.SHIPMENT_RANGE), new int[] {0, 255, 7}, request);
+    assertEquals(256 * request.frameLength, request.length);
+    assertEquals((byte) 255, request.data[request.length - 1]);
+  }
+
+  @Test
+  public void shipmentRangeOutsideOneByteIsRejected() {
+    assertRejected(-1, 3);
+    assertRejected(0, 256);
+    assertRejected(5, 4);
+    assertRejected(0, Integer.MAX_VALUE);
+    assertRejected(Integer.MIN_VALUE, 0);
+  }
+
+  private void assertRejected(int from, int to) {
+    CommandWriter.Request request = mWriter.obtain();
+    try {
+      CommandTable.encode(CommandTable.get(CommandTable.SHIPMENT_RANGE), new int[] {from, to, 7},
+          request);
+      fail(from + ".." + to + " accepted");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    } finally {
+      mWriter.recycle(request);
+    }
+  }
+}
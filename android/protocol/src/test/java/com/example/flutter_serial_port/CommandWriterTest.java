@@ -0,0 +1,95 @@
+package com.example.flutter_serial_port;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CommandWriterTest {
+
+  private final ByteArrayOutputStream mOutput = new ByteArrayOutputStream();
+  private final PortStats mStats = new PortStats();
+  private final AtomicInteger mFailed = new AtomicInteger();
+  private CommandWriter mWriter;
+  private CountDownLatch mWritten;
+
+  private final CommandWriter.Callback mCallback = new CommandWriter.Callback() {
+    @Override
+    public void onWriting(CommandWriter.Request request) {
+    }
+
+    @Override
+    public void onWritten(CommandWriter.Request request) {
+      mWritten.countDown();
+    }
+
+    @Override
+    public void onWriteFailed(CommandWriter.Request request, IOException error) {
+      mFailed.incrementAndGet();
+      mWritten.countDown();
+    }
+  };
+
+  @Before
+  public void setUp() {
+    // A long coalescing delay gathers every request below into one write.
+    mWriter = new CommandWriter("TestWriter", mOutput, 8, 64, 50, mStats);
+    mWriter.start();
+  }
+
+  @After
+  public void tearDown() {
+    mWriter.close();
+  }
+
+  @Test
+  public void emptyRequestDoesNotStopTheWriter() throws Exception {
+    mWritten = new CountDownLatch(3);
+    submit(new byte[] {1, 2});
+    submit(new byte[0]);
+    submit(new byte[] {3});
+    assertTrue(mWritten.await(2, TimeUnit.SECONDS));
+
+    mWritten = new CountDownLatch(1);
+    submit(new byte[] {4});
+    assertTrue("writer thread died", mWritten.await(2, TimeUnit.SECONDS));
+    assertEquals(0, mFailed.get());
+    assertArrayEquals(new byte[] {1, 2, 3, 4}, mOutput.toByteArray());
+    assertEquals(3, mStats.framesOut.get());
+    // Callbacks run before the writer recycles the request.
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+    while (mWriter.depth() != 0 && System.nanoTime() < deadline) {
+      Thread.sleep(1);
+    }
+    assertEquals(0, mWriter.depth());
+  }
+
+  @Test
+  public void rawCommandNeedsBytes() {
+    CommandWriter.Request request = mWriter.obtain();
+    try {
+      CommandTable.encode(CommandTable.get(CommandTable.RAW), new int[0], request);
+      fail("encoded a raw command without bytes");
+    } catch (IllegalArgumentException expected) {
+      mWriter.recycle(request);
+    }
+  }
+
+  private void submit(byte[] data) {
+    CommandWriter.Request request = mWriter.obtain();
+    System.arraycopy(data, 0, request.ensureCapacity(data.length), 0, data.length);
+    request.length = data.length;
+    request.callback = mCallback;
+    mWriter.submit(request);
+  }
+}
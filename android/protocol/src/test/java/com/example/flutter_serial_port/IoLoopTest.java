@@ -0,0 +1,316 @@
+package com.example.flutter_serial_port;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+/** Ports read by {@link PortReader} on one {@link IoLoop}, over pseudo-terminals. */
+public class IoLoopTest {
+
+  private final IoLoop mLoop = new IoLoop("TestIo");
+  private final List<Pty> mPtys = new ArrayList<Pty>();
+
+  /** A pseudo-terminal: the test writes the master, the reader reads the terminal side. */
+  private class Pty implements PortReader.Sink {
+    final int master;
+    final PtyTransport transport;
+    final ReadBufferPool pool;
+    final PortReader reader;
+    final LinkedBlockingQueue<byte[]> received = new LinkedBlockingQueue<byte[]>();
+    /** Chunks are kept instead of released while set. */
+    final List<ReadBufferPool.Chunk> held = new ArrayList<ReadBufferPool.Chunk>();
+    volatile boolean hold;
+
+    Pty(int bufferCount) throws IOException {
+      this(bufferCount, 0);
+    }
+
+    Pty(int bufferCount, int frameGapMs) throws IOException {
+      this(bufferCount, frameGapMs, 64);
+    }
+
+    Pty(int bufferCount, int gapMs, int burstBytes) throws IOException {
+      int[] fds = new int[1];
+      String path = NativeIo.openPty(fds);
+      master = fds[0];
+      transport = new PtyTransport(new File(path));
+      pool = new ReadBufferPool(64, bufferCount);
+      reader = new PortReader("TestReader", transport, gapMs, burstBytes, pool, mLoop, this);
+      mPtys.add(this);
+    }
+
+    void send(byte... data) throws IOException {
+      assertEquals(data.length, NativeIo.write(master, data, 0, data.length));
+    }
+
+    /** Waits for {@code count} bytes, however they were split into reads. */
+    byte[] receive(int count) throws InterruptedException {
+      byte[] data = new byte[count];
+      int length = 0;
+      while (length < count) {
+        byte[] read = received.poll(2, TimeUnit.SECONDS);
+        assertNotNull("nothing read", read);
+        System.arraycopy(read, 0, data, length, read.length);
+        length += read.length;
+      }
+      return data;
+    }
+
+    @Override
+    public void onChunk(ReadBufferPool.Chunk chunk) {
+      received.add(Arrays.copyOf(chunk.data, chunk.length));
+      if (hold) {
+        synchronized (held) {
+          held.add(chunk);
+        }
+      } else {
+        chunk.release();
+      }
+    }
+
+    @Override
+    public void onReadError(IOException error) {
+    }
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    for (Pty pty : mPtys) {
+      pty.reader.close();
+      NativeIo.close(pty.master);
+    }
+  }
+
+  @Test
+  public void readsEveryPort() throws Exception {
+    Pty[] ptys = {new Pty(4), new Pty(4), new Pty(4)};
+    for (Pty pty : ptys) {
+      pty.reader.start();
+    }
+    for (int i = 0; i < ptys.length; i++) {
+      ptys[i].send((byte) i, (byte) 0x55, (byte) 0xAA);
+    }
+    for (int i = 0; i < ptys.length; i++) {
+      assertArrayEquals(new byte[] {(byte) i, 0x55, (byte) 0xAA}, ptys[i].receive(3));
+    }
+  }
+
+  @Test
+  public void registeredDescriptorIsNonBlocking() throws Exception {
+    Pty pty = new Pty(4);
+    assertFalse(NativeIo.isNonBlocking(pty.reader.fd()));
+    pty.reader.start();
+    assertTrue(NativeIo.isNonBlocking(pty.reader.fd()));
+    // With nothing sent, a read returns at once instead of blocking.
+    assertEquals(0, NativeIo.read(pty.reader.fd(), new byte[8], 0, 8));
+    // Writes go through their own descriptor, which keeps blocking.
+    int output = NativeIo.descriptor(((FileOutputStream) pty.transport.outputStream()).getFD());
+    assertFalse(NativeIo.isNonBlocking(output));
+  }
+
+  @Test
+  public void closedPortIsNoLongerRead() throws Exception {
+    Pty closed = new Pty(4);
+    Pty open = new Pty(4);
+    closed.reader.start();
+    open.reader.start();
+    closed.reader.close();
+    mPtys.remove(closed);
+    NativeIo.close(closed.master);
+    open.send((byte) 1);
+    assertArrayEquals(new byte[] {1}, open.receive(1));
+    assertTrue(closed.received.isEmpty());
+  }
+
+  @Test
+  public void loopThreadEndsWithTheLastPort() throws Exception {
+    Pty pty = new Pty(4);
+    pty.reader.start();
+    assertNotNull(loopThread());
+    pty.reader.close();
+    mPtys.remove(pty);
+    NativeIo.close(pty.master);
+    long deadline = System.currentTimeMillis() + 2000;
+    while (loopThread() != null && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertNull(loopThread());
+  }
+
+  @Test
+  public void pausedPortResumesWhenAChunkIsReleased() throws Exception {
+    Pty pty = new Pty(1);
+    pty.hold = true;
+    pty.reader.start();
+    pty.send((byte) 1);
+    assertArrayEquals(new byte[] {1}, pty.receive(1));
+    // The only chunk is held, so the port is not polled.
+    pty.send((byte) 2);
+    assertNull(pty.received.poll(100, TimeUnit.MILLISECONDS));
+    pty.hold = false;
+    synchronized (pty.held) {
+      pty.held.remove(0).release();
+    }
+    assertArrayEquals(new byte[] {2}, pty.receive(1));
+  }
+
+  @Test
+  public void hungUpPortLeavesTheOthersRunning() throws Exception {
+    Pty hungUp = new Pty(4);
+    Pty open = new Pty(4);
+    hungUp.reader.start();
+    open.reader.start();
+    NativeIo.close(hungUp.master);
+    mPtys.remove(hungUp);
+    open.send((byte) 7);
+    assertArrayEquals(new byte[] {7}, open.receive(1));
+    hungUp.reader.close();
+  }
+
+  @Test
+  public void frameGapGathersABurstIntoOneRead() throws Exception {
+    Pty pty = new Pty(4, 50);
+    pty.reader.start();
+    pty.send((byte) 1, (byte) 2);
+    Thread.sleep(10);
+    pty.send((byte) 3);
+    assertArrayEquals(new byte[] {1, 2, 3}, pty.received.poll(2, TimeUnit.SECONDS));
+    pty.send((byte) 4);
+    assertArrayEquals(new byte[] {4}, pty.received.poll(2, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void frameGapPassesOnAFullChunkAtOnce() throws Exception {
+    Pty pty = new Pty(4, 10000);
+    pty.reader.start();
+    byte[] data = new byte[64];
+    Arrays.fill(data, (byte) 0x55);
+    pty.send(data);
+    assertArrayEquals(data, pty.received.poll(2, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void burstBytesEndAGatheredReadBeforeTheGap() throws Exception {
+    // As with VMIN 3 and VTIME 1: three bytes, or what came before 100 ms of quiet.
+    PortConfig config = new PortConfig();
+    config.vmin = 3;
+    config.vtime = 1;
+    Pty pty = new Pty(4, config.gapMs(), config.burstBytes());
+    pty.reader.start();
+    pty.send((byte) 1, (byte) 2, (byte) 3, (byte) 4, (byte) 5);
+    assertArrayEquals(new byte[] {1, 2, 3}, pty.received.poll(50, TimeUnit.MILLISECONDS));
+    assertNull(pty.received.poll(50, TimeUnit.MILLISECONDS));
+    assertArrayEquals(new byte[] {4, 5}, pty.received.poll(2, TimeUnit.SECONDS));
+  }
+
+  @Test(timeout = 5000)
+  public void closingAnIdleFrameGapPortReturns() throws Exception {
+    Pty pty = new Pty(4, 50);
+    pty.reader.start();
+    pty.send((byte) 1);
+    assertArrayEquals(new byte[] {1}, pty.received.poll(2, TimeUnit.SECONDS));
+    long start = System.nanoTime();
+    pty.reader.close();
+    mPtys.remove(pty);
+    NativeIo.close(pty.master);
+    assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+  }
+
+  @Test(timeout = 5000)
+  public void closingInTheMiddleOfABurstDropsIt() throws Exception {
+    Pty pty = new Pty(1, 10000);
+    pty.reader.start();
+    pty.send((byte) 1);
+    Thread.sleep(50);
+    pty.reader.close();
+    mPtys.remove(pty);
+    NativeIo.close(pty.master);
+    assertTrue(pty.received.isEmpty());
+    // The chunk gathering the burst went back to the pool.
+    assertTrue(pty.pool.hasFree());
+  }
+
+  @Test(timeout = 5000)
+  public void closeWaitsForAStuckReadThreadOnlySoLong() throws Exception {
+    final CountDownLatch unblock = new CountDownLatch(1);
+    final InputStream stuck = new InputStream() {
+      @Override
+      public int read() throws IOException {
+        // Ignores both the interrupt and the close, like a driver that never wakes.
+        while (true) {
+          try {
+            unblock.await();
+            return -1;
+          } catch (InterruptedException e) {
+            // Keep waiting.
+          }
+        }
+      }
+    };
+    Transport transport = new Transport() {
+      @Override
+      public InputStream inputStream() {
+        return stuck;
+      }
+
+      @Override
+      public OutputStream outputStream() {
+        return new ByteArrayOutputStream();
+      }
+
+      @Override
+      public int fd() {
+        return -1;
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+    PortReader reader = new PortReader("StuckReader", transport, 0, 0, new ReadBufferPool(64, 1),
+        mLoop, new PortReader.Sink() {
+          @Override
+          public void onChunk(ReadBufferPool.Chunk chunk) {
+            chunk.release();
+          }
+
+          @Override
+          public void onReadError(IOException error) {
+          }
+        });
+    reader.start();
+    long start = System.nanoTime();
+    reader.close();
+    long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    unblock.countDown();
+    assertTrue(elapsedMs < PortReader.CLOSE_TIMEOUT_MS + 500);
+  }
+
+  private static Thread loopThread() {
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.getName().equals("TestIo") && thread.isAlive()) {
+        return thread;
+      }
+    }
+    return null;
+  }
+}
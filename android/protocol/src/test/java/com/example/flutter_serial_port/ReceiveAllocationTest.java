@@ -0,0 +1,105 @@
+package com.example.flutter_serial_port;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Counts what the receive path allocates on the I/O loop thread while it
+ * reads board frames from a pseudo-terminal, decodes them and returns the
+ * read buffers to the pool.
+ */
+public class ReceiveAllocationTest {
+
+  /** A door status reply from a board. */
+  private static final byte[] FRAME = {0x00, (byte) 0xFF, 0x01, (byte) 0xFE, 0x00, (byte) 0xFF};
+  private static final int WARMUP_READS = 5000;
+  private static final int MEASURED_READS = 2000;
+
+  private final IoLoop mLoop = new IoLoop("AllocationIo");
+  private final PortStats mStats = new PortStats();
+  private int mMaster = -1;
+  private PortReader mReader;
+  private volatile int mFrames;
+  private volatile long mLoopThreadId = -1;
+
+  private final FrameDecoder mDecoder = new FrameDecoder(new FrameDecoder.Listener() {
+    @Override
+    public void onFrame(int type, byte[] frame, int length) {
+      mStats.framesIn.incrementAndGet();
+      mFrames++;
+    }
+  });
+
+  private final PortReader.Sink mSink = new PortReader.Sink() {
+    @Override
+    public void onChunk(ReadBufferPool.Chunk chunk) {
+      mLoopThreadId = Thread.currentThread().getId();
+      mStats.bytesIn.addAndGet(chunk.length);
+      mStats.readSize.record(chunk.length);
+      mDecoder.feed(chunk.data, 0, chunk.length);
+      chunk.release();
+    }
+
+    @Override
+    public void onReadError(IOException error) {
+    }
+  };
+
+  @Before
+  public void setUp() throws IOException {
+    int[] master = new int[1];
+    PtyTransport transport = new PtyTransport(new File(NativeIo.openPty(master)));
+    mMaster = master[0];
+    mReader = new PortReader("AllocationReader", transport, 0, 0,
+        new ReadBufferPool(ReadBufferPool.DEFAULT_BUFFER_SIZE, ReadBufferPool.DEFAULT_BUFFER_COUNT),
+        mLoop, mSink);
+    mReader.start();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    mReader.close();
+    NativeIo.close(mMaster);
+  }
+
+  @Test(timeout = 60000)
+  public void steadyStateReadsDoNotAllocate() throws Exception {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+    assumeTrue(allocations.isThreadAllocatedMemorySupported());
+    allocations.setThreadAllocatedMemoryEnabled(true);
+
+    // Warms up the loop, reader and decoder until they are compiled.
+    receive(WARMUP_READS);
+    long before = allocations.getThreadAllocatedBytes(mLoopThreadId);
+    receive(MEASURED_READS);
+    long allocated = allocations.getThreadAllocatedBytes(mLoopThreadId) - before;
+
+    assertEquals(WARMUP_READS + MEASURED_READS, mFrames);
+    // Well below a single object per read.
+    assertTrue("allocated " + allocated + " bytes in " + MEASURED_READS + " reads",
+        allocated < MEASURED_READS);
+  }
+
+  /** Sends one frame at a time and waits until it is decoded, so each is one read. */
+  private void receive(int frames) throws IOException, InterruptedException {
+    for (int i = 0; i < frames; i++) {
+      int expected = mFrames + 1;
+      assertEquals(FRAME.length, NativeIo.write(mMaster, FRAME, 0, FRAME.length));
+      while (mFrames < expected) {
+        Thread.yield();
+      }
+    }
+  }
+}
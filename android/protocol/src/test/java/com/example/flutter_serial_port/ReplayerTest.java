@@ -0,0 +1,129 @@
+package com.example.flutter_serial_port;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReplayerTest {
+
+  @Rule
+  public final TemporaryFolder mFolder = new TemporaryFolder();
+
+  @Test
+  public void countsOnlyInboundRecords() throws Exception {
+    CaptureWriter capture = new CaptureWriter(mFolder.newFolder("capture"), "test",
+        CaptureWriter.DEFAULT_SEGMENT_BYTES, CaptureWriter.DEFAULT_MAX_SEGMENTS);
+    byte[] command = {0x00, (byte) 0xFF, (byte) 0xDF, 0x20, 0x55, (byte) 0xAA};
+    byte[] reply = {0x00, (byte) 0xFF, (byte) 0xDF, 0x20, 0x01, (byte) 0xFE};
+    long now = System.nanoTime();
+    capture.record(CaptureWriter.OUT, now, command, 0, command.length);
+    capture.record(CaptureWriter.IN, now + 1000, reply, 0, 3);
+    capture.record(CaptureWriter.IN, now + 2000, reply, 3, 3);
+    capture.record(CaptureWriter.OUT, now + 3000, command, 0, command.length);
+    List<File> segments = capture.close();
+
+    final ByteArrayOutputStream received = new ByteArrayOutputStream();
+    final AtomicLong records = new AtomicLong(-1);
+    final AtomicReference<IOException> error = new AtomicReference<IOException>();
+    final CountDownLatch finished = new CountDownLatch(1);
+    new Replayer("TestReplay", segments, 0, new Replayer.Receiver() {
+      @Override
+      public void onReplayed(byte[] data, int length) {
+        received.write(data, 0, length);
+      }
+
+      @Override
+      public void onReplayFinished(long count, IOException e) {
+        records.set(count);
+        error.set(e);
+        finished.countDown();
+      }
+    }).start();
+    assertTrue(finished.await(2, TimeUnit.SECONDS));
+    assertNull(error.get());
+    assertEquals(2, records.get());
+    assertArrayEquals(reply, received.toByteArray());
+  }
+
+  @Test
+  public void replayedReplyDoesNotCompleteAPendingRequest() throws Exception {
+    CaptureWriter capture = new CaptureWriter(mFolder.newFolder("capture"), "test",
+        CaptureWriter.DEFAULT_SEGMENT_BYTES, CaptureWriter.DEFAULT_MAX_SEGMENTS);
+    byte[] doorOpen = {0x00, (byte) 0xFF, (byte) 0xDF, 0x20, 0x01, (byte) 0xFE};
+    capture.record(CaptureWriter.IN, System.nanoTime(), doorOpen, 0, doorOpen.length);
+    List<File> segments = capture.close();
+
+    PortStats stats = new PortStats();
+    ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1);
+    CommandWriter writer = new CommandWriter("TestWriter", new ByteArrayOutputStream(), 8, 0, 0,
+        stats);
+    CommandEngine engine = new CommandEngine(writer, timer, 4, stats);
+    writer.start();
+    final BlockingQueue<Object> outcome = new LinkedBlockingQueue<Object>();
+    engine.request(CommandTable.get(CommandTable.STATUS_DOOR), new int[0], 5000, 0,
+        new CommandEngine.Callback() {
+          @Override
+          public void onResponse(byte[] frame) {
+            outcome.add(frame);
+          }
+
+          @Override
+          public void onError(String code, String message) {
+            outcome.add(code);
+          }
+        });
+
+    final BlockingQueue<byte[]> frames = new LinkedBlockingQueue<byte[]>();
+    final CountDownLatch finished = new CountDownLatch(1);
+    ReplayFeed feed = new ReplayFeed(new ReadBufferPool(64, 4), new FrameDecoder.Listener() {
+      @Override
+      public void onFrame(int type, byte[] frame, int length) {
+        frames.add(Arrays.copyOf(frame, length));
+      }
+    }) {
+      @Override
+      void onChunk(ReadBufferPool.Chunk chunk) {
+        chunk.release();
+      }
+
+      @Override
+      public void onReplayFinished(long records, IOException error) {
+        finished.countDown();
+      }
+    };
+    try {
+      new Replayer("TestReplay", segments, 0, feed).start();
+      assertTrue(finished.await(2, TimeUnit.SECONDS));
+      assertArrayEquals(doorOpen, frames.poll(2, TimeUnit.SECONDS));
+      assertNull("replayed reply completed the request", outcome.poll(200, TimeUnit.MILLISECONDS));
+      assertEquals(1, engine.pendingCount());
+      assertEquals(0, stats.framesIn.get());
+
+      // The live reply still completes it.
+      engine.onFrame(FrameDecoder.TYPE_BOARD, doorOpen, doorOpen.length);
+      assertArrayEquals(doorOpen, (byte[]) outcome.poll(2, TimeUnit.SECONDS));
+    } finally {
+      engine.close();
+      writer.close();
+      timer.shutdownNow();
+    }
+  }
+}
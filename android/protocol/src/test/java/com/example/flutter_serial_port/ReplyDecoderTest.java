@@ -0,0 +1,58 @@
+package com.example.flutter_serial_port;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ReplyDecoderTest {
+
+  private int mType;
+  private int mLength;
+
+  private final FrameDecoder mDecoder = new FrameDecoder(new FrameDecoder.Listener() {
+    @Override
+    public void onFrame(int type, byte[] frame, int length) {
+      mType = type;
+      mLength = length;
+    }
+  });
+
+  @Test
+  public void wholeElevatorReplyIsRead() {
+    decode(new byte[] {FrameDecoder.STX, 0x03, ReplyDecoder.CMD_STATUS_ELEVATOR,
+        ReplyDecoder.ELEVATOR_IDLE, ReplyDecoder.NO_FAULT, FrameDecoder.ETX});
+    assertEquals(ReplyDecoder.ELEVATOR_REPLY_LENGTH, mLength);
+    assertTrue(ReplyDecoder.isElevator(mType, mLength));
+  }
+
+  @Test
+  public void truncatedElevatorReplyIsNotRead() {
+    // A valid frame with one payload byte: data1 would be its BCC.
+    decode(new byte[] {FrameDecoder.STX, 0x01, ReplyDecoder.CMD_STATUS_ELEVATOR, FrameDecoder.ETX});
+    assertEquals(FrameDecoder.TYPE_ELEVATOR, mType);
+    assertEquals(5, mLength);
+    assertFalse(ReplyDecoder.isElevator(mType, mLength));
+
+    decode(new byte[] {FrameDecoder.STX, 0x02, ReplyDecoder.CMD_SHIPMENT,
+        ReplyDecoder.SHIPMENT_ACCEPTED, FrameDecoder.ETX});
+    assertEquals(6, mLength);
+    assertFalse(ReplyDecoder.isElevator(mType, mLength));
+  }
+
+  @Test
+  public void boardReplyIsNotAnElevatorReply() {
+    assertFalse(ReplyDecoder.isElevator(FrameDecoder.TYPE_BOARD, ReplyDecoder.ELEVATOR_REPLY_LENGTH));
+  }
+
+  /** Feeds {@code frame} followed by its BCC. */
+  private void decode(byte[] frame) {
+    mType = -1;
+    mLength = 0;
+    byte[] data = new byte[frame.length + 1];
+    System.arraycopy(frame, 0, data, 0, frame.length);
+    data[frame.length] = FrameDecoder.bcc(frame, 0, frame.length);
+    mDecoder.feed(data, 0, data.length);
+  }
+}
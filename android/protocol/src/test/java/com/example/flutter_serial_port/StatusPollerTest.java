@@ -0,0 +1,130 @@
+package com.example.flutter_serial_port;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StatusPollerTest {
+
+  private static final byte[] DOOR_OPEN = {0x00, (byte) 0xFF, (byte) 0xDF, 0x20, 0x01, (byte) 0xFE};
+  private static final byte[] MINUS_THREE = {0x00, (byte) 0xFF, (byte) 0xDC, 0x23, (byte) 0xFD, 0x02};
+  private static final int[] NO_ARGS = new int[0];
+
+  /** Records every write. */
+  private static class Line extends OutputStream {
+    final BlockingQueue<byte[]> writes = new LinkedBlockingQueue<byte[]>();
+
+    @Override
+    public void write(int b) {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) {
+      writes.add(Arrays.copyOfRange(data, offset, offset + length));
+    }
+  }
+
+  private final Line mLine = new Line();
+  private final PortStats mStats = new PortStats();
+  private final BlockingQueue<Map<String, Object>> mEvents =
+      new LinkedBlockingQueue<Map<String, Object>>();
+  private ScheduledThreadPoolExecutor mTimer;
+  private CommandWriter mWriter;
+  private CommandEngine mEngine;
+  private StatusPoller mPoller;
+
+  @Before
+  public void setUp() {
+    mTimer = new ScheduledThreadPoolExecutor(1);
+    mWriter = new CommandWriter("TestWriter", mLine, 8, 0, 0, mStats);
+    mEngine = new CommandEngine(mWriter, mTimer, 4, mStats);
+    mPoller = new StatusPoller(mEngine, mTimer, new StatusPoller.Traffic() {
+      @Override
+      public boolean isBusy() {
+        return mEngine.pendingCount() > 0 || mWriter.depth() > 0;
+      }
+    }, new StatusPoller.Listener() {
+      @Override
+      public void onStatusChanged(Map<String, Object> event) {
+        mEvents.add(event);
+      }
+    });
+    CommandWriter.IdleListener idle = new CommandWriter.IdleListener() {
+      @Override
+      public void onIdle() {
+        mPoller.onIdle();
+      }
+    };
+    mWriter.setIdleListener(idle);
+    mEngine.setIdleListener(idle);
+    mWriter.start();
+  }
+
+  @After
+  public void tearDown() {
+    mPoller.stop();
+    mEngine.close();
+    mWriter.close();
+    mTimer.shutdownNow();
+  }
+
+  @Test
+  public void pollWaitsForTheBoardRequestInFlight() throws Exception {
+    final BlockingQueue<byte[]> door = new LinkedBlockingQueue<byte[]>();
+    mEngine.request(CommandTable.get(CommandTable.STATUS_DOOR), NO_ARGS, 1000, 0,
+        new CommandEngine.Callback() {
+          @Override
+          public void onResponse(byte[] frame) {
+            door.add(frame);
+          }
+
+          @Override
+          public void onError(String code, String message) {
+          }
+        });
+    assertEquals((byte) 0xDF, nextWrite()[2]);
+
+    mPoller.add(CommandTable.get(CommandTable.GET_TEMP), StatusPoller.MIN_INTERVAL_MS);
+    mPoller.start();
+    assertNull("polled during a board request", mLine.writes.poll(200, TimeUnit.MILLISECONDS));
+
+    mEngine.onFrame(FrameDecoder.TYPE_BOARD, DOOR_OPEN, DOOR_OPEN.length);
+    assertArrayEquals(DOOR_OPEN, door.poll(2, TimeUnit.SECONDS));
+    assertEquals("polled once idle", (byte) 0xDC, nextWrite()[2]);
+    mEngine.onFrame(FrameDecoder.TYPE_BOARD, MINUS_THREE, MINUS_THREE.length);
+    Map<String, Object> event = mEvents.poll(2, TimeUnit.SECONDS);
+    assertNotNull(event);
+    assertEquals(-3, event.get("temperature"));
+  }
+
+  @Test
+  public void doorStateIsDecoded() throws Exception {
+    mPoller.add(CommandTable.get(CommandTable.STATUS_DOOR), StatusPoller.MIN_INTERVAL_MS);
+    mPoller.start();
+    assertEquals((byte) 0xDF, nextWrite()[2]);
+    mEngine.onFrame(FrameDecoder.TYPE_BOARD, DOOR_OPEN, DOOR_OPEN.length);
+    Map<String, Object> event = mEvents.poll(2, TimeUnit.SECONDS);
+    assertNotNull(event);
+    assertEquals(Boolean.TRUE, event.get("doorOpen"));
+  }
+
+  private byte[] nextWrite() throws InterruptedException {
+    byte[] write = mLine.writes.poll(2, TimeUnit.SECONDS);
+    assertNotNull("nothing written", write);
+    return write;
+  }
+}
@@ -0,0 +1,91 @@
+package com.example.flutter_serial_port;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class VendJournalTest {
+
+  private static final byte[] SHIPMENT = {0x02, 0x03, 0x02, 0x03, 0x00, 0x03, 0x03};
+
+  @Rule
+  public final TemporaryFolder mFolder = new TemporaryFolder();
+
+  private File mDirectory;
+  private VendJournal mJournal;
+
+  @Before
+  public void setUp() throws Exception {
+    mDirectory = mFolder.newFolder("journal");
+    mJournal = new VendJournal(mDirectory, VendJournal.DEFAULT_SEGMENT_BYTES, 100);
+  }
+
+  @After
+  public void tearDown() {
+    mJournal.close();
+  }
+
+  @Test
+  public void shipmentIsDeliveredOnlyAfterBusy() {
+    VendJournal.Tracker tracker = mJournal.tracker("/dev/ttyS1");
+    long txn = tracker.begin(CommandTable.SHIPMENT, SHIPMENT, 0, SHIPMENT.length);
+    tracker.onWritten(txn);
+    reply(tracker, ReplyDecoder.CMD_SHIPMENT, ReplyDecoder.SHIPMENT_ACCEPTED, 0);
+    reply(tracker, ReplyDecoder.CMD_STATUS_ELEVATOR, ReplyDecoder.ELEVATOR_IDLE, 0);
+    List<Map<String, Object>> inDoubt = mJournal.inDoubt();
+    assertEquals(1, inDoubt.size());
+    assertEquals("accepted", inDoubt.get(0).get("state"));
+
+    reply(tracker, ReplyDecoder.CMD_STATUS_ELEVATOR, ReplyDecoder.ELEVATOR_BUSY, 0);
+    reply(tracker, ReplyDecoder.CMD_STATUS_ELEVATOR, ReplyDecoder.ELEVATOR_IDLE, 0);
+    assertEquals(0, mJournal.inDoubt().size());
+  }
+
+  @Test
+  public void faultEndsAShipmentThatNeverMoved() {
+    VendJournal.Tracker tracker = mJournal.tracker("/dev/ttyS1");
+    long txn = tracker.begin(CommandTable.SHIPMENT, SHIPMENT, 0, SHIPMENT.length);
+    tracker.onWritten(txn);
+    reply(tracker, ReplyDecoder.CMD_SHIPMENT, ReplyDecoder.SHIPMENT_ACCEPTED, 0);
+    reply(tracker, ReplyDecoder.CMD_STATUS_ELEVATOR, ReplyDecoder.ELEVATOR_IDLE, 7);
+    assertEquals(0, mJournal.inDoubt().size());
+  }
+
+  @Test
+  public void moreOpenShipmentsThanFitInOneSegment() throws Exception {
+    mJournal.close();
+    // Room for about five open shipments per segment.
+    mJournal = new VendJournal(mDirectory, 8192, 100);
+    VendJournal.Tracker tracker = mJournal.tracker("/dev/ttyS1");
+    for (int i = 0; i < 50; i++) {
+      tracker.onWritten(tracker.begin(CommandTable.SHIPMENT, SHIPMENT, 0, SHIPMENT.length));
+    }
+    assertNull(mJournal.failure());
+    assertEquals(50, mJournal.inDoubt().size());
+    mJournal.close();
+
+    mJournal = new VendJournal(mDirectory, 8192, 100);
+    List<Map<String, Object>> inDoubt = mJournal.inDoubt();
+    assertEquals(50, inDoubt.size());
+    assertEquals(Boolean.TRUE, inDoubt.get(49).get("recovered"));
+    tracker = mJournal.tracker("/dev/ttyS1");
+    assertTrue(tracker.begin(CommandTable.SHIPMENT, SHIPMENT, 0, SHIPMENT.length) != 0);
+    assertNull(mJournal.failure());
+  }
+
+  private static void reply(VendJournal.Tracker tracker, int cmd, int data0, int data1) {
+    byte[] frame = {0x02, 0x03, (byte) cmd, (byte) data0, (byte) data1, 0x03, 0x00};
+    frame[6] = FrameDecoder.bcc(frame, 0, 6);
+    tracker.onFrame(FrameDecoder.TYPE_ELEVATOR, frame, frame.length);
+  }
+}
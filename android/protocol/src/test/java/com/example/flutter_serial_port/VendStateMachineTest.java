@@ -0,0 +1,115 @@
+package com.example.flutter_serial_port;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.OutputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class VendStateMachineTest {
+
+  /** Answers every elevator command; status polls get the scripted states in turn. */
+  private class Elevator extends OutputStream {
+    final ConcurrentLinkedQueue<int[]> statuses = new ConcurrentLinkedQueue<int[]>();
+    final AtomicInteger polls = new AtomicInteger();
+
+    @Override
+    public void write(int b) {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) {
+      int cmd = data[offset + ReplyDecoder.ELEVATOR_CMD] & 0xFF;
+      int data0 = ReplyDecoder.SHIPMENT_ACCEPTED;
+      int data1 = ReplyDecoder.NO_FAULT;
+      if (cmd == ReplyDecoder.CMD_STATUS_ELEVATOR) {
+        polls.incrementAndGet();
+        int[] status = statuses.poll();
+        data0 = status != null ? status[0] : ReplyDecoder.ELEVATOR_IDLE;
+        data1 = status != null ? status[1] : ReplyDecoder.NO_FAULT;
+      }
+      final byte[] frame = {0x02, 0x03, (byte) cmd, (byte) data0, (byte) data1, 0x03, 0x00};
+      frame[6] = FrameDecoder.bcc(frame, 0, 6);
+      mTimer.execute(new Runnable() {
+        @Override
+        public void run() {
+          mEngine.onFrame(FrameDecoder.TYPE_ELEVATOR, frame, frame.length);
+        }
+      });
+    }
+  }
+
+  private final Elevator mElevator = new Elevator();
+  private final PortStats mStats = new PortStats();
+  private final BlockingQueue<String> mOutcome = new LinkedBlockingQueue<String>();
+  private final AtomicInteger mFault = new AtomicInteger();
+  private ScheduledThreadPoolExecutor mTimer;
+  private CommandWriter mWriter;
+  private CommandEngine mEngine;
+
+  private final VendStateMachine.Listener mListener = new VendStateMachine.Listener() {
+    @Override
+    public void onVendStep(VendStateMachine vend, String state, byte[] frame) {
+    }
+
+    @Override
+    public void onVendFinished(VendStateMachine vend, String outcome, int fault, String code,
+        String message) {
+      mFault.set(fault);
+      mOutcome.add(outcome);
+    }
+  };
+
+  @Before
+  public void setUp() {
+    mTimer = new ScheduledThreadPoolExecutor(1);
+    mWriter = new CommandWriter("TestWriter", mElevator, 8, 0, 0, mStats);
+    mEngine = new CommandEngine(mWriter, mTimer, 4, mStats);
+    mWriter.start();
+  }
+
+  @After
+  public void tearDown() {
+    mEngine.close();
+    mWriter.close();
+    mTimer.shutdownNow();
+  }
+
+  @Test
+  public void idleBeforeBusyIsNotDelivered() throws Exception {
+    mElevator.statuses.add(status(ReplyDecoder.ELEVATOR_IDLE, ReplyDecoder.NO_FAULT));
+    mElevator.statuses.add(status(ReplyDecoder.ELEVATOR_IDLE, ReplyDecoder.NO_FAULT));
+    mElevator.statuses.add(status(ReplyDecoder.ELEVATOR_BUSY, ReplyDecoder.NO_FAULT));
+    mElevator.statuses.add(status(ReplyDecoder.ELEVATOR_IDLE, ReplyDecoder.NO_FAULT));
+    vend();
+    assertEquals(VendStateMachine.DELIVERED, mOutcome.poll(2, TimeUnit.SECONDS));
+    assertEquals(4, mElevator.polls.get());
+  }
+
+  @Test
+  public void faultIsClearedAndReported() throws Exception {
+    mElevator.statuses.add(status(ReplyDecoder.ELEVATOR_BUSY, ReplyDecoder.NO_FAULT));
+    mElevator.statuses.add(status(ReplyDecoder.ELEVATOR_IDLE, 7));
+    vend();
+    assertEquals(VendStateMachine.FAULT, mOutcome.poll(2, TimeUnit.SECONDS));
+    assertEquals(7, mFault.get());
+  }
+
+  private void vend() {
+    new VendStateMachine(1, 3, VendStateMachine.MIN_POLL_INTERVAL_MS, 2000, 0, false, mEngine,
+        mTimer, mListener).start();
+  }
+
+  private static int[] status(int state, int fault) {
+    return new int[] {state, fault};
+  }
+}
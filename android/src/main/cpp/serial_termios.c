@@ -0,0 +1,100 @@
+/*
+ * Native half of Termios.java: applies line settings to an open terminal.
+ */
+
+#include <errno.h>
+#include <jni.h>
+#include <stdio.h>
+#include <string.h>
+#include <termios.h>
+
+#define PARITY_NONE 0
+#define PARITY_ODD 1
+#define PARITY_EVEN 2
+
+#define FLOW_NONE 0
+#define FLOW_RTS_CTS 1
+#define FLOW_XON_XOFF 2
+
+static void throw_io_exception(JNIEnv *env, const char *what, int error) {
+    char message[128];
+    jclass exception = (*env)->FindClass(env, "java/io/IOException");
+    if (exception == NULL) {
+        return;
+    }
+    snprintf(message, sizeof(message), "%s: %s", what, strerror(error));
+    (*env)->ThrowNew(env, exception, message);
+}
+
+static int get_fd(JNIEnv *env, jobject file_descriptor) {
+    jclass cls = (*env)->GetObjectClass(env, file_descriptor);
+    jfieldID descriptor = (*env)->GetFieldID(env, cls, "descriptor", "I");
+    if (descriptor == NULL) {
+        return -1;
+    }
+    return (*env)->GetIntField(env, file_descriptor, descriptor);
+}
+
+JNIEXPORT void JNICALL
+Java_com_example_flutter_1serial_1port_Termios_configure(JNIEnv *env, jclass clazz,
+        jobject file_descriptor, jint data_bits, jint parity, jint stop_bits, jint flow_control,
+        jint vmin, jint vtime) {
+    struct termios cfg;
+    int fd = get_fd(env, file_descriptor);
+    if (fd < 0) {
+        throw_io_exception(env, "descriptor", EBADF);
+        return;
+    }
+    if (tcgetattr(fd, &cfg) != 0) {
+        throw_io_exception(env, "tcgetattr", errno);
+        return;
+    }
+
+    if (data_bits >= 0) {
+        cfg.c_cflag &= ~CSIZE;
+        switch (data_bits) {
+        case 5: cfg.c_cflag |= CS5; break;
+        case 6: cfg.c_cflag |= CS6; break;
+        case 7: cfg.c_cflag |= CS7; break;
+        default: cfg.c_cflag |= CS8; break;
+        }
+    }
+    if (parity >= 0) {
+        cfg.c_cflag &= ~(PARENB | PARODD);
+        cfg.c_iflag &= ~INPCK;
+        if (parity == PARITY_ODD) {
+            cfg.c_cflag |= PARENB | PARODD;
+            cfg.c_iflag |= INPCK;
+        } else if (parity == PARITY_EVEN) {
+            cfg.c_cflag |= PARENB;
+            cfg.c_iflag |= INPCK;
+        }
+    }
+    if (stop_bits >= 0) {
+        if (stop_bits == 2) {
+            cfg.c_cflag |= CSTOPB;
+        } else {
+            cfg.c_cflag &= ~CSTOPB;
+        }
+    }
+    if (flow_control >= 0) {
+        cfg.c_cflag &= ~CRTSCTS;
+        cfg.c_iflag &= ~(IXON | IXOFF | IXANY);
+        if (flow_control == FLOW_RTS_CTS) {
+            cfg.c_cflag |= CRTSCTS;
+        } else if (flow_control == FLOW_XON_XOFF) {
+            cfg.c_iflag |= IXON | IXOFF;
+        }
+    }
+    if (vmin >= 0) {
+        cfg.c_cc[VMIN] = (cc_t) vmin;
+    }
+    if (vtime >= 0) {
+        cfg.c_cc[VTIME] = (cc_t) vtime;
+    }
+    cfg.c_cflag |= CLOCAL | CREAD;
+
+    if (tcsetattr(fd, TCSANOW, &cfg) != 0) {
+        throw_io_exception(env, "tcsetattr", errno);
+    }
+}
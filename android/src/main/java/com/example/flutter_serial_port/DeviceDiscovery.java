@@ -0,0 +1,206 @@
+package com.example.flutter_serial_port;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.LineNumberReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.os.FileObserver;
+import android.util.Log;
+
+import io.flutter.plugin.common.EventChannel;
+
+/**
+ * Serial devices, and the stream handler of the {@code serial_port/devices}
+ * event channel.
+ *
+ * While the channel has a listener, {@code /dev} is watched: the serial
+ * drivers in {@code /proc/tty/drivers} and the matching nodes in {@code /dev}
+ * are scanned once, then nodes created or deleted in {@code /dev} update that
+ * cache directly and are reported to the listener, so listing devices does not
+ * touch the filesystem again. Without a listener, each listing scans. Names
+ * are formatted like {@code SerialPortFinder}'s.
+ */
+class DeviceDiscovery implements EventChannel.StreamHandler {
+
+  private static final String TAG = "FlutterSerialPortPlugin";
+  private static final String DEV = "/dev";
+  private static final int MASK = FileObserver.CREATE | FileObserver.DELETE
+      | FileObserver.MOVED_FROM | FileObserver.MOVED_TO;
+
+  /** A serial driver from {@code /proc/tty/drivers} and the node prefix it owns. */
+  private static class Driver {
+    final String name;
+    final String deviceRoot;
+
+    Driver(String name, String deviceRoot) {
+      this.name = name;
+      this.deviceRoot = deviceRoot;
+    }
+  }
+
+  private final EventStream mEvents;
+  private final FileObserver mObserver;
+  private List<Driver> mDrivers;
+  /** Device path to name, in scan order. Null while {@code /dev} is not watched. */
+  private LinkedHashMap<String, String> mDevices;
+
+  DeviceDiscovery(EventStream events) {
+    mEvents = events;
+    mObserver = new FileObserver(DEV, MASK) {
+      @Override
+      public void onEvent(int event, String path) {
+        if (path == null) {
+          return;
+        }
+        if ((event & (FileObserver.CREATE | FileObserver.MOVED_TO)) != 0) {
+          onAdded(DEV + "/" + path);
+        } else if ((event & (FileObserver.DELETE | FileObserver.MOVED_FROM)) != 0) {
+          onRemoved(DEV + "/" + path);
+        }
+      }
+    };
+  }
+
+  /** Devices as {@code {name, path}} maps, from the cache while {@code /dev} is watched. */
+  synchronized List<Map<String, String>> devices() {
+    LinkedHashMap<String, String> found = mDevices != null ? mDevices : scan();
+    List<Map<String, String>> devices = new ArrayList<Map<String, String>>(found.size());
+    for (Map.Entry<String, String> entry : found.entrySet()) {
+      devices.add(device(entry.getValue(), entry.getKey()));
+    }
+    return devices;
+  }
+
+  @Override
+  public void onListen(Object o, EventChannel.EventSink eventSink) {
+    mEvents.onListen(o, eventSink);
+    synchronized (this) {
+      if (mDevices == null) {
+        // Watch before scanning so nodes created during the scan are not missed.
+        mObserver.startWatching();
+        mDevices = scan();
+      }
+    }
+  }
+
+  @Override
+  public void onCancel(Object o) {
+    mEvents.onCancel(o);
+    close();
+  }
+
+  synchronized void close() {
+    if (mDevices != null) {
+      mObserver.stopWatching();
+      mDevices = null;
+    }
+  }
+
+  private LinkedHashMap<String, String> scan() {
+    mDrivers = readDrivers();
+    LinkedHashMap<String, String> devices = new LinkedHashMap<String, String>();
+    File[] files = new File(DEV).listFiles();
+    if (files == null) {
+      return devices;
+    }
+    for (Driver driver : mDrivers) {
+      for (File file : files) {
+        String path = file.getAbsolutePath();
+        if (path.startsWith(driver.deviceRoot)) {
+          devices.put(path, name(file.getName(), driver));
+        }
+      }
+    }
+    return devices;
+  }
+
+  private void onAdded(String path) {
+    Map<String, String> added;
+    synchronized (this) {
+      if (mDevices == null || mDevices.containsKey(path)) {
+        return;
+      }
+      Driver driver = driverFor(path);
+      if (driver == null) {
+        // A driver loaded after the scan, e.g. a USB serial module, shows up here first.
+        mDrivers = readDrivers();
+        driver = driverFor(path);
+      }
+      if (driver == null) {
+        return;
+      }
+      String name = name(new File(path).getName(), driver);
+      mDevices.put(path, name);
+      added = device(name, path);
+    }
+    added.put("event", "added");
+    mEvents.send(added);
+  }
+
+  private void onRemoved(String path) {
+    Map<String, String> removed;
+    synchronized (this) {
+      String name = mDevices != null ? mDevices.remove(path) : null;
+      if (name == null) {
+        return;
+      }
+      removed = device(name, path);
+    }
+    removed.put("event", "removed");
+    mEvents.send(removed);
+  }
+
+  private Driver driverFor(String path) {
+    for (Driver driver : mDrivers) {
+      if (path.startsWith(driver.deviceRoot)) {
+        return driver;
+      }
+    }
+    return null;
+  }
+
+  private static String name(String fileName, Driver driver) {
+    return String.format("%s (%s)", fileName, driver.name);
+  }
+
+  private static Map<String, String> device(String name, String path) {
+    Map<String, String> device = new HashMap<String, String>(4);
+    device.put("name", name);
+    device.put("path", path);
+    return device;
+  }
+
+  private static List<Driver> readDrivers() {
+    List<Driver> drivers = new ArrayList<Driver>();
+    LineNumberReader reader = null;
+    try {
+      reader = new LineNumberReader(new FileReader("/proc/tty/drivers"));
+      String line;
+      while ((line = reader.readLine()) != null) {
+        // The driver name may contain spaces; it fills the first 0x15 columns.
+        String name = line.substring(0, Math.min(line.length(), 0x15)).trim();
+        String[] words = line.split(" +");
+        if (words.length >= 5 && words[words.length - 1].equals("serial")) {
+          drivers.add(new Driver(name, words[words.length - 4]));
+        }
+      }
+    } catch (IOException e) {
+      Log.e(TAG, e.toString());
+    } finally {
+      if (reader != null) {
+        try {
+          reader.close();
+        } catch (IOException e) {
+          Log.e(TAG, e.toString());
+        }
+      }
+    }
+    return drivers;
+  }
+}
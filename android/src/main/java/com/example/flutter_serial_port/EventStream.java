@@ -0,0 +1,67 @@
+package com.example.flutter_serial_port;
+
+import android.os.Handler;
+
+import io.flutter.plugin.common.EventChannel;
+
+/**
+ * Stream handler for an event channel that can be fed from any thread.
+ * Events passed to {@link #send} are forwarded to the sink on the main looper,
+ * and the time they wait there is recorded if a histogram is given.
+ */
+class EventStream implements EventChannel.StreamHandler {
+
+  private final Handler mHandler;
+  private final Histogram mPostDelay;
+  private volatile EventChannel.EventSink mEventSink;
+
+  EventStream(Handler handler) {
+    this(handler, null);
+  }
+
+  EventStream(Handler handler, Histogram postDelay) {
+    mHandler = handler;
+    mPostDelay = postDelay;
+  }
+
+  boolean isListening() {
+    return mEventSink != null;
+  }
+
+  void send(final Object event) {
+    if (mEventSink == null) {
+      return;
+    }
+    final long postedAt = System.nanoTime();
+    mHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        if (mPostDelay != null) {
+          mPostDelay.recordSince(postedAt);
+        }
+        EventChannel.EventSink eventSink = mEventSink;
+        if (eventSink != null) {
+          eventSink.success(event);
+        }
+      }
+    });
+  }
+
+  /** Forwards an event right away. Must be called on the main looper. */
+  void deliver(Object event) {
+    EventChannel.EventSink eventSink = mEventSink;
+    if (eventSink != null) {
+      eventSink.success(event);
+    }
+  }
+
+  @Override
+  public void onListen(Object o, EventChannel.EventSink eventSink) {
+    mEventSink = eventSink;
+  }
+
+  @Override
+  public void onCancel(Object o) {
+    mEventSink = null;
+  }
+}
@@ -1,121 +1,517 @@
 package com.example.flutter_serial_port;
 
-import java.lang.Thread;
-import java.lang.Runnable;
 import java.io.File;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.IOException;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+import android.content.Context;
 import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
 
-import android.serialport.SerialPort;
-import android.serialport.SerialPortFinder;
-import android.widget.Switch;
-
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import io.flutter.embedding.engine.plugins.FlutterPlugin;
+import io.flutter.plugin.common.BinaryMessenger;
+import io.flutter.plugin.common.EventChannel;
 import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
 import io.flutter.plugin.common.MethodChannel.MethodCallHandler;
 import io.flutter.plugin.common.MethodChannel.Result;
-import io.flutter.plugin.common.EventChannel;
 import io.flutter.plugin.common.PluginRegistry.Registrar;
-
-/** FlutterSerialPortPlugin */
-public class FlutterSerialPortPlugin implements MethodCallHandler, EventChannel.StreamHandler {
+import io.flutter.plugin.common.StandardMethodCodec;
+
+/**
+ * FlutterSerialPortPlugin
+ *
+ * Method calls and the port channels are handled on a background task queue
+ * when the engine provides one, so opening, parsing and queueing never run on
+ * the main thread. Events and replies are still delivered on the main looper.
+ * Every port is closed when the plugin is detached from its engine.
+ * Dispensing commands of every port are journaled in the app's files
+ * directory, so vends a crash left in doubt can be queried after a restart.
+ * The journal is recovered on a thread of its own; calls that need it wait,
+ * but never on the main thread.
+ */
+public class FlutterSerialPortPlugin implements FlutterPlugin, MethodCallHandler {
 
   private static final String TAG = "FlutterSerialPortPlugin";
-  private SerialPortFinder mSerialPortFinder = new SerialPortFinder();
-  protected SerialPort mSerialPort;
-  protected OutputStream mOutputStream;
-  private InputStream mInputStream;
-  private ReadThread mReadThread;
-  private EventChannel.EventSink mEventSink;
-  private Handler mHandler = new Handler(Looper.getMainLooper());;
+  private static final boolean DEBUG = BuildConfig.DEBUG;
+  private static final int[] NO_ARGS = new int[0];
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+  private final IoLoop mIoLoop = new IoLoop("SerialPortIo");
+  private final Map<Integer, PortSession> mPorts = new ConcurrentHashMap<Integer, PortSession>();
+  private BinaryMessenger mMessenger;
+  /** Runs method calls and port channel messages; null runs them on the main thread. */
+  private BinaryMessenger.TaskQueue mTaskQueue;
+  private MethodChannel mChannel;
+  private EventChannel mDevicesChannel;
+  private DeviceDiscovery mDiscovery;
+  /** Opens and recovers the journal; fails with the reason it could not be opened. */
+  private FutureTask<VendJournal> mJournal;
+  /** Runs the calls that wait for the journal when there is no task queue; null otherwise. */
+  private ExecutorService mJournalCalls;
+  private int mNextHandle = 1;
+
+  /** Plugin registration for apps still on the v1 embedding, without a task queue. */
+  public static void registerWith(Registrar registrar) {
+    new FlutterSerialPortPlugin().attach(registrar.messenger(), null, registrar.context());
+  }
+
+  @Override
+  public void onAttachedToEngine(FlutterPluginBinding binding) {
+    BinaryMessenger messenger = binding.getBinaryMessenger();
+    attach(messenger, messenger.makeBackgroundTaskQueue(), binding.getApplicationContext());
+  }
 
-  private class ReadThread extends Thread {
-    @Override
-    public void run() {
-      super.run();
-      while (!isInterrupted()) {
-        int size;
+  @Override
+  public void onDetachedFromEngine(FlutterPluginBinding binding) {
+    mChannel.setMethodCallHandler(null);
+    mDevicesChannel.setStreamHandler(null);
+    for (Integer handle : new ArrayList<Integer>(mPorts.keySet())) {
+      closeDevice(handle);
+    }
+    mDiscovery.close();
+    if (mJournalCalls != null) {
+      mJournalCalls.shutdown();
+    }
+    // Recovery may still be running; close the journal once it ends instead of waiting here.
+    final FutureTask<VendJournal> journal = mJournal;
+    new NamedThreadFactory("SerialPortJournalClose").newThread(new Runnable() {
+      @Override
+      public void run() {
         try {
-          byte[] buffer = new byte[64];
-          if (mInputStream == null)
-            return;
-          size = mInputStream.read(buffer);
-          Log.d(TAG, "read size: " + String.valueOf(size));
-          if (size > 0) {
-            onDataReceived(buffer, size);
-          }
+          recovered(journal).close();
         } catch (IOException e) {
-          e.printStackTrace();
-          return;
+          // It was never opened.
         }
       }
+    }).start();
+  }
+
+  private void attach(BinaryMessenger messenger, BinaryMessenger.TaskQueue taskQueue,
+      Context context) {
+    mMessenger = messenger;
+    mTaskQueue = taskQueue;
+    if (taskQueue == null) {
+      mJournalCalls = Executors.newSingleThreadExecutor(new NamedThreadFactory("SerialPortJournalCalls"));
     }
+    final File journalDirectory = new File(context.getFilesDir(), "serial_port_journal");
+    mJournal = new FutureTask<VendJournal>(new Callable<VendJournal>() {
+      @Override
+      public VendJournal call() throws IOException {
+        try {
+          return new VendJournal(journalDirectory, VendJournal.DEFAULT_SEGMENT_BYTES,
+              VendJournal.DEFAULT_SYNC_INTERVAL_MS);
+        } catch (IOException e) {
+          Log.e(TAG, e.toString());
+          throw e;
+        }
+      }
+    });
+    // Recovery reads and forces files; keep it off the main thread.
+    new NamedThreadFactory("SerialPortJournalOpen").newThread(mJournal).start();
+    EventStream deviceEvents = new EventStream(mHandler);
+    mDevicesChannel = new EventChannel(messenger, "serial_port/devices", StandardMethodCodec.INSTANCE,
+        taskQueue);
+    mDiscovery = new DeviceDiscovery(deviceEvents);
+    mDevicesChannel.setStreamHandler(mDiscovery);
+    mChannel = new MethodChannel(messenger, "serial_port", StandardMethodCodec.INSTANCE, taskQueue);
+    mChannel.setMethodCallHandler(this);
   }
 
-  protected void onDataReceived(final byte[] buffer, final int size) {
-    if (mEventSink != null) {
-      mHandler.post(new Runnable() {
+  @Override
+  public void onMethodCall(final MethodCall call, final Result result) {
+    if (mJournalCalls != null && needsJournal(call.method)) {
+      // Without a task queue this is the main thread, which must not wait for recovery.
+      mJournalCalls.execute(new Runnable() {
         @Override
         public void run() {
-          Log.d(TAG, "eventsink: " + buffer.toString());
-          mEventSink.success( Arrays.copyOfRange(buffer, 0, size));
+          handleMethodCall(call, new MainThreadResult(mHandler, result));
         }
       });
+      return;
     }
+    handleMethodCall(call, result);
   }
 
-  FlutterSerialPortPlugin(Registrar registrar) {
-    final EventChannel eventChannel = new EventChannel(registrar.messenger(), "serial_port/event");
-    eventChannel.setStreamHandler(this);
+  /** Whether a call waits for the journal's recovery. */
+  private static boolean needsJournal(String method) {
+    return method.equals("open") || method.equals("getInDoubtVends") || method.equals("resolveVends");
   }
 
-  /** Plugin registration. */
-  public static void registerWith(Registrar registrar) {
-    final MethodChannel channel = new MethodChannel(registrar.messenger(), "serial_port");
-    channel.setMethodCallHandler(new FlutterSerialPortPlugin(registrar));
-  }
-
-  @Override
-  public void onMethodCall(MethodCall call, Result result) {
-    Log.d(TAG, "call.method " + call.method);
+  private void handleMethodCall(MethodCall call, Result result) {
+    if (DEBUG) {
+      Log.d(TAG, "call.method " + call.method);
+    }
+    PortSession port;
     switch (call.method) {
     case "getPlatformVersion":
       result.success("Android " + android.os.Build.VERSION.RELEASE);
       break;
     case "open":
-      final String devicePath = call.argument("devicePath");
-      final int baudrate = call.argument("baudrate");
-      Log.d(TAG, "Open " + devicePath + ", baudrate: " + baudrate);
-      Boolean openResult = openDevice(devicePath, baudrate);
-      result.success(openResult);
+      PortConfig config = new PortConfig();
+      config.devicePath = call.argument("devicePath");
+      Integer baudrate = call.argument("baudrate");
+      if (baudrate != null) {
+        config.baudrate = baudrate;
+      }
+      String transport = call.argument("transport");
+      if (transport != null) {
+        config.transport = transport;
+      }
+      parseLineSettings(call, config);
+      Integer readBufferSize = call.argument("readBufferSize");
+      if (readBufferSize != null) {
+        config.readBufferSize = readBufferSize;
+      }
+      Integer batchBytes = call.argument("batchBytes");
+      if (batchBytes != null) {
+        config.batchBytes = batchBytes;
+      }
+      Integer batchLatencyMs = call.argument("batchLatencyMs");
+      if (batchLatencyMs != null) {
+        config.batchLatencyMs = batchLatencyMs;
+      }
+      Integer inboundBytes = call.argument("inboundBytes");
+      if (inboundBytes != null) {
+        config.inboundBytes = inboundBytes;
+      }
+      String overflowPolicy = call.argument("overflowPolicy");
+      if ("dropNewest".equals(overflowPolicy)) {
+        config.overflowPolicy = InboundBuffer.DROP_NEWEST;
+      } else if ("block".equals(overflowPolicy)) {
+        config.overflowPolicy = InboundBuffer.BLOCK;
+      } else if (overflowPolicy != null && !"dropOldest".equals(overflowPolicy)) {
+        config.overflowPolicy = -1;
+      }
+      Integer maxInFlight = call.argument("maxInFlight");
+      if (maxInFlight != null) {
+        config.maxInFlight = maxInFlight;
+      }
+      Integer coalesceBytes = call.argument("coalesceBytes");
+      if (coalesceBytes != null) {
+        config.coalesceBytes = coalesceBytes;
+      }
+      Integer coalesceDelayMs = call.argument("coalesceDelayMs");
+      if (coalesceDelayMs != null) {
+        config.coalesceDelayMs = coalesceDelayMs;
+      }
+      Integer statsIntervalMs = call.argument("statsIntervalMs");
+      if (statsIntervalMs != null) {
+        config.statsIntervalMs = statsIntervalMs;
+      }
+      Log.d(TAG, "Open " + config);
+      result.success(openDevice(config));
       break;
     case "close":
-      Boolean closeResult = closeDevice();
-      result.success(closeResult);
+      Integer closeHandle = call.argument("handle");
+      result.success(closeHandle != null && closeDevice(closeHandle));
       break;
     case "tcnCommand":
       try {
-        Log.d(TAG, "call.arguments() " + call.arguments() );
-
         JSONObject obj = new JSONObject((String) call.arguments());
-        Log.d(TAG, "obj " + obj );
-        writeData(obj);
-        Log.d(TAG, "obj " + obj );
-
-        result.success(true);
+        if (DEBUG) {
+          Log.d(TAG, "obj " + obj);
+        }
+        port = mPorts.get(obj.getInt("handle"));
+        if (port == null) {
+          result.error("NOT_OPEN", "Serial port is not open", null);
+          break;
+        }
+        String name = (String) obj.get("command");
+        Command command = CommandTable.get(name);
+        if (command == null) {
+          result.error("UNKNOWN_COMMAND", "Unknown command " + name, null);
+          break;
+        }
+        port.submit(command, parseArgs(command, obj), new MainThreadResult(mHandler, result));
       } catch (JSONException e) {
-        e.printStackTrace();
+        result.error("BAD_ARGS", e.toString(), null);
+      } catch (IllegalArgumentException e) {
+        result.error("BAD_ARGS", e.toString(), null);
+      }
+      break;
+    case "command":
+      if ((port = port(call, result)) == null) {
+        break;
+      }
+      Integer commandId = call.argument("id");
+      if (commandId == null) {
+        result.error("BAD_ARGS", "No command id", null);
+        break;
+      }
+      Command command = CommandTable.get(commandId);
+      if (command == null) {
+        result.error("UNKNOWN_COMMAND", "Unknown command id " + commandId, null);
+        break;
+      }
+      try {
+        port.submit(command, toIntArray(call.<List<Integer>>argument("args")),
+            new MainThreadResult(mHandler, result));
+      } catch (IllegalArgumentException e) {
+        result.error("BAD_ARGS", e.getMessage(), null);
+      }
+      break;
+    case "write":
+      if ((port = port(call, result)) == null) {
+        break;
+      }
+      byte[] data = call.argument("data");
+      if (data == null) {
+        result.error("BAD_ARGS", "No data to write", null);
+        break;
+      }
+      port.write(ByteBuffer.wrap(data), new MainThreadResult(mHandler, result));
+      break;
+    case "read":
+      if ((port = port(call, result)) == null) {
+        break;
+      }
+      Integer maxBytes = call.argument("maxBytes");
+      Integer readTimeoutMs = call.argument("timeoutMs");
+      if (maxBytes == null || maxBytes <= 0 || (readTimeoutMs != null && readTimeoutMs < 0)) {
+        result.error("BAD_ARGS", "maxBytes must be positive and timeoutMs not negative", null);
+        break;
       }
+      port.read(maxBytes, readTimeoutMs != null ? readTimeoutMs : 0,
+          new MainThreadResult(mHandler, result));
+      break;
+    case "setBinaryDelivery":
+      if ((port = port(call, result)) == null) {
+        break;
+      }
+      Boolean enabled = call.argument("enabled");
+      port.setBinaryDelivery(enabled != null && enabled);
+      result.success(true);
+      break;
+    case "request":
+      if ((port = port(call, result)) == null) {
+        break;
+      }
+      Integer requestId = call.argument("id");
+      if (requestId == null) {
+        result.error("BAD_ARGS", "No command id", null);
+        break;
+      }
+      final Command requestCommand = CommandTable.get(requestId);
+      if (requestCommand == null) {
+        result.error("UNKNOWN_COMMAND", "Unknown command id " + requestId, null);
+        break;
+      }
+      final Integer timeoutMs = call.argument("timeoutMs");
+      final Integer retries = call.argument("retries");
+      final Result requestResult = new MainThreadResult(mHandler, result);
+      port.engine().request(requestCommand, toIntArray(call.<List<Integer>>argument("args")),
+          timeoutMs != null ? timeoutMs : CommandEngine.DEFAULT_TIMEOUT_MS,
+          retries != null ? retries : CommandEngine.DEFAULT_RETRIES,
+          new CommandEngine.Callback() {
+            @Override
+            public void onResponse(byte[] frame) {
+              requestResult.success(frame);
+            }
+
+            @Override
+            public void onError(String code, String message) {
+              requestResult.error(code, message, null);
+            }
+          });
+      break;
+    case "runPlan":
+      if ((port = port(call, result)) == null) {
+        break;
+      }
+      List<VendPlan.Step> steps;
+      try {
+        steps = parseSteps(call.<List<Map<String, Object>>>argument("steps"));
+      } catch (IllegalArgumentException e) {
+        result.error("BAD_ARGS", e.getMessage(), null);
+        break;
+      }
+      Boolean stopOnError = call.argument("stopOnError");
+      result.success(port.runPlan(steps, stopOnError == null || stopOnError));
+      break;
+    case "cancelPlan":
+      if ((port = port(call, result)) == null) {
+        break;
+      }
+      Integer planId = call.argument("plan");
+      result.success(planId != null && port.cancelPlan(planId));
+      break;
+    case "vend":
+      if ((port = port(call, result)) == null) {
+        break;
+      }
+      Integer slot = call.argument("slot");
+      if (slot == null) {
+        result.error("BAD_ARGS", "No slot to vend from", null);
+        break;
+      }
+      Integer pollIntervalMs = call.argument("pollIntervalMs");
+      Integer vendTimeoutMs = call.argument("timeoutMs");
+      Integer busyRetries = call.argument("busyRetries");
+      Boolean stepEvents = call.argument("stepEvents");
+      try {
+        result.success(port.vend(slot,
+            pollIntervalMs != null ? pollIntervalMs : VendStateMachine.DEFAULT_POLL_INTERVAL_MS,
+            vendTimeoutMs != null ? vendTimeoutMs : VendStateMachine.DEFAULT_TIMEOUT_MS,
+            busyRetries != null ? busyRetries : VendStateMachine.DEFAULT_BUSY_RETRIES,
+            stepEvents != null && stepEvents));
+      } catch (IllegalArgumentException e) {
+        result.error("BAD_ARGS", e.getMessage(), null);
+      }
+      break;
+    case "cancelVend":
+      if ((port = port(call, result)) == null) {
+        break;
+      }
+      Integer vendId = call.argument("vend");
+      result.success(vendId != null && port.cancelVend(vendId));
+      break;
+    case "startStatusPolling":
+      if ((port = port(call, result)) == null) {
+        break;
+      }
+      List<Map<String, Object>> polls = call.argument("polls");
+      List<Command> pollCommands = new ArrayList<Command>();
+      List<Integer> pollIntervals = new ArrayList<Integer>();
+      try {
+        if (polls == null || polls.isEmpty()) {
+          throw new IllegalArgumentException("No commands to poll");
+        }
+        for (Map<String, Object> poll : polls) {
+          Integer id = (Integer) poll.get("id");
+          Command pollCommand = id != null ? CommandTable.get(id) : null;
+          if (pollCommand == null) {
+            throw new IllegalArgumentException("Unknown command id " + id);
+          }
+          pollCommands.add(pollCommand);
+          pollIntervals.add(intValue(poll.get("intervalMs"), 1000));
+        }
+        port.startStatusPolling(pollCommands, pollIntervals);
+        result.success(true);
+      } catch (IllegalArgumentException e) {
+        result.error("BAD_ARGS", e.getMessage(), null);
+      }
+      break;
+    case "stopStatusPolling":
+      if ((port = port(call, result)) == null) {
+        break;
+      }
+      port.stopStatusPolling();
+      result.success(true);
+      break;
+    case "getStatus":
+      if ((port = port(call, result)) == null) {
+        break;
+      }
+      result.success(port.status());
+      break;
+    case "getStats":
+      if ((port = port(call, result)) == null) {
+        break;
+      }
+      result.success(port.stats());
+      break;
+    case "startCapture":
+      if ((port = port(call, result)) == null) {
+        break;
+      }
+      String directory = call.argument("directory");
+      if (directory == null) {
+        result.error("BAD_ARGS", "No capture directory", null);
+        break;
+      }
+      Integer segmentBytes = call.argument("segmentBytes");
+      Integer maxSegments = call.argument("maxSegments");
+      try {
+        result.success(port.startCapture(new File(directory),
+            segmentBytes != null ? segmentBytes : CaptureWriter.DEFAULT_SEGMENT_BYTES,
+            maxSegments != null ? maxSegments : CaptureWriter.DEFAULT_MAX_SEGMENTS));
+      } catch (IOException e) {
+        result.error("CAPTURE_FAILED", e.getMessage(), null);
+      } catch (IllegalArgumentException e) {
+        result.error("BAD_ARGS", e.getMessage(), null);
+      }
+      break;
+    case "stopCapture":
+      if ((port = port(call, result)) == null) {
+        break;
+      }
+      result.success(port.stopCapture());
+      break;
+    case "replay":
+      if ((port = port(call, result)) == null) {
+        break;
+      }
+      List<String> files = call.argument("files");
+      if (files == null) {
+        result.error("BAD_ARGS", "No capture files to replay", null);
+        break;
+      }
+      List<File> segments = new ArrayList<File>(files.size());
+      for (String path : files) {
+        segments.add(new File(path));
+      }
+      Double speed = call.argument("speed");
+      port.replay(segments, speed != null ? speed : 1.0, new MainThreadResult(mHandler, result));
+      break;
+    case "cancelReplay":
+      if ((port = port(call, result)) == null) {
+        break;
+      }
+      result.success(port.cancelReplay());
+      break;
+    case "configureSimulator":
+      if ((port = port(call, result)) == null) {
+        break;
+      }
+      BoardSimulator simulator = port.simulator();
+      if (simulator == null) {
+        result.error("NOT_SIMULATED", "Port is not connected to the simulator", null);
+        break;
+      }
+      configureSimulator(simulator, call);
+      result.success(true);
+      break;
+    case "getWriteQueue":
+      if ((port = port(call, result)) == null) {
+        break;
+      }
+      result.success(port.writeQueueStatus());
+      break;
+    case "getInDoubtVends":
+      VendJournal journal = journal(result);
+      if (journal == null) {
+        break;
+      }
+      result.success(journal.inDoubt());
+      break;
+    case "resolveVends":
+      if ((journal = journal(result)) == null) {
+        break;
+      }
+      List<Long> txns = new ArrayList<Long>();
+      List<Number> resolveIds = call.argument("txns");
+      if (resolveIds != null) {
+        for (Number id : resolveIds) {
+          txns.add(id.longValue());
+        }
+      }
+      result.success(journal.resolve(txns));
+      break;
+    case "listDevices":
+      result.success(mDiscovery.devices());
       break;
     case "getAllDevices":
       ArrayList<String> devices = getAllDevices();
@@ -133,402 +529,256 @@ public class FlutterSerialPortPlugin implements MethodCallHandler, EventChannel.
     }
   }
 
-  @Override
-  public void onListen(Object o, EventChannel.EventSink eventSink) {
-    mEventSink = eventSink;
+  /** Looks up the port named by the call's "handle" argument, or fails the call. */
+  private PortSession port(MethodCall call, Result result) {
+    Integer handle = call.argument("handle");
+    PortSession port = handle != null ? mPorts.get(handle) : null;
+    if (port == null) {
+      result.error("NOT_OPEN", "Serial port is not open", null);
+    }
+    return port;
   }
 
-  @Override
-  public void onCancel(Object o) {
-    mEventSink = null;
+  /** The journal once recovered, or fails the call with why it cannot be used. */
+  private VendJournal journal(Result result) {
+    VendJournal journal;
+    try {
+      journal = journal();
+    } catch (IOException e) {
+      result.error("NO_JOURNAL", "The vend journal could not be opened: " + e, null);
+      return null;
+    }
+    IOException failure = journal.failure();
+    if (failure != null) {
+      result.error("JOURNAL_FAILED", "The vend journal stopped recording: " + failure, null);
+      return null;
+    }
+    return journal;
+  }
+
+  /** Waits for the journal's recovery. Throws the reason it could not be opened. */
+  private VendJournal journal() throws IOException {
+    return recovered(mJournal);
+  }
+
+  private static VendJournal recovered(FutureTask<VendJournal> journal) throws IOException {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return journal.get();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
   }
 
   private ArrayList<String> getAllDevices() {
-    ArrayList<String> devices = new ArrayList<String>(Arrays.asList(mSerialPortFinder.getAllDevices()));
+    ArrayList<String> devices = new ArrayList<String>();
+    for (Map<String, String> device : mDiscovery.devices()) {
+      devices.add(device.get("name"));
+    }
     return devices;
   }
 
   private ArrayList<String> getAllDevicesPath() {
-    ArrayList<String> devicesPath = new ArrayList<String>(Arrays.asList(mSerialPortFinder.getAllDevicesPath()));
+    ArrayList<String> devicesPath = new ArrayList<String>();
+    for (Map<String, String> device : mDiscovery.devices()) {
+      devicesPath.add(device.get("path"));
+    }
     return devicesPath;
   }
 
-  private Boolean openDevice(String devicePath, int baudrate) {
-    if (mSerialPort == null) {
-      /* Check parameters */
-      if ((devicePath.length() == 0) || (baudrate == -1)) {
-        return false;
+  /** Opens a port and returns its handle, or null if it could not be opened. */
+  private Integer openDevice(PortConfig config) {
+    /* Check parameters */
+    if (!config.isValid()) {
+      return null;
+    }
+    for (PortSession open : mPorts.values()) {
+      if (open.config.devicePath.equals(config.devicePath)) {
+        return null;
       }
+    }
 
-      /* Open the serial port */
+    /* Open the serial port */
+    try {
+      int handle = mNextHandle++;
+      Transport transport = openTransport(config);
+      PortSession port;
+      try {
+        port = new PortSession(handle, config, transport, mMessenger, mTaskQueue, mHandler, mIoLoop);
+      } catch (IOException e) {
+        transport.close();
+        throw e;
+      }
+      try {
+        port.setJournal(journal().tracker(config.devicePath));
+      } catch (IOException e) {
+        // The port runs unjournaled; getInDoubtVends reports why.
+      }
       try {
-        mSerialPort = new SerialPort(new File(devicePath), baudrate, 0);
-        mOutputStream = mSerialPort.getOutputStream();
-        mInputStream = mSerialPort.getInputStream();
-        mReadThread = new ReadThread();
-        mReadThread.start();
-        return true;
-      } catch (Exception e) {
-        Log.e(TAG, e.toString());
-        return false;
+        port.start();
+      } catch (IOException e) {
+        port.close();
+        throw e;
       }
+      mPorts.put(handle, port);
+      return handle;
+    } catch (Exception e) {
+      Log.e(TAG, e.toString());
+      return null;
     }
-    return false;
   }
 
-  private Boolean closeDevice() {
-    if (mSerialPort != null) {
-      mSerialPort.close();
-      mSerialPort = null;
+  private static Transport openTransport(PortConfig config) throws IOException {
+    if (PortConfig.TRANSPORT_PTY.equals(config.transport)) {
+      return new PtyTransport(new File(config.devicePath));
+    }
+    if (PortConfig.TRANSPORT_SIMULATOR.equals(config.transport)) {
+      return new SimulatedTransport("BoardSimulator-" + config.devicePath);
+    }
+    return new SerialTransport(new File(config.devicePath), config);
+  }
+
+  private boolean closeDevice(int handle) {
+    PortSession port = mPorts.remove(handle);
+    if (port != null) {
+      port.close();
       return true;
     }
     return false;
   }
 
-  private void getStatusElevator() {
-    byte[] bytesToSend = {0x02,0x03,0x01,0x00,0x00,0x03,0x03};
-    try {
-      mOutputStream.write(bytesToSend, 0, 7);
-    } catch (IOException e) {
-      e.printStackTrace();
+  /** Reads the optional line settings of an "open" call. Unknown names fail validation. */
+  private static void parseLineSettings(MethodCall call, PortConfig config) {
+    Integer value;
+    if ((value = call.argument("dataBits")) != null) {
+      config.dataBits = value;
+    }
+    if ((value = call.argument("stopBits")) != null) {
+      config.stopBits = value;
+    }
+    if ((value = call.argument("vmin")) != null) {
+      config.vmin = value;
+    }
+    if ((value = call.argument("vtime")) != null) {
+      config.vtime = value;
+    }
+    if ((value = call.argument("frameGapMs")) != null) {
+      config.frameGapMs = value;
+    }
+    String parity = call.argument("parity");
+    if ("odd".equals(parity)) {
+      config.parity = PortConfig.PARITY_ODD;
+    } else if ("even".equals(parity)) {
+      config.parity = PortConfig.PARITY_EVEN;
+    } else if (parity != null && !"none".equals(parity)) {
+      config.parity = -1;
+    }
+    String flowControl = call.argument("flowControl");
+    if ("rtsCts".equals(flowControl)) {
+      config.flowControl = PortConfig.FLOW_RTS_CTS;
+    } else if ("xonXoff".equals(flowControl)) {
+      config.flowControl = PortConfig.FLOW_XON_XOFF;
+    } else if (flowControl != null && !"none".equals(flowControl)) {
+      config.flowControl = -1;
     }
   }
 
-  private void writeData(JSONObject obj) {
-    try {
-      byte[] bytesToSend;
-      int data = 0; //aqui vem o dado: SLOT ou TEMPERATURA
-      String command = (String) obj.get("command");
-      switch (command) {
-
-        case "withoutElevatorDrop1withoutSensor"://ok
-          bytesToSend = new byte[]{0x00, (byte)0xFF ,0x01 ,(byte)0xFE ,0x55 ,(byte)0xAA};
-          mOutputStream.write(bytesToSend, 0, 6);
-          break;
-
-        case "withoutElevatorDropWithoutSensor"://ok
-          data = Integer.parseInt((String) obj.get("data"));
-          bytesToSend = new byte[]{0x00, (byte)0xFF ,(byte)(data), (byte)(0xFF-(byte)(data)),0x55 ,(byte)0xAA};
-          mOutputStream.write(bytesToSend, 0, 6);
-          break;
-
-        case "withoutElevatorDrop1WithSensor"://ok
-          bytesToSend = new byte[]{0x00 ,(byte)0xFF ,0x01, (byte)0xFE ,(byte)0xAA ,0x55 };
-          mOutputStream.write(bytesToSend, 0, 6);
-          break;
-
-        case "withoutElevatorDropWithSensor"://sem elevador é esseee!! entrega detectando queda pelo sensor
-          data = Integer.parseInt((String) obj.get("data"));
-          bytesToSend = new byte[]{0x00 ,(byte)0xFF ,(byte)(data), (byte)(0xFF-(byte)(data)) ,(byte)0xAA ,0x55 };
-          mOutputStream.write(bytesToSend, 0, 6);
-          break;
-
-        case "withoutElevatorTurnAll"://sem elevador - reset command - testa todos os slot girando eles
-          bytesToSend = new byte[]{0x00 ,(byte)0xFF ,0x65, (byte)0x9A ,0x55 ,(byte)0xAA };
-          mOutputStream.write(bytesToSend, 0, 6);
-          break;
-
-        // case "withoutElevatorClearError3"://sem elevador - limpa error 3 n funfiona
-        //   bytesToSend = new byte[]{0x02 ,(byte)0x03 ,0x50, (byte)0x03 ,0x02 ,(byte)0x03,(byte)0x03 };
-        //   mOutputStream.write(bytesToSend, 0, 7);
-        //   break;
-
-        // case "withoutElevatorClearError"://sem elevador - limpa error n funcoina
-        //   data = Integer.parseInt((String) obj.get("data"));
-        //   bytesToSend = new byte[]{0x00 ,(byte)0xFF ,0x65, (byte)0x9A ,0x55 ,(byte)0xAA };
-        //   mOutputStream.write(bytesToSend, 0, 6);
-        //   break;
-
-        // case "aaaaa222":
-        //   data = Integer.parseInt((String) obj.get("data"));
-        //   bytesToSend = new byte[]{0x00, (byte)0xFF, 0x01, (byte)0xFE, (byte)(data), (byte)(0xFF-(byte)(data))};
-        //   mOutputStream.write(bytesToSend, 0, 6);
-        //   break;
-
-        // case "aaaaa2223":
-        //   data = Integer.parseInt((String) obj.get("data"));
-        //   bytesToSend = new byte[]{0x00, (byte)0xFF, 0x01, (byte)(data), (byte)(data), (byte)(0xFF-(byte)(data))};
-        //   mOutputStream.write(bytesToSend, 0, 6);
-
-        // case "aaaaa2224":
-        //   data = Integer.parseInt((String) obj.get("data"));
-        //   bytesToSend = new byte[]{0x00, (byte)0xFF, (byte)(data), (byte)0xFE, (byte)(data), (byte)(0xFF-(byte)(data))};
-        //   mOutputStream.write(bytesToSend, 0, 6);
-        //   break;
-
-
-        /*case "setDoublet1"://tipo 1
-          data = Integer.parseInt((String) obj.get("data"));
-          bytesToSend = new byte[]{0x00,(byte)0xff,(byte)(data),(byte) 0xFF, (byte)0xCA,0x55};
-          mOutputStream.write(bytesToSend, 0, 6);
-        break;
-        case "setDoublet2"://tipo 2
-          data = Integer.parseInt((String) obj.get("data"));
-          bytesToSend = new byte[]{0x00, (byte)0xFF, (byte)data,(byte)(0xFF-(byte)(data)),0x55, (byte)0xAA};
-          mOutputStream.write(bytesToSend, 0, 6);
-        break;
-        case "setDoublet3"://tipo 3
-          data = Integer.parseInt((String) obj.get("data"));
-          bytesToSend = new byte[]{0x00, (byte)0xFF, (byte)0xCA,(byte)(0xFF-(byte)(0xCA)),0x55, (byte)0xAA};
-          mOutputStream.write(bytesToSend, 0, 6);
-          break;
-        case "setDoublet4"://tipo 4
-          data = Integer.parseInt((String) obj.get("data"));
-          bytesToSend = new byte[]{0x00, (byte)0xFF, (byte)0xCA,(byte)(0xFF-(byte)(data)),0x55, (byte)0xAA};
-          mOutputStream.write(bytesToSend, 0, 6);
-          break;
-        case "set1double":
-          data = Integer.parseInt((String) obj.get("data"));
-          bytesToSend = new byte[]{0x00, (byte)0xFF, (byte)0xCA,0x35,0x01, (byte)0xFE};
-          mOutputStream.write(bytesToSend, 0, 6);
-          break;*/
-
-        case "allSingleSlot"://ok
-          bytesToSend = new byte[]{0x00, (byte)0xFF, (byte)0xCB, 0x34 ,0x55 ,(byte)0xAA};
-          mOutputStream.write(bytesToSend, 0, 6);
-          break;
-
-
-        case "statusDoor"://ok
-        bytesToSend = new byte[]{0x00, (byte)0xFF,(byte) 0xDF ,0x20 ,0x55 ,(byte)0xAA};
-        mOutputStream.write(bytesToSend, 0, 6);
-        break;
-
-        case "closeDoor"://ok
-        bytesToSend = new byte[]{0x02, (byte)0x04,(byte) 0xDF ,0x20 ,0x55 ,(byte)0xAA};
-        mOutputStream.write(bytesToSend, 0, 6);
-        break;
-
-
-     /*   case "gateStatusClose":
-          bytesToSend = new byte[]{0x00 ,0x5D ,0x00, 0x00, 0x5D };//close
-          mOutputStream.write(bytesToSend, 0, 5);
-          break;
-        case "doorStatusOpen":
-          bytesToSend = new byte[]{ 0x00 ,0x5D ,0x01 ,0x00 ,0x5E };//open
-          mOutputStream.write(bytesToSend, 0, 5);
-          break;*/
-
-        case "openBuzzer"://????
-          bytesToSend = new byte[]{0x00, (byte)0xFF, (byte)0xDE, 0x21 ,(byte)0xAA ,0x55};
-          mOutputStream.write(bytesToSend, 0, 6);
-          break;
-
-        case "closeBuzzer"://???????
-          bytesToSend = new byte[]{0x00 ,(byte)0xFF ,(byte)0xDE, 0x21, 0x55 ,(byte)0xAA};
-          mOutputStream.write(bytesToSend, 0, 6);
-          break;
-
-
-
-        case "glassHeatingOn"://???
-          bytesToSend = new byte[]{0x00, (byte)0xFF ,(byte)0xD4,0x2B ,0x01,(byte) 0xFE};
-          mOutputStream.write(bytesToSend, 0, 6);
-          break;
-        case "glassHeatingOff"://???
-          bytesToSend = new byte[]{0x00 ,(byte)0xFF ,(byte)0xD4 ,0x2B, 0x00 ,(byte)0xFF};
-          mOutputStream.write(bytesToSend, 0, 6);
-          break;
-        case "lightOn"://ok
-          bytesToSend = new byte[]{0x00, (byte)0xFF ,(byte)0xDD ,0x22,(byte)0xAA ,0x55};
-          mOutputStream.write(bytesToSend, 0, 6);
-          break;
-        case "lightOff"://ok
-          bytesToSend = new byte[]{0x00, (byte)0xFF ,(byte)0xDD ,0x22 ,0x55,(byte)0xAA};
-          mOutputStream.write(bytesToSend, 0, 6);
-          break;
-        case "heatingMode"://???
-          bytesToSend = new byte[]{0x00 ,(byte)0xFF ,(byte)0xCD ,0x32 ,0x01 ,(byte)0xFE};
-          mOutputStream.write(bytesToSend, 0, 6);
-          break;
-
-        case "refriMode"://????
-          bytesToSend = new byte[]{0x00 ,(byte)0xFF ,(byte)0xCD ,0x32 ,0x01 ,(byte)0xFE};
-          mOutputStream.write(bytesToSend, 0, 6);
-          break;
-
-        case "setDouble"://ok
-          data = Integer.parseInt((String) obj.get("data"));
-          bytesToSend = new byte[]{0x00, (byte)0xFF, (byte)0xCA, 0x35, (byte)(data), (byte)(0xFF-(byte)(data))};
-          mOutputStream.write(bytesToSend, 0, 6);
-          break;
-        case "setSingle":
-          data = Integer.parseInt((String) obj.get("data"));
-          bytesToSend = new byte[]{0x00 ,(byte)0xFF, (byte)0xC9 ,0x36 ,(byte)(data), (byte)(0xFF-(byte)(data))};
-          mOutputStream.write(bytesToSend, 0, 6);
-          break;
-        case "set1And2Single":
-          data = Integer.parseInt((String) obj.get("data"));
-          bytesToSend = new byte[]{0x00 ,(byte)0xFF, (byte)0xC9 ,0x36 ,0x01, (byte)0xFE};
-          mOutputStream.write(bytesToSend, 0, 6);
-          break;
-
-        case "getTemp":
-          bytesToSend = new byte[]{0x00, (byte)0xFF, (byte)0xDC,0x23,0x55, (byte)0xAA};
-          mOutputStream.write(bytesToSend, 0, 6);
-          break;
-        case "noControlTemp"://ok
-          bytesToSend = new byte[]{0x00, (byte)0xFF, (byte)0xCC,0x33,0x00, (byte)0xFF};
-          mOutputStream.write(bytesToSend, 0, 6);
-          break;
-        case "controlTemp"://ok
-          bytesToSend = new byte[]{0x00, (byte)0xFF, (byte)0xCC,0x33,0x01, (byte)0xFE};
-          mOutputStream.write(bytesToSend, 0, 6);
-          break;
-
-        case "defrostingTimeFor20min"://??
-          bytesToSend = new byte[]{0x00 ,(byte)0xFF ,(byte)0xD1 ,0x2E ,0x14,(byte)0xEB};
-          mOutputStream.write(bytesToSend, 0, 6);
-          break;
-
-        case "120MinutesCompressor":
-          bytesToSend = new byte[]{0x00 ,(byte)0xFF, (byte)0xD2 ,0x2D ,0x78,(byte) 0x87};
-          mOutputStream.write(bytesToSend, 0, 6);
-          break;
-
-        case "temperatureDifferenceSetTo2"://??
-          bytesToSend = new byte[]{0x00,(byte) 0xFF, (byte)0xCF, 0x30,0x02, (byte)0xFD};
-          mOutputStream.write(bytesToSend, 0, 6);
-          break;
-
-
-        case "temperatureCompensationSetTo1":///???
-          bytesToSend = new byte[]{0x00 ,(byte)0xFF ,(byte)0xD0 ,0x2F ,0x01, (byte)0xFE};
-          mOutputStream.write(bytesToSend, 0, 6);
-          break;
-
-        case "setTemp"://ok
-          data = Integer.parseInt((String) obj.get("data"));
-          bytesToSend = new byte[]{0x00, (byte)0xFF, (byte)0xCE, 0x31, (byte)(data), (byte)(0xFF-(byte)(data))};
-          mOutputStream.write(bytesToSend, 0, 6);
-          break;
-        case "setTempTo5"://ok
-          bytesToSend = new byte[]{0x00, (byte)0xFF, (byte)0xCE,0x31,0x05, (byte)0xFA};
-          mOutputStream.write(bytesToSend, 0, 6);
-          break;
-        case "checkvalid1"://check is valid 1 - ok
-          data = Integer.parseInt((String) obj.get("data"));
-          bytesToSend = new byte[]{0x00, (byte)0xFF, (byte)(0x78+(byte)(data)),(byte)(0xFF-(byte)(0x78+(byte)(data))),0x55, (byte)0xAA};
-          mOutputStream.write(bytesToSend, 0, 6);
-        break;
-
-        
-        case "driveBoardStatus":
-          bytesToSend = new byte[]{0x02 ,0x03 ,0x52,0x00 ,0x00,0x03 ,0x03 };
-          mOutputStream.write(bytesToSend, 0, 7);
-          break;
-
-        case "statusElevator":
-          getStatusElevator();
-        break;
-        case "shipment":
-
-
-           data = Integer.parseInt((String) obj.get("data"));
-          bytesToSend = new byte[]{0x02,0x06,0x02,0x00, (byte)(data),0x00,0x00,(byte) (byte)(data),0x03, 0x05};
-          mOutputStream.write(bytesToSend, 0, 10);
-          
-          break;
-        case "t"://teste
-          String[] codes = ((String) obj.get("data")).split(",");
-          byte[] bytesToSend2 = new byte[codes.length];
-        
-          for (Integer i = 0; i < codes.length; i++) {            
-              String hex = Integer.toHexString(Integer.parseInt(codes[i]));
-              bytesToSend2[i] =        Byte.parseByte(hex,16);
-          }
-          // bytesToSend = new byte[]{0x02 ,0x03 ,0x52,0x00 ,0x00,0x03 ,0x03 };
-          mOutputStream.write(bytesToSend2, 0, codes.length);
-          break;
-
-        case "d":
-          String[] range = ((String) obj.get("data")).split("-");
-
-
-          for (int i = (Integer.parseInt(range[0])); i <= (Integer.parseInt(range[1])); i++) {
-            bytesToSend = new byte[]{0x02,0x06,0x02,0x00, (byte)(Integer.parseInt(range[2])),0x00,0x00,(byte) (byte)(Integer.parseInt(range[2])),0x03, (byte)i};
-            mOutputStream.write(bytesToSend, 0, 10);
-            Thread.sleep(200);
-          }
-
-          break;
-
-        case "d2":
-          int slot3 = Integer.parseInt((String) obj.get("data"));
-          int adjust3 = slot3 + 0 + 0 + 0;
-
-          bytesToSend = new byte[]{0x02,0x06,0x02,0x00, (byte) slot3,0x00,0x00,(byte) adjust3,0x03, (byte)slot3};
-          mOutputStream.write(bytesToSend, 0, 10);
-          Thread.sleep(200);
-
-
-          break;
-
-
-        case "clearElevatorFault"://clearElevatorFault
-          /*bytesToSend = new byte[]{0x02,0x03,(byte) Integer.parseInt((String) obj.get("data")),0x00, 0x00, 0x03, 0x03};
-          mOutputStream.write(bytesToSend, 0, 7);*/
-
-          /*bytesToSend = new byte[]{0x02,0x03, 0x50,0x00, 0x00, 0x03, 0x03};
-          mOutputStream.write(bytesToSend, 0, 7);*/
-
-          // for (int i = 0; i < 100; i++) {
-          //   bytesToSend = new byte[]{0x02,0x03, 0x50,0x00, 0x00, 0x03, (byte)i};
-          //   mOutputStream.write(bytesToSend, 0, 7);
-          //   Thread.sleep(200);
-          // }
-
-          bytesToSend = new byte[]{0x02, 0x03, 0x50, 0x00, 0x00, 0x03, (byte)82};
-          mOutputStream.write(bytesToSend, 0, 7);
-          Thread.sleep(200);
+  /** Applies the settings present in the call; the rest keep their values. */
+  private static void configureSimulator(BoardSimulator simulator, MethodCall call) {
+    Integer value;
+    if ((value = call.argument("replyDelayMs")) != null) {
+      simulator.replyDelayMs = value;
+    }
+    if ((value = call.argument("jitterMs")) != null) {
+      simulator.jitterMs = value;
+    }
+    if ((value = call.argument("vendMs")) != null) {
+      simulator.vendMs = value;
+    }
+    if ((value = call.argument("dropPercent")) != null) {
+      simulator.dropPercent = value;
+    }
+    if ((value = call.argument("corruptPercent")) != null) {
+      simulator.corruptPercent = value;
+    }
+    if ((value = call.argument("temperature")) != null) {
+      simulator.temperature = value;
+    }
+    if ((value = call.argument("nextVendFault")) != null) {
+      simulator.nextVendFault = value;
+    }
+    Boolean doorOpen = call.argument("doorOpen");
+    if (doorOpen != null) {
+      simulator.doorOpen = doorOpen;
+    }
+  }
 
-          break;
-        case "backElevatorToOrigin"://backElevatorToOrigin
-          bytesToSend = new byte[]{0x02, 0x03, 0x05,0x00, 0x00, 0x03, 0x05};
-              mOutputStream.write(bytesToSend, 0, 7);
-            Thread.sleep(200);
+  /** Converts the string "data" of a {@code tcnCommand} call into command arguments. */
+  private static int[] parseArgs(Command command, JSONObject obj) throws JSONException {
+    switch (command.id) {
+    case CommandTable.RAW:
+      return parseInts(((String) obj.get("data")).split(","));
+    case CommandTable.SHIPMENT_RANGE:
+      return parseInts(((String) obj.get("data")).split("-"));
+    default:
+      return command.takesData() ? new int[] {Integer.parseInt((String) obj.get("data"))} : NO_ARGS;
+    }
+  }
 
-          // for (int i = 0; i < 100; i++) {
-          //   bytesToSend = new byte[]{0x02,0x03, 0x05,0x00, 0x00, 0x03, (byte)i};
-          //   mOutputStream.write(bytesToSend, 0, 7);
-          //   Thread.sleep(200);
-          // }
-          break;
+  /** Converts the "steps" of a {@code runPlan} call, checking every command up front. */
+  private static List<VendPlan.Step> parseSteps(List<Map<String, Object>> values) {
+    if (values == null || values.isEmpty()) {
+      throw new IllegalArgumentException("Plan has no steps");
+    }
+    List<VendPlan.Step> steps = new ArrayList<VendPlan.Step>(values.size());
+    for (Map<String, Object> value : values) {
+      Integer id = (Integer) value.get("id");
+      Command command = id != null ? CommandTable.get(id) : null;
+      if (command == null) {
+        throw new IllegalArgumentException("Unknown command id " + id);
       }
+      @SuppressWarnings("unchecked")
+      int[] args = toIntArray((List<Integer>) value.get("args"));
+      steps.add(new VendPlan.Step(command, args,
+          intValue(value.get("delayMs"), 0),
+          !Boolean.FALSE.equals(value.get("waitResponse")),
+          intValue(value.get("timeoutMs"), CommandEngine.DEFAULT_TIMEOUT_MS),
+          intValue(value.get("retries"), CommandEngine.DEFAULT_RETRIES)));
+    }
+    return steps;
+  }
 
-      /*
-      *
-A faixa de cálculo BCC inclui: STX + comprimento do pacote de comunicação + comando + pacote de dados + ETX
-* 2 + X + 2 + 3 = 7
-      * */
-
-      /*byte[] bytesToSend0 = {0x00, (byte) 0xFF, (byte) 0x83, (byte) 0xAC, 0x55, (byte) 0xAA};
-      mOutputStream.write(bytesToSend0, 0, 10);
-      Log.e(TAG, "Write data" + Arrays.toString(bytesToSend0));
-      Thread.sleep(1000);
-
-      byte[] bytesToSend = {0x02,0x06,0x02,0x00,0x05,0x00,0x00,0x01,0x03,0x05};
-      mOutputStream.write(bytesToSend, 0, 10);
-      Log.e(TAG, "Write data" + Arrays.toString(bytesToSend));*/
-/*
-      byte[] bytesToSend = {0x02,0x03,0x01,0x00,0x00,0x03,0x03};
-      Log.e(TAG, "Write data 1" + Arrays.toString(bytesToSend));
-      mOutputStream.write(bytesToSend, 0, 7);
-      Thread.sleep(1000);
-
+  private static int intValue(Object value, int defaultValue) {
+    return value != null ? (Integer) value : defaultValue;
+  }
 
-      byte[] bytesToSend2 = {0x02,0x06,0x02 ,0x00, 0x05 ,0x00 ,0x00 ,0x01, 0x03, 0x05};
-      Log.e(TAG, "Write data 2" + Arrays.toString(bytesToSend2));
-      mOutputStream.write(bytesToSend2, 0, 10);
-      Thread.sleep(1000);
-*/
+  private static int[] parseInts(String[] values) {
+    int[] ints = new int[values.length];
+    for (int i = 0; i < values.length; i++) {
+      ints[i] = Integer.parseInt(values[i]);
+    }
+    return ints;
+  }
 
-    } catch (IOException e) {
-      Log.e(TAG, e.toString());
-    } catch (JSONException e) {
-      Log.e(TAG, e.toString());
-    } catch (InterruptedException e) {
-      Log.e(TAG, e.toString());
+  private static int[] toIntArray(List<Integer> values) {
+    if (values == null) {
+      return NO_ARGS;
+    }
+    int[] ints = new int[values.size()];
+    for (int i = 0; i < ints.length; i++) {
+      ints[i] = values.get(i);
     }
+    return ints;
   }
 }
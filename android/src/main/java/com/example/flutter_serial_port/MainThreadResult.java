@@ -0,0 +1,47 @@
+package com.example.flutter_serial_port;
+
+import android.os.Handler;
+
+import io.flutter.plugin.common.MethodChannel.Result;
+
+/** Forwards a method call result to the main looper, so it can be completed from any thread. */
+class MainThreadResult implements Result {
+
+  private final Handler mHandler;
+  private final Result mResult;
+
+  MainThreadResult(Handler handler, Result result) {
+    mHandler = handler;
+    mResult = result;
+  }
+
+  @Override
+  public void success(final Object value) {
+    mHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        mResult.success(value);
+      }
+    });
+  }
+
+  @Override
+  public void error(final String code, final String message, final Object details) {
+    mHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        mResult.error(code, message, details);
+      }
+    });
+  }
+
+  @Override
+  public void notImplemented() {
+    mHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        mResult.notImplemented();
+      }
+    });
+  }
+}
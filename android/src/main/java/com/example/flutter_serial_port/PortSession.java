@@ -0,0 +1,782 @@
+package com.example.flutter_serial_port;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.os.Handler;
+import android.util.Log;
+
+import io.flutter.plugin.common.BasicMessageChannel;
+import io.flutter.plugin.common.BinaryCodec;
+import io.flutter.plugin.common.BinaryMessenger;
+import io.flutter.plugin.common.EventChannel;
+import io.flutter.plugin.common.MethodChannel.Result;
+import io.flutter.plugin.common.StandardMethodCodec;
+
+/**
+ * Everything that belongs to one open serial port: its transport, reader,
+ * batcher, inbound buffer, frame decoder, writer, command engine, running vend plans and vends, traffic
+ * capture and replay, and the {@code serial_port/event/<handle>},
+ * {@code serial_port/frame/<handle>}, {@code serial_port/progress/<handle>},
+ * {@code serial_port/stats/<handle>} and {@code serial_port/status/<handle>}
+ * event channels and the {@code serial_port/data/<handle>} binary channel. Ports share only the
+ * main looper and the I/O loop thread.
+ */
+class PortSession implements EventBatcher.Sink, FrameDecoder.Listener, CommandWriter.Callback,
+    CommandWriter.IdleListener, VendPlan.Listener, VendStateMachine.Listener, StatusPoller.Traffic,
+    StatusPoller.Listener, EventBatcher.BufferSink, PortReader.Sink {
+
+  private static final String TAG = "FlutterSerialPortPlugin";
+  private static final boolean DEBUG = BuildConfig.DEBUG;
+  /** Replies to writes on the binary channel: one status byte. */
+  private static final ByteBuffer WRITE_OK = status(0);
+  private static final ByteBuffer WRITE_QUEUE_FULL = status(1);
+  private static final ByteBuffer WRITE_FAILED = status(2);
+  private static final ByteBuffer WRITE_BAD_ARGS = status(3);
+
+  final int handle;
+  final PortConfig config;
+  private final PortStats mStats = new PortStats();
+  private final Transport mTransport;
+  private final OutputStream mOutputStream;
+  private final PortReader mReader;
+  private final EventBatcher mBatcher;
+  private final CommandWriter mWriter;
+  private final CommandEngine mEngine;
+  private final ScheduledThreadPoolExecutor mScheduler;
+  private final EventStream mDataStream;
+  private final EventStream mFrameStream;
+  private final EventStream mProgressStream;
+  private final EventChannel mDataChannel;
+  private final EventChannel mFrameChannel;
+  private final EventChannel mProgressChannel;
+  private final EventStream mStatsStream;
+  private final EventChannel mStatsChannel;
+  private final EventStream mStatusStream;
+  private final EventChannel mStatusChannel;
+  private final BasicMessageChannel<ByteBuffer> mBinaryChannel;
+  /** Batches for the binary channel, reused; only touched on the main looper. */
+  private ByteBuffer mBinaryBuffer;
+  private volatile boolean mBinaryDelivery;
+  private final FrameDecoder mDecoder;
+  private final Map<Integer, VendPlan> mPlans = new ConcurrentHashMap<Integer, VendPlan>();
+  private int mNextPlanId = 1;
+  private final Map<Integer, VendStateMachine> mVends =
+      new ConcurrentHashMap<Integer, VendStateMachine>();
+  private int mNextVendId = 1;
+  private final ReadBufferPool mPool;
+  /** Received bytes waiting for a consumer; its lock also orders routing and draining. */
+  private final InboundBuffer mInbound;
+  /** Guarded by mInbound. */
+  private PendingRead mPendingRead;
+  /** Guarded by mInbound. */
+  private boolean mDrainPosted;
+  private final Handler mHandler;
+  private volatile CaptureWriter mCapture;
+  private volatile VendJournal.Tracker mJournal;
+  private Replayer mReplayer;
+  /** Read without the lock by the idle listeners. */
+  private volatile StatusPoller mStatusPoller;
+
+  /** Answers a write from the binary channel with its status byte. */
+  private static class BinaryWriteResult implements Result {
+    private final BasicMessageChannel.Reply<ByteBuffer> mReply;
+
+    BinaryWriteResult(BasicMessageChannel.Reply<ByteBuffer> reply) {
+      mReply = reply;
+    }
+
+    @Override
+    public void success(Object value) {
+      mReply.reply(WRITE_OK);
+    }
+
+    @Override
+    public void error(String code, String message, Object details) {
+      if ("QUEUE_FULL".equals(code)) {
+        mReply.reply(WRITE_QUEUE_FULL);
+      } else {
+        mReply.reply("BAD_ARGS".equals(code) ? WRITE_BAD_ARGS : WRITE_FAILED);
+      }
+    }
+
+    @Override
+    public void notImplemented() {
+      mReply.reply(null);
+    }
+  }
+
+  /** A pull read waiting for data, answered with whatever has arrived when it times out. */
+  private class PendingRead implements Runnable {
+    final int maxBytes;
+    final Result result;
+    ScheduledFuture<?> timeout;
+
+    PendingRead(int maxBytes, Result result) {
+      this.maxBytes = maxBytes;
+      this.result = result;
+    }
+
+    @Override
+    public void run() {
+      synchronized (mInbound) {
+        if (mPendingRead != this) {
+          return;
+        }
+        mPendingRead = null;
+      }
+      result.success(new byte[0]);
+    }
+  }
+
+  /**
+   * Hands buffered bytes to the data stream or binary channel on the main
+   * looper, after the batch the batcher still holds.
+   */
+  private final Runnable mDrain = new Runnable() {
+    @Override
+    public void run() {
+      mBatcher.flush();
+      byte[] data;
+      synchronized (mInbound) {
+        mDrainPosted = false;
+        if (!hasConsumer() || mInbound.isEmpty()) {
+          return;
+        }
+        data = mInbound.take(Integer.MAX_VALUE);
+        // Parked chunks moved into the ring by the take go out with the next drain.
+        postDrain();
+      }
+      if (mBinaryDelivery) {
+        ByteBuffer buffer = obtainBuffer(data.length);
+        buffer.put(data);
+        mBinaryChannel.send(buffer);
+      } else {
+        mDataStream.deliver(data);
+      }
+    }
+  };
+
+  /** The port's channels are served on {@code taskQueue}, or the main thread if null. */
+  PortSession(int handle, PortConfig config, Transport transport, BinaryMessenger messenger,
+      BinaryMessenger.TaskQueue taskQueue, final Handler handler, IoLoop ioLoop) throws IOException {
+    this.handle = handle;
+    this.config = config;
+    mHandler = handler;
+    mTransport = transport;
+    mOutputStream = transport.outputStream();
+
+    mDataStream = new EventStream(handler);
+    mFrameStream = new EventStream(handler, mStats.postDelay);
+    mDataChannel = eventChannel(messenger, "serial_port/event/" + handle, taskQueue);
+    mDataChannel.setStreamHandler(new EventChannel.StreamHandler() {
+      @Override
+      public void onListen(Object arguments, EventChannel.EventSink events) {
+        mDataStream.onListen(arguments, events);
+        synchronized (mInbound) {
+          postDrain();
+        }
+      }
+
+      @Override
+      public void onCancel(Object arguments) {
+        mDataStream.onCancel(arguments);
+      }
+    });
+    mFrameChannel = eventChannel(messenger, "serial_port/frame/" + handle, taskQueue);
+    mFrameChannel.setStreamHandler(mFrameStream);
+    mProgressStream = new EventStream(handler);
+    mProgressChannel = eventChannel(messenger, "serial_port/progress/" + handle, taskQueue);
+    mProgressChannel.setStreamHandler(mProgressStream);
+    mStatsStream = new EventStream(handler);
+    mStatsChannel = eventChannel(messenger, "serial_port/stats/" + handle, taskQueue);
+    mStatsChannel.setStreamHandler(mStatsStream);
+    mStatusStream = new EventStream(handler);
+    mStatusChannel = eventChannel(messenger, "serial_port/status/" + handle, taskQueue);
+    mStatusChannel.setStreamHandler(mStatusStream);
+    mBinaryChannel = new BasicMessageChannel<ByteBuffer>(messenger, "serial_port/data/" + handle,
+        BinaryCodec.INSTANCE, taskQueue);
+    mBinaryChannel.setMessageHandler(new BasicMessageChannel.MessageHandler<ByteBuffer>() {
+      @Override
+      public void onMessage(ByteBuffer message, BasicMessageChannel.Reply<ByteBuffer> reply) {
+        write(message, new MainThreadResult(handler, new BinaryWriteResult(reply)));
+      }
+    });
+
+    ReadBufferPool pool = new ReadBufferPool(config.readBufferSize,
+        EventBatcher.poolSizeFor(config.batchBytes, config.readBufferSize));
+    mPool = pool;
+    mInbound = new InboundBuffer(config.inboundBytes, config.overflowPolicy);
+    mBatcher = new EventBatcher(pool, config.batchBytes, config.batchLatencyMs,
+        new EventBatcher.Scheduler() {
+          @Override
+          public void post(Runnable task) {
+            handler.post(task);
+          }
+
+          @Override
+          public void postDelayed(Runnable task, long delayMillis) {
+            handler.postDelayed(task, delayMillis);
+          }
+        }, this);
+    mWriter = new CommandWriter("SerialPortWriter-" + handle, mOutputStream, config.writeQueueCapacity,
+        config.coalesceBytes, config.coalesceDelayMs, mStats);
+    mScheduler = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("SerialPortScheduler-" + handle));
+    mScheduler.setRemoveOnCancelPolicy(true);
+    mEngine = new CommandEngine(mWriter, mScheduler, config.maxInFlight, mStats);
+    mWriter.setIdleListener(this);
+    mEngine.setIdleListener(this);
+    mDecoder = new FrameDecoder(this);
+    mReader = new PortReader("SerialPortReader-" + handle, transport, config.gapMs(),
+        config.burstBytes(), pool, ioLoop, this);
+  }
+
+  void start() throws IOException {
+    mReader.start();
+    mWriter.start();
+    if (config.statsIntervalMs > 0) {
+      mScheduler.scheduleAtFixedRate(new Runnable() {
+        @Override
+        public void run() {
+          if (mStatsStream.isListening()) {
+            mStatsStream.send(stats());
+          }
+        }
+      }, config.statsIntervalMs, config.statsIntervalMs, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  void close() {
+    for (VendPlan plan : mPlans.values()) {
+      plan.cancel();
+    }
+    for (VendStateMachine vend : mVends.values()) {
+      vend.cancel();
+    }
+    stopStatusPolling();
+    mEngine.close();
+    cancelReplay();
+    stopCapture();
+    mDataChannel.setStreamHandler(null);
+    mFrameChannel.setStreamHandler(null);
+    mProgressChannel.setStreamHandler(null);
+    mStatsChannel.setStreamHandler(null);
+    mStatusChannel.setStreamHandler(null);
+    mBinaryChannel.setMessageHandler(null);
+    setBinaryDelivery(false);
+    mScheduler.shutdownNow();
+    mWriter.close();
+    mReader.close();
+    mBatcher.clear();
+    PendingRead read;
+    synchronized (mInbound) {
+      mInbound.clear();
+      read = mPendingRead;
+      mPendingRead = null;
+    }
+    if (read != null) {
+      read.result.error("NOT_OPEN", "Serial port closed", null);
+    }
+  }
+
+  CommandEngine engine() {
+    return mEngine;
+  }
+
+  /** Journals the port's dispensing commands and their outcomes to {@code journal}. */
+  void setJournal(VendJournal.Tracker journal) {
+    mJournal = journal;
+    mWriter.setJournal(journal);
+  }
+
+  /** The simulator answering this port, or null if it talks to real hardware. */
+  BoardSimulator simulator() {
+    return mTransport instanceof SimulatedTransport ? ((SimulatedTransport) mTransport).simulator() : null;
+  }
+
+  /** Writes {@code command} and completes {@code result} once it is on the wire. */
+  void submit(Command command, int[] args, Result result) {
+    CommandWriter.Request request = mWriter.obtain();
+    if (request == null) {
+      mStats.rejectedWrites.incrementAndGet();
+      result.error("QUEUE_FULL", "Write queue is full", writeQueueStatus());
+      return;
+    }
+    try {
+      CommandTable.encode(command, args, request);
+    } catch (IllegalArgumentException e) {
+      mWriter.recycle(request);
+      throw e;
+    }
+    request.callback = this;
+    request.tag = result;
+    mWriter.submit(request);
+  }
+
+  /**
+   * Writes the bytes remaining in {@code data} and completes {@code result}
+   * once they are on the wire. The bytes are copied into a pooled request
+   * before this returns, so {@code data} may be a buffer that is only valid
+   * during the call. Nothing to write fails with {@code BAD_ARGS}.
+   */
+  void write(ByteBuffer data, Result result) {
+    int length = data == null ? 0 : data.remaining();
+    if (length == 0) {
+      result.error("BAD_ARGS", "No data to write", null);
+      return;
+    }
+    CommandWriter.Request request = mWriter.obtain();
+    if (request == null) {
+      mStats.rejectedWrites.incrementAndGet();
+      result.error("QUEUE_FULL", "Write queue is full", writeQueueStatus());
+      return;
+    }
+    data.get(request.ensureCapacity(length), 0, length);
+    request.length = length;
+    request.callback = this;
+    request.tag = result;
+    mWriter.submit(request);
+  }
+
+  /**
+   * Sends received data on the binary channel instead of the event channel,
+   * as raw bytes without codec framing or a new array per batch.
+   */
+  void setBinaryDelivery(boolean enabled) {
+    synchronized (mInbound) {
+      mBinaryDelivery = enabled;
+      mBatcher.setBufferSink(enabled ? this : null);
+      postDrain();
+    }
+  }
+
+  /**
+   * Answers {@code result} with up to {@code maxBytes} received bytes, waiting
+   * up to {@code timeoutMs} for the first to arrive; with none by then the
+   * answer is empty. Only while nothing listens to the data stream, and one
+   * read at a time.
+   */
+  void read(int maxBytes, int timeoutMs, Result result) {
+    byte[] data;
+    synchronized (mInbound) {
+      if (hasConsumer()) {
+        result.error("BUSY", "Received data is delivered to a listener", null);
+        return;
+      }
+      if (mPendingRead != null) {
+        result.error("BUSY", "Another read is waiting", null);
+        return;
+      }
+      if (mInbound.isEmpty() && timeoutMs > 0) {
+        PendingRead read = new PendingRead(maxBytes, result);
+        try {
+          read.timeout = mScheduler.schedule(read, timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+          result.error("NOT_OPEN", "Serial port closed", null);
+          return;
+        }
+        mPendingRead = read;
+        return;
+      }
+      data = mInbound.take(maxBytes);
+    }
+    result.success(data);
+  }
+
+  /** Starts running {@code steps} and returns the plan id used in its progress events. */
+  int runPlan(List<VendPlan.Step> steps, boolean stopOnError) {
+    VendPlan plan;
+    synchronized (mPlans) {
+      plan = new VendPlan(mNextPlanId++, steps, stopOnError, mEngine, mScheduler, this);
+      mPlans.put(plan.id, plan);
+    }
+    plan.start();
+    return plan.id;
+  }
+
+  boolean cancelPlan(int planId) {
+    VendPlan plan = mPlans.get(planId);
+    if (plan == null) {
+      return false;
+    }
+    plan.cancel();
+    return true;
+  }
+
+  /**
+   * Starts vending from {@code slot} and returns the vend id used in its
+   * progress events. Throws IllegalArgumentException for bad timings.
+   */
+  int vend(int slot, int pollIntervalMs, int timeoutMs, int busyRetries, boolean reportSteps) {
+    VendStateMachine vend;
+    synchronized (mVends) {
+      vend = new VendStateMachine(mNextVendId, slot, pollIntervalMs, timeoutMs, busyRetries,
+          reportSteps, mEngine, mScheduler, this);
+      mNextVendId++;
+      mVends.put(vend.id, vend);
+    }
+    vend.start();
+    return vend.id;
+  }
+
+  boolean cancelVend(int vendId) {
+    VendStateMachine vend = mVends.get(vendId);
+    if (vend == null) {
+      return false;
+    }
+    vend.cancel();
+    return true;
+  }
+
+  /**
+   * Replaces any running status polls with {@code commands[i]} every
+   * {@code intervalsMs[i]}. Throws IllegalArgumentException for commands that
+   * cannot be polled.
+   */
+  synchronized void startStatusPolling(List<Command> commands, List<Integer> intervalsMs) {
+    StatusPoller poller = new StatusPoller(mEngine, mScheduler, this, this);
+    for (int i = 0; i < commands.size(); i++) {
+      poller.add(commands.get(i), intervalsMs.get(i));
+    }
+    stopStatusPolling();
+    mStatusPoller = poller;
+    poller.start();
+  }
+
+  synchronized void stopStatusPolling() {
+    if (mStatusPoller != null) {
+      mStatusPoller.stop();
+      mStatusPoller = null;
+    }
+  }
+
+  /** The latest status of every polled command. */
+  synchronized List<Map<String, Object>> status() {
+    return mStatusPoller != null ? mStatusPoller.current()
+        : new ArrayList<Map<String, Object>>();
+  }
+
+  /**
+   * Starts recording the port's traffic to segment files in {@code directory}.
+   * Returns false if a capture is already running.
+   */
+  synchronized boolean startCapture(File directory, int segmentBytes, int maxSegments)
+      throws IOException {
+    if (mCapture != null) {
+      return false;
+    }
+    mCapture = new CaptureWriter(directory, "port" + handle + "-" + System.currentTimeMillis(),
+        segmentBytes, maxSegments);
+    mWriter.setCapture(mCapture);
+    return true;
+  }
+
+  /** Stops recording and returns the paths of the capture's segments, oldest first. */
+  synchronized List<String> stopCapture() {
+    List<String> paths = new ArrayList<String>();
+    CaptureWriter capture = mCapture;
+    if (capture == null) {
+      return paths;
+    }
+    mWriter.setCapture(null);
+    mCapture = null;
+    for (File file : capture.close()) {
+      paths.add(file.getAbsolutePath());
+    }
+    return paths;
+  }
+
+  /**
+   * Feeds the inbound traffic of a capture through this port's receive path
+   * as if it had just been read, and completes {@code result} with the number
+   * of records replayed. A {@code speed} of 0 replays as fast as possible.
+   * Replayed frames only reach the frame stream, see {@link ReplayFeed}.
+   */
+  synchronized void replay(List<File> segments, double speed, final Result result) {
+    if (mReplayer != null) {
+      result.error("BUSY", "A replay is already running", null);
+      return;
+    }
+    // Replayed bytes get their own decoder so they never interleave with a
+    // frame the port is reading at the same time, and their frames only go
+    // to the frame stream.
+    ReplayFeed feed = new ReplayFeed(mPool, new FrameDecoder.Listener() {
+      @Override
+      public void onFrame(int type, byte[] frame, int length) {
+        sendFrame(type, frame, length);
+      }
+    }) {
+      @Override
+      void onChunk(ReadBufferPool.Chunk chunk) {
+        onDataReceived(chunk);
+      }
+
+      @Override
+      public void onReplayFinished(long records, IOException error) {
+        synchronized (PortSession.this) {
+          mReplayer = null;
+        }
+        if (error != null) {
+          result.error("REPLAY_FAILED", error.getMessage(), records);
+        } else {
+          result.success(records);
+        }
+      }
+    };
+    mReplayer = new Replayer("SerialPortReplay-" + handle, segments, speed, feed);
+    mReplayer.start();
+  }
+
+  synchronized boolean cancelReplay() {
+    if (mReplayer == null) {
+      return false;
+    }
+    mReplayer.cancel();
+    return true;
+  }
+
+  /** Counters and latency histograms of this port, see {@link PortStats}. */
+  Map<String, Object> stats() {
+    Map<String, Object> stats = mStats.toMap();
+    stats.put("discardedBytes", mDecoder.discardedCount());
+    stats.put("writeQueueDepth", mWriter.depth());
+    stats.put("pendingRequests", mEngine.pendingCount());
+    stats.put("inboundBytes", mInbound.size());
+    stats.put("droppedBytes", mInbound.droppedBytes());
+    CaptureWriter capture = mCapture;
+    if (capture != null) {
+      stats.put("captureRecords", capture.recordCount());
+      stats.put("captureDropped", capture.droppedCount());
+    }
+    return stats;
+  }
+
+  Map<String, Object> writeQueueStatus() {
+    Map<String, Object> status = new HashMap<String, Object>(4);
+    status.put("depth", mWriter.depth());
+    status.put("capacity", mWriter.capacity());
+    return status;
+  }
+
+  @Override
+  public void onChunk(ReadBufferPool.Chunk chunk) {
+    if (DEBUG) {
+      Log.d(TAG, "read size: " + chunk.length);
+    }
+    CaptureWriter capture = mCapture;
+    if (capture != null) {
+      capture.record(CaptureWriter.IN, chunk.readAt, chunk.data, 0, chunk.length);
+    }
+    mStats.bytesIn.addAndGet(chunk.length);
+    mStats.readSize.record(chunk.length);
+    mDecoder.feed(chunk.data, 0, chunk.length);
+    onDataReceived(chunk);
+  }
+
+  @Override
+  public void onReadError(IOException error) {
+    Log.e(TAG, error.toString());
+  }
+
+  /**
+   * Batches {@code chunk} for a listener, or buffers it while there is none,
+   * while older bytes are still buffered, or while the batcher holds every
+   * other read buffer because the main looper falls behind.
+   */
+  private void onDataReceived(ReadBufferPool.Chunk chunk) {
+    PendingRead read;
+    byte[] data;
+    synchronized (mInbound) {
+      boolean consumer = hasConsumer();
+      if (consumer && mInbound.isEmpty() && mPool.hasFree()) {
+        mBatcher.add(chunk);
+        return;
+      }
+      if (mInbound.offer(chunk) > 0) {
+        mStats.droppedReads.incrementAndGet();
+      }
+      if (consumer) {
+        postDrain();
+        return;
+      }
+      if (mPendingRead == null) {
+        return;
+      }
+      read = mPendingRead;
+      mPendingRead = null;
+      data = mInbound.take(read.maxBytes);
+    }
+    read.timeout.cancel(false);
+    read.result.success(data);
+  }
+
+  /** Must hold the mInbound lock. */
+  private boolean hasConsumer() {
+    return mBinaryDelivery || mDataStream.isListening();
+  }
+
+  /** Must hold the mInbound lock. */
+  private void postDrain() {
+    if (!mDrainPosted && hasConsumer() && !mInbound.isEmpty()) {
+      mDrainPosted = true;
+      mHandler.post(mDrain);
+    }
+  }
+
+  @Override
+  public void onBatch(byte[] data, long firstReadAt) {
+    mDataStream.deliver(data);
+    mStats.deliveryLatency.recordSince(firstReadAt);
+  }
+
+  @Override
+  public ByteBuffer obtainBuffer(int size) {
+    if (mBinaryBuffer == null || mBinaryBuffer.capacity() < size) {
+      mBinaryBuffer = ByteBuffer.allocateDirect(Math.max(size, config.batchBytes + config.readBufferSize));
+    }
+    mBinaryBuffer.clear();
+    return mBinaryBuffer;
+  }
+
+  @Override
+  public void onBatch(ByteBuffer data, long firstReadAt) {
+    // The engine copies the bytes up to the buffer's position before send
+    // returns, so the buffer is free again for the next batch.
+    mBinaryChannel.send(data);
+    mStats.deliveryLatency.recordSince(firstReadAt);
+  }
+
+  @Override
+  public void onFrame(int type, byte[] frame, int length) {
+    mStats.framesIn.incrementAndGet();
+    VendJournal.Tracker journal = mJournal;
+    if (journal != null) {
+      journal.onFrame(type, frame, length);
+    }
+    mEngine.onFrame(type, frame, length);
+    sendFrame(type, frame, length);
+  }
+
+  /** Sends {@code frame} on the frame event stream, if anyone listens. */
+  private void sendFrame(int type, byte[] frame, int length) {
+    if (!mFrameStream.isListening()) {
+      return;
+    }
+    Map<String, Object> event = new HashMap<String, Object>(4);
+    event.put("type", FrameDecoder.typeName(type));
+    event.put("data", Arrays.copyOf(frame, length));
+    mFrameStream.send(event);
+  }
+
+  @Override
+  public void onWriting(CommandWriter.Request request) {
+  }
+
+  @Override
+  public void onWritten(CommandWriter.Request request) {
+    ((Result) request.tag).success(true);
+  }
+
+  @Override
+  public void onWriteFailed(CommandWriter.Request request, IOException error) {
+    ((Result) request.tag).error("WRITE_FAILED", error.getMessage(), null);
+  }
+
+  @Override
+  public void onStep(VendPlan plan, int index, byte[] frame, String code, String message) {
+    if (!mProgressStream.isListening()) {
+      return;
+    }
+    Map<String, Object> event = new HashMap<String, Object>(8);
+    event.put("plan", plan.id);
+    event.put("step", index);
+    event.put("ok", code == null);
+    event.put("frame", frame);
+    event.put("code", code);
+    event.put("message", message);
+    mProgressStream.send(event);
+  }
+
+  @Override
+  public void onFinished(VendPlan plan, String status, int completed) {
+    mPlans.remove(plan.id);
+    Map<String, Object> event = new HashMap<String, Object>(8);
+    event.put("plan", plan.id);
+    event.put("done", true);
+    event.put("status", status);
+    event.put("completed", completed);
+    mProgressStream.send(event);
+    onIdle();
+  }
+
+  @Override
+  public void onVendStep(VendStateMachine vend, String state, byte[] frame) {
+    if (!mProgressStream.isListening()) {
+      return;
+    }
+    Map<String, Object> event = new HashMap<String, Object>(8);
+    event.put("vend", vend.id);
+    event.put("slot", vend.slot);
+    event.put("state", state);
+    event.put("frame", frame);
+    mProgressStream.send(event);
+  }
+
+  @Override
+  public void onVendFinished(VendStateMachine vend, String outcome, int fault, String code,
+      String message) {
+    mVends.remove(vend.id);
+    Map<String, Object> event = new HashMap<String, Object>(8);
+    event.put("vend", vend.id);
+    event.put("slot", vend.slot);
+    event.put("done", true);
+    event.put("outcome", outcome);
+    event.put("fault", fault);
+    event.put("code", code);
+    event.put("message", message);
+    mProgressStream.send(event);
+    onIdle();
+  }
+
+  @Override
+  public boolean isBusy() {
+    return !mPlans.isEmpty() || !mVends.isEmpty() || mEngine.pendingCount() > 0 || mWriter.depth() > 0;
+  }
+
+  /** Lets status polls that came due while the port was busy go out. */
+  @Override
+  public void onIdle() {
+    StatusPoller poller = mStatusPoller;
+    if (poller != null) {
+      poller.onIdle();
+    }
+  }
+
+  @Override
+  public void onStatusChanged(Map<String, Object> event) {
+    mStatusStream.send(event);
+  }
+
+  private static EventChannel eventChannel(BinaryMessenger messenger, String name,
+      BinaryMessenger.TaskQueue taskQueue) {
+    return new EventChannel(messenger, name, StandardMethodCodec.INSTANCE, taskQueue);
+  }
+
+  private static ByteBuffer status(int code) {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(1);
+    buffer.put((byte) code);
+    return buffer;
+  }
+}
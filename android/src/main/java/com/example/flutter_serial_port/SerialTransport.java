@@ -0,0 +1,68 @@
+package com.example.flutter_serial_port;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import android.serialport.SerialPort;
+import android.util.Log;
+
+/**
+ * A serial device opened through Android-SerialPort-API, with the line
+ * settings of its {@link PortConfig} applied on top.
+ */
+class SerialTransport implements Transport {
+
+  private static final String TAG = "FlutterSerialPortPlugin";
+
+  private final SerialPort mSerialPort;
+  /**
+   * A second, read-only and non-blocking descriptor on the device for the I/O
+   * loop. The library's descriptor also carries the writes, which must keep
+   * blocking while the line is busy.
+   */
+  private final int mReadFd;
+
+  SerialTransport(File device, PortConfig config) throws IOException {
+    mSerialPort = new SerialPort(device, config.baudrate, 0);
+    try {
+      Termios.apply(descriptor(), config);
+      mReadFd = NativeIo.open(device.getAbsolutePath(), true);
+    } catch (IOException e) {
+      mSerialPort.close();
+      throw e;
+    }
+  }
+
+  @Override
+  public InputStream inputStream() {
+    return mSerialPort.getInputStream();
+  }
+
+  @Override
+  public OutputStream outputStream() {
+    return mSerialPort.getOutputStream();
+  }
+
+  @Override
+  public int fd() {
+    return mReadFd;
+  }
+
+  @Override
+  public void close() {
+    try {
+      NativeIo.close(mReadFd);
+    } catch (IOException e) {
+      Log.e(TAG, e.toString());
+    }
+    mSerialPort.close();
+  }
+
+  private FileDescriptor descriptor() throws IOException {
+    return ((FileInputStream) mSerialPort.getInputStream()).getFD();
+  }
+}
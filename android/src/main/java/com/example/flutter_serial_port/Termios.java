@@ -0,0 +1,43 @@
+package com.example.flutter_serial_port;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+
+/**
+ * Line settings that Android-SerialPort-API leaves at its raw-mode defaults:
+ * character size, parity, stop bits, flow control and the {@code VMIN} /
+ * {@code VTIME} read conditions, applied with {@code tcsetattr(3)}.
+ */
+class Termios {
+
+  static {
+    System.loadLibrary("serial_termios");
+  }
+
+  private Termios() {}
+
+  /**
+   * Applies {@code config}'s line settings to the open terminal {@code fd}.
+   *
+   * In frame-gap mode every byte is reported as it arrives ({@code VMIN} 1,
+   * {@code VTIME} 0) and {@link PortReader} measures the gap itself, to the
+   * millisecond. Otherwise {@code vmin} and {@code vtime} are used as given, or
+   * left alone while negative. The I/O loop's reads never block, so they only
+   * act through {@code poll(2)}: with {@code VTIME} 0 the port is reported
+   * readable once {@code VMIN} bytes are queued. {@code VTIME} is timed by
+   * {@link PortReader}, see {@link PortConfig#gapMs()}.
+   */
+  static void apply(FileDescriptor fd, PortConfig config) throws IOException {
+    int vmin = config.vmin;
+    int vtime = config.vtime;
+    if (config.frameGapMs > 0) {
+      vmin = 1;
+      vtime = 0;
+    }
+    configure(fd, config.dataBits, config.parity, config.stopBits, config.flowControl, vmin, vtime);
+  }
+
+  /** Negative arguments keep the current setting. */
+  private static native void configure(FileDescriptor fd, int dataBits, int parity, int stopBits,
+      int flowControl, int vmin, int vtime) throws IOException;
+}
@@ -4,8 +4,7 @@ import android.os.Bundle;
 import android.os.Build;
 import android.util.Log;
 
-import io.flutter.app.FlutterActivity;
-import io.flutter.plugins.GeneratedPluginRegistrant;
+import io.flutter.embedding.android.FlutterActivity;
 
 public class MainActivity extends FlutterActivity {
   @Override
@@ -17,7 +16,7 @@ public class MainActivity extends FlutterActivity {
       getIntent().putExtra("enable-software-rendering", true);
     }
 
+    // Plugins are registered with the engine by FlutterActivity.
     super.onCreate(savedInstanceState);
-    GeneratedPluginRegistrant.registerWith(this);
   }
 }
@@ -16,3 +16,56 @@ List<int> kBaudrateList = [
   128000,
   256000
 ];
+
+/// Command ids accepted by [SerialPort.command].
+///
+/// Commands marked "data" take the slot or temperature as their only argument.
+class TcnCommand {
+  static const int withoutElevatorDrop1withoutSensor = 0;
+  /// data: slot
+  static const int withoutElevatorDropWithoutSensor = 1;
+  static const int withoutElevatorDrop1WithSensor = 2;
+  /// data: slot
+  static const int withoutElevatorDropWithSensor = 3;
+  static const int withoutElevatorTurnAll = 4;
+  static const int allSingleSlot = 5;
+  static const int statusDoor = 6;
+  static const int closeDoor = 7;
+  static const int openBuzzer = 8;
+  static const int closeBuzzer = 9;
+  static const int glassHeatingOn = 10;
+  static const int glassHeatingOff = 11;
+  static const int lightOn = 12;
+  static const int lightOff = 13;
+  static const int heatingMode = 14;
+  static const int refriMode = 15;
+  /// data: slot
+  static const int setDouble = 16;
+  /// data: slot
+  static const int setSingle = 17;
+  static const int set1And2Single = 18;
+  static const int getTemp = 19;
+  static const int noControlTemp = 20;
+  static const int controlTemp = 21;
+  static const int defrostingTimeFor20min = 22;
+  static const int compressor120Minutes = 23;
+  static const int temperatureDifferenceSetTo2 = 24;
+  static const int temperatureCompensationSetTo1 = 25;
+  /// data: temperature
+  static const int setTemp = 26;
+  static const int setTempTo5 = 27;
+  /// data: slot
+  static const int checkValid1 = 28;
+  static const int driveBoardStatus = 29;
+  static const int statusElevator = 30;
+  /// data: slot
+  static const int shipment = 31;
+  /// data: slot; the device waits 200 ms after sending it
+  static const int shipmentPaced = 32;
+  static const int clearElevatorFault = 33;
+  static const int backElevatorToOrigin = 34;
+  /// args: the raw bytes to write
+  static const int raw = 35;
+  /// args: `[from, to, slot]` with `0 <= from <= to <= 255`
+  static const int shipmentRange = 36;
+}
@@ -7,6 +7,7 @@ import 'package:flutter/services.dart';
 /// 
 class FlutterSerialPort {
   static const MethodChannel _channel = const MethodChannel('serial_port');
+  static Stream<DeviceEvent> _deviceEvents;
 
   /// Default plugin function
   static Future<String> get platformVersion async {
@@ -15,15 +16,43 @@ class FlutterSerialPort {
   }
 
   /// List all devices
+  ///
+  /// While [deviceEvents] is listened to, the list is cached on the Android
+  /// side and kept current by watching `/dev`, so calling this again is
+  /// cheap. Otherwise each call scans `/dev`.
   static Future<List<Device>> listDevices() async {
-    List devices = await _channel.invokeMethod("getAllDevices");
-    List devicesPath = await _channel.invokeMethod("getAllDevicesPath");
+    List devices = await _channel.invokeMethod("listDevices");
+    return devices
+        .map<Device>((dynamic device) => Device(device['name'], device['path']))
+        .toList();
+  }
 
-    List<Device> deviceList = List<Device>();
-    devices.asMap().forEach((index, deviceName) {
-      deviceList.add(Device(deviceName, devicesPath[index]));
-    });
-    return deviceList;
+  /// Serial devices plugged in or removed while the stream is listened to
+  static Stream<DeviceEvent> get deviceEvents {
+    _deviceEvents ??= EventChannel("${_channel.name}/devices")
+        .receiveBroadcastStream()
+        .map<DeviceEvent>((dynamic event) => DeviceEvent._fromEvent(event));
+    return _deviceEvents;
+  }
+
+  /// Dispensing commands that were sent but never seen to finish
+  ///
+  /// Every dispensing command is journaled natively until its outcome is
+  /// known, so after a crash or restart this lists the vends that may or may
+  /// not have dispensed. Reconcile them, then pass their [InDoubtVend.txn]s to
+  /// [resolveVends]. Both fail with `NO_JOURNAL` and the cause if the journal
+  /// could not be opened, and with `JOURNAL_FAILED` once storage failed and
+  /// it stopped recording.
+  static Future<List<InDoubtVend>> inDoubtVends() async {
+    List vends = await _channel.invokeMethod("getInDoubtVends");
+    return vends
+        .map<InDoubtVend>((dynamic vend) => InDoubtVend._fromMap(vend))
+        .toList();
+  }
+
+  /// Remove reconciled vends from the journal; returns how many were in doubt
+  static Future<int> resolveVends(List<int> txns) async {
+    return await _channel.invokeMethod("resolveVends", {"txns": txns});
   }
 
   /// Create an [SerialPort] instance
@@ -34,67 +63,921 @@ class FlutterSerialPort {
 
 /// [SerialPort] instance manage all channels between Android and Flutter, [Device] object.
 /// Also provides handy methods, like [open], [close], [write] and [receiveStream].
+///
+/// Several [SerialPort]s can be open at the same time; each one talks to its
+/// own native port through the handle returned by [open].
 class SerialPort {
   MethodChannel _channel;
-  EventChannel _eventChannel;
   Stream _eventStream;
+  Stream _progressStream;
   Device device;
   int baudrate;
   bool _deviceConnected;
+  int _handle;
 
   SerialPort(String methodChannelName, Device device, int baudrate) {
     this.device = device;
     this.baudrate = baudrate;
     this._channel = MethodChannel(methodChannelName);
-    this._eventChannel = EventChannel("$methodChannelName/event");
     this._deviceConnected = false;
   }
 
   bool get isConnected => _deviceConnected;
 
+  /// Native handle of the open port, `null` while closed
+  int get handle => _handle;
+
   /// Stream(Event) coming from Android
   Stream<Uint8List> get receiveStream {
-    _eventStream = _eventChannel.receiveBroadcastStream().map<Uint8List>((dynamic value) => value);
+    _eventStream = _portEventChannel("event")
+        .receiveBroadcastStream()
+        .map<Uint8List>((dynamic value) => value);
     return _eventStream;
   }
 
+  /// Stream of complete, checked protocol [Frame]s decoded on the Android side
+  Stream<Frame> get frameStream {
+    return _portEventChannel("frame")
+        .receiveBroadcastStream()
+        .map<Frame>((dynamic value) => Frame._fromEvent(value));
+  }
+
+  EventChannel _portEventChannel(String name) {
+    if (_handle == null) {
+      throw StateError("$this is not open");
+    }
+    return EventChannel("${_channel.name}/$name/$_handle");
+  }
+
+  Future<T> _invokePortMethod<T>(String method, [Map<String, dynamic> arguments]) {
+    final Map<String, dynamic> withHandle = {"handle": _handle};
+    if (arguments != null) {
+      withHandle.addAll(arguments);
+    }
+    return _channel.invokeMethod(method, withHandle);
+  }
+
   @override
   String toString() {
     return "SerialPort($device, $baudrate)";
   }
 
   /// Open device
-  Future<bool> open() async {
-    bool openResult = await _channel.invokeMethod(
-        "open", {'devicePath': device.path, 'baudrate': baudrate});
+  ///
+  /// [readBufferSize] is the size of each native read buffer, in bytes.
+  /// Received bytes are coalesced into one [receiveStream] event until
+  /// [batchBytes] bytes are pending or [batchLatencyMs] milliseconds have
+  /// passed since the first of them arrived. A [batchLatencyMs] of 0 delivers
+  /// every read on its own. At most [maxInFlight] [request]s are written
+  /// before their replies arrive, and only one of them to the TCN board,
+  /// whose replies can only be paired by order; further requests wait
+  /// natively. Commands that need no pacing and are queued back to back are
+  /// merged into writes of up to [coalesceBytes], waiting at most
+  /// [coalesceDelayMs] for more; a [coalesceBytes] of 0 writes each on its own. A positive
+  /// [statsIntervalMs] makes [statsStream] report [getStats] periodically.
+  ///
+  /// [transport] selects what the port talks to: the serial device, a
+  /// pseudo-terminal at the device path, or the built-in board simulator, see
+  /// [configureSimulator].
+  ///
+  /// [dataBits], [parity], [stopBits] and [flowControl] set the serial line.
+  /// [vmin] and [vtime] (in tenths of a second) are the termios read
+  /// conditions; `null` keeps the driver's. Ports are read without blocking,
+  /// so with a [vtime] of 0 the driver wakes the reader once [vmin] bytes
+  /// have arrived, and a [vtime] with a [vmin] above 1 is timed natively: up
+  /// to [vmin] bytes, or what arrived before that much quiet, make one read.
+  /// A positive [frameGapMs] instead gathers received bytes natively until
+  /// the line has been quiet that many milliseconds, so each burst, usually a
+  /// whole frame, arrives as one read. Line settings only apply to
+  /// [PortTransport.serial]; [frameGapMs] and the timing of [vtime] also apply
+  /// to [PortTransport.pty].
+  ///
+  /// Up to [inboundBytes] received bytes are kept natively while nothing
+  /// listens to [receiveStream] or [binaryStream], or while delivery falls
+  /// behind; [overflowPolicy] decides what happens beyond that. A new listener
+  /// first gets the buffered bytes, and [read] takes them on demand.
+  Future<bool> open({
+    PortTransport transport = PortTransport.serial,
+    int dataBits = 8,
+    Parity parity = Parity.none,
+    int stopBits = 1,
+    FlowControl flowControl = FlowControl.none,
+    int vmin,
+    int vtime,
+    int frameGapMs = 0,
+    int readBufferSize = 64,
+    int batchBytes = 512,
+    int batchLatencyMs = 5,
+    int inboundBytes = 65536,
+    OverflowPolicy overflowPolicy = OverflowPolicy.dropOldest,
+    int maxInFlight = 4,
+    int coalesceBytes = 256,
+    int coalesceDelayMs = 0,
+    int statsIntervalMs = 0,
+  }) async {
+    int handle = await _channel.invokeMethod("open", {
+      'devicePath': device.path,
+      'baudrate': baudrate,
+      'transport': transport.toString().split('.').last,
+      'dataBits': dataBits,
+      'parity': parity.toString().split('.').last,
+      'stopBits': stopBits,
+      'flowControl': flowControl.toString().split('.').last,
+      'vmin': vmin,
+      'vtime': vtime,
+      'frameGapMs': frameGapMs,
+      'readBufferSize': readBufferSize,
+      'batchBytes': batchBytes,
+      'batchLatencyMs': batchLatencyMs,
+      'inboundBytes': inboundBytes,
+      'overflowPolicy': overflowPolicy.toString().split('.').last,
+      'maxInFlight': maxInFlight,
+      'coalesceBytes': coalesceBytes,
+      'coalesceDelayMs': coalesceDelayMs,
+      'statsIntervalMs': statsIntervalMs,
+    });
 
-    if (openResult) {
+    if (handle != null) {
+      _handle = handle;
       _deviceConnected = true;
     }
 
-    return openResult;
+    return handle != null;
   }
 
   /// Close device
   Future<bool> close() async {
-    bool closeResult = await _channel.invokeMethod("close");
+    bool closeResult = await _invokePortMethod("close");
 
     if (closeResult) {
       _deviceConnected = false;
+      _handle = null;
+      _progressStream = null;
     }
 
     return closeResult;
   }
 
   /// Write data to device
-  Future<void> write(Uint8List data) async {
-    print("teste01");
-    print(data);
-    return await _channel.invokeMethod("write", {"data": data});
+  ///
+  /// Completes once the bytes have been written. Throws a [PlatformException]
+  /// with code `QUEUE_FULL` when the native write queue is full, or `BAD_ARGS`
+  /// when [data] is empty.
+  Future<bool> write(Uint8List data) async {
+    return await _invokePortMethod("write", {"data": data});
+  }
+
+  /// Up to [maxBytes] received bytes, the pull alternative to [receiveStream]
+  ///
+  /// Returns the buffered bytes right away, or waits up to [timeoutMs] for
+  /// some to arrive and returns an empty list if none do. Throws a
+  /// [PlatformException] with code `BUSY` while [receiveStream] or
+  /// [binaryStream] is listened to, or while another read is waiting.
+  Future<Uint8List> read(int maxBytes, {int timeoutMs = 0}) async {
+    return await _invokePortMethod("read", {"maxBytes": maxBytes, "timeoutMs": timeoutMs});
+  }
+
+  /// Same as [write], but sent as a raw binary message without codec framing
+  Future<bool> writeBinary(Uint8List data) async {
+    ByteData status = await _binaryChannel()
+        .send(data.buffer.asByteData(data.offsetInBytes, data.lengthInBytes));
+    if (status == null) {
+      throw StateError("$this is not open");
+    }
+    switch (status.getUint8(0)) {
+      case 0:
+        return true;
+      case 1:
+        throw PlatformException(code: "QUEUE_FULL", message: "Write queue is full");
+      case 3:
+        throw PlatformException(code: "BAD_ARGS", message: "No data to write");
+      default:
+        throw PlatformException(code: "WRITE_FAILED", message: "Write failed");
+    }
+  }
+
+  /// Received bytes as raw binary messages, the fast alternative to
+  /// [receiveStream]
+  ///
+  /// Batches are sent natively from a reused direct buffer without codec
+  /// framing. While this stream is listened to, [receiveStream] gets nothing.
+  Stream<Uint8List> get binaryStream {
+    final BasicMessageChannel<ByteData> channel = _binaryChannel();
+    StreamController<Uint8List> controller;
+    controller = StreamController<Uint8List>(onListen: () {
+      channel.setMessageHandler((ByteData message) async {
+        controller.add(message.buffer.asUint8List(message.offsetInBytes, message.lengthInBytes));
+        return null;
+      });
+      _invokePortMethod('setBinaryDelivery', {"enabled": true});
+    }, onCancel: () {
+      channel.setMessageHandler(null);
+      if (_handle != null) {
+        _invokePortMethod('setBinaryDelivery', {"enabled": false});
+      }
+    });
+    return controller.stream;
+  }
+
+  BasicMessageChannel<ByteData> _binaryChannel() {
+    if (_handle == null) {
+      throw StateError("$this is not open");
+    }
+    return BasicMessageChannel<ByteData>("${_channel.name}/data/$_handle", BinaryCodec());
   }
 
   Future <void> sendCommand(String command, String data) async {
-    return await _channel.invokeMethod('tcnCommand', jsonEncode({"command": command, "data": data}));
+    return await _channel.invokeMethod(
+        'tcnCommand', jsonEncode({"handle": _handle, "command": command, "data": data}));
+  }
+
+  /// Send a board command by id (see `TcnCommand` in `constants.dart`)
+  ///
+  /// Completes once the bytes have been written to the device. Throws a
+  /// [PlatformException] with code `QUEUE_FULL` when the native write queue
+  /// is full; its `details` hold the current [WriteQueueStatus] fields.
+  Future<bool> command(int commandId, [List<int> args = const []]) async {
+    return await _invokePortMethod('command', {"id": commandId, "args": args});
+  }
+
+  /// Send a board command and wait for the frame the board answers with
+  ///
+  /// Completes with the reply frame, or with `null` for commands that have
+  /// no reply. When no reply arrives within [timeoutMs] the command is sent
+  /// again up to [retries] times before failing with a [PlatformException]
+  /// with code `TIMEOUT`.
+  Future<Uint8List> request(int commandId,
+      {List<int> args = const [], int timeoutMs = 1000, int retries = 1}) async {
+    return await _invokePortMethod('request', {
+      "id": commandId,
+      "args": args,
+      "timeoutMs": timeoutMs,
+      "retries": retries,
+    });
+  }
+
+  /// Run [steps] one after the other on the Android side
+  ///
+  /// The whole plan costs one platform call; each step is sent once the
+  /// previous one has completed and its [VendStep.delayMs] has passed. With
+  /// [stopOnError] a failed step ends the plan. Progress is reported on the
+  /// returned [VendPlanRun].
+  Future<VendPlanRun> runPlan(List<VendStep> steps, {bool stopOnError = true}) async {
+    _progressStream ??= _portEventChannel("progress").receiveBroadcastStream();
+    final StreamController<VendStepResult> progress = StreamController<VendStepResult>();
+    final Completer<VendPlanResult> done = Completer<VendPlanResult>();
+    int planId;
+    StreamSubscription subscription;
+    // Progress events are only sent after the call below has returned the plan
+    // id, but the channel must already be listened to when the plan starts.
+    subscription = _progressStream.listen((dynamic event) {
+      if (event['plan'] == null || event['plan'] != planId) {
+        return;
+      }
+      if (event['done'] == true) {
+        subscription.cancel();
+        progress.close();
+        done.complete(VendPlanResult._fromEvent(event));
+      } else {
+        progress.add(VendStepResult._fromEvent(event));
+      }
+    });
+    try {
+      planId = await _invokePortMethod('runPlan', {
+        "steps": steps.map((step) => step._toMap()).toList(),
+        "stopOnError": stopOnError,
+      });
+    } catch (e) {
+      subscription.cancel();
+      rethrow;
+    }
+    return VendPlanRun._(this, planId, progress.stream, done.future);
+  }
+
+  /// Vend from [slot] with the elevator, run entirely on the Android side
+  ///
+  /// Sends `shipment`, polls `statusElevator` every [pollIntervalMs] until the
+  /// elevator has reported busy and is idle again, and clears a fault and
+  /// sends the elevator home if it reports one. Each command goes out as soon
+  /// as the previous reply is in, without the fixed elevator pauses. A busy elevator is waited for
+  /// and the shipment retried up to [busyRetries] times. With [stepEvents]
+  /// every state the vend enters is reported on [VendRun.steps]; the outcome
+  /// completes [VendRun.done].
+  Future<VendRun> vend(int slot,
+      {bool stepEvents = false,
+      int pollIntervalMs = 100,
+      int timeoutMs = 30000,
+      int busyRetries = 3}) async {
+    _progressStream ??= _portEventChannel("progress").receiveBroadcastStream();
+    final StreamController<VendStepEvent> steps = StreamController<VendStepEvent>();
+    final Completer<VendResult> done = Completer<VendResult>();
+    int vendId;
+    StreamSubscription subscription;
+    subscription = _progressStream.listen((dynamic event) {
+      if (event['vend'] == null || event['vend'] != vendId) {
+        return;
+      }
+      if (event['done'] == true) {
+        subscription.cancel();
+        steps.close();
+        done.complete(VendResult._fromEvent(event));
+      } else {
+        steps.add(VendStepEvent._fromEvent(event));
+      }
+    });
+    try {
+      vendId = await _invokePortMethod('vend', {
+        "slot": slot,
+        "stepEvents": stepEvents,
+        "pollIntervalMs": pollIntervalMs,
+        "timeoutMs": timeoutMs,
+        "busyRetries": busyRetries,
+      });
+    } catch (e) {
+      subscription.cancel();
+      rethrow;
+    }
+    return VendRun._(this, vendId, steps.stream, done.future);
+  }
+
+  /// Counters and latency histograms kept natively since the port was opened
+  Future<SerialPortStats> getStats() async {
+    return SerialPortStats._fromMap(await _invokePortMethod('getStats'));
+  }
+
+  /// [getStats] every `statsIntervalMs` given to [open]
+  Stream<SerialPortStats> get statsStream {
+    return _portEventChannel("stats")
+        .receiveBroadcastStream()
+        .map<SerialPortStats>((dynamic value) => SerialPortStats._fromMap(value));
+  }
+
+  /// Poll each [StatusPoll.command] natively every [StatusPoll.intervalMs],
+  /// replacing any polls already running
+  ///
+  /// Polls are staggered, wait while other commands are queued or awaiting a
+  /// reply, and report to [statusStream] only when a reply differs from the
+  /// previous one or the query starts failing.
+  Future<bool> startStatusPolling(List<StatusPoll> polls) async {
+    return await _invokePortMethod('startStatusPolling', {
+      "polls": polls.map((poll) => poll._toMap()).toList(),
+    });
+  }
+
+  Future<bool> stopStatusPolling() async {
+    return await _invokePortMethod('stopStatusPolling');
+  }
+
+  /// Latest result of every polled command
+  Future<List<StatusChange>> getStatus() async {
+    List status = await _invokePortMethod('getStatus');
+    return status.map<StatusChange>((dynamic event) => StatusChange._fromEvent(event)).toList();
+  }
+
+  /// Changes found by [startStatusPolling]
+  Stream<StatusChange> get statusStream {
+    return _portEventChannel("status")
+        .receiveBroadcastStream()
+        .map<StatusChange>((dynamic event) => StatusChange._fromEvent(event));
+  }
+
+  /// Start recording every block read from or written to the device
+  ///
+  /// Blocks are stored with a timestamp in memory-mapped segment files of
+  /// [segmentBytes] in [directory]; only the newest [maxSegments] files are
+  /// kept. Returns false if a capture is already running.
+  Future<bool> startCapture(String directory,
+      {int segmentBytes = 4 * 1024 * 1024, int maxSegments = 4}) async {
+    return await _invokePortMethod('startCapture', {
+      "directory": directory,
+      "segmentBytes": segmentBytes,
+      "maxSegments": maxSegments,
+    });
+  }
+
+  /// Stop recording and return the capture's files, oldest first
+  Future<List<String>> stopCapture() async {
+    List files = await _invokePortMethod('stopCapture');
+    return files.cast<String>();
+  }
+
+  /// Feed the received bytes of a capture through [receiveStream] and
+  /// [frameStream] as if the device had just sent them
+  ///
+  /// Replayed frames never answer pending [request]s, vends or status polls,
+  /// never settle shipments in the vend journal and are not counted in
+  /// [getStats].
+  ///
+  /// A [speed] of 1.0 keeps the recorded timing, 2.0 replays twice as fast
+  /// and 0 as fast as possible. Completes with the number of inbound records
+  /// replayed.
+  Future<int> replay(List<String> files, {double speed = 1.0}) async {
+    return await _invokePortMethod('replay', {"files": files, "speed": speed});
+  }
+
+  /// Stop a running [replay]; it then fails with code `REPLAY_FAILED`
+  Future<bool> cancelReplay() async {
+    return await _invokePortMethod('cancelReplay');
+  }
+
+  /// Change how the board simulator behind a [PortTransport.simulator] port
+  /// answers; settings left `null` keep their value
+  ///
+  /// Replies are sent after [replyDelayMs] plus up to [jitterMs], and
+  /// [dropPercent] / [corruptPercent] of them are lost or damaged. A shipment
+  /// keeps the elevator busy for [vendMs] and then reports [nextVendFault],
+  /// if not 0. Fails with code `NOT_SIMULATED` on other ports.
+  Future<bool> configureSimulator({
+    int replyDelayMs,
+    int jitterMs,
+    int vendMs,
+    int dropPercent,
+    int corruptPercent,
+    bool doorOpen,
+    int temperature,
+    int nextVendFault,
+  }) async {
+    return await _invokePortMethod('configureSimulator', {
+      "replyDelayMs": replyDelayMs,
+      "jitterMs": jitterMs,
+      "vendMs": vendMs,
+      "dropPercent": dropPercent,
+      "corruptPercent": corruptPercent,
+      "doorOpen": doorOpen,
+      "temperature": temperature,
+      "nextVendFault": nextVendFault,
+    });
+  }
+
+  /// Current depth of the native write queue
+  Future<WriteQueueStatus> get writeQueueStatus async {
+    Map status = await _invokePortMethod('getWriteQueue');
+    return WriteQueueStatus(status['depth'], status['capacity']);
+  }
+}
+
+/// [VendStep] is one command of a plan passed to [SerialPort.runPlan].
+class VendStep {
+  /// Command id, see `TcnCommand` in `constants.dart`
+  final int command;
+  final List<int> args;
+
+  /// Pause after this step completes, before the next one is sent
+  final int delayMs;
+
+  /// Wait for the board's reply before moving on; otherwise the step is
+  /// done once it has been written
+  final bool waitResponse;
+  final int timeoutMs;
+  final int retries;
+
+  VendStep(this.command,
+      {this.args = const [],
+      this.delayMs = 0,
+      this.waitResponse = true,
+      this.timeoutMs = 1000,
+      this.retries = 1});
+
+  Map<String, dynamic> _toMap() {
+    return {
+      "id": command,
+      "args": args,
+      "delayMs": delayMs,
+      "waitResponse": waitResponse,
+      "timeoutMs": timeoutMs,
+      "retries": retries,
+    };
+  }
+}
+
+/// [VendPlanRun] is a plan started by [SerialPort.runPlan].
+class VendPlanRun {
+  final SerialPort _port;
+  final int id;
+
+  /// One event per step, in order
+  final Stream<VendStepResult> progress;
+
+  /// Completes once the plan has stopped
+  final Future<VendPlanResult> done;
+
+  VendPlanRun._(this._port, this.id, this.progress, this.done);
+
+  /// Stop the plan after the step in progress
+  Future<bool> cancel() async {
+    return await _port._invokePortMethod('cancelPlan', {"plan": id});
+  }
+}
+
+/// [VendStepResult] is the outcome of one [VendStep].
+class VendStepResult {
+  /// Index of the step in the plan
+  final int step;
+  final bool ok;
+
+  /// Reply frame, `null` when the step did not wait for one
+  final Uint8List frame;
+
+  /// Error code when [ok] is false, e.g. `TIMEOUT`
+  final String code;
+  final String message;
+
+  VendStepResult(this.step, this.ok, this.frame, this.code, this.message);
+
+  factory VendStepResult._fromEvent(dynamic event) {
+    return VendStepResult(
+        event['step'], event['ok'], event['frame'], event['code'], event['message']);
+  }
+
+  @override
+  String toString() {
+    return ok ? "VendStepResult($step, ok)" : "VendStepResult($step, $code)";
+  }
+}
+
+/// How a plan ended.
+enum VendPlanStatus { completed, failed, cancelled }
+
+/// [VendPlanResult] is the end of a [VendPlanRun].
+class VendPlanResult {
+  final VendPlanStatus status;
+
+  /// Steps that succeeded
+  final int completed;
+
+  VendPlanResult(this.status, this.completed);
+
+  factory VendPlanResult._fromEvent(dynamic event) {
+    return VendPlanResult(
+      VendPlanStatus.values.firstWhere(
+          (status) => status.toString() == "VendPlanStatus.${event['status']}"),
+      event['completed'],
+    );
+  }
+
+  @override
+  String toString() {
+    return "VendPlanResult($status, $completed)";
+  }
+}
+
+/// [VendRun] is a vend started by [SerialPort.vend].
+class VendRun {
+  final SerialPort _port;
+  final int id;
+
+  /// States the vend enters, when it was started with `stepEvents`
+  final Stream<VendStepEvent> steps;
+
+  /// Completes once the vend has ended
+  final Future<VendResult> done;
+
+  VendRun._(this._port, this.id, this.steps, this.done);
+
+  /// Stop following the vend at its next step; an accepted shipment still runs
+  Future<bool> cancel() async {
+    return await _port._invokePortMethod('cancelVend', {"vend": id});
+  }
+}
+
+/// [VendStepEvent] is a state a [VendRun] has entered.
+class VendStepEvent {
+  /// `shipping`, `waitingIdle`, `moving`, `clearing`, `returning` or `homing`
+  final String state;
+
+  /// Elevator reply that led into [state], `null` for the first shipment
+  final Uint8List frame;
+
+  VendStepEvent(this.state, this.frame);
+
+  factory VendStepEvent._fromEvent(dynamic event) {
+    return VendStepEvent(event['state'], event['frame']);
+  }
+
+  @override
+  String toString() {
+    return "VendStepEvent($state)";
+  }
+}
+
+/// How a vend ended.
+enum VendOutcome { delivered, fault, busy, timeout, failed, cancelled }
+
+/// [VendResult] is the end of a [VendRun].
+class VendResult {
+  final int slot;
+  final VendOutcome outcome;
+
+  /// Elevator fault code, 0 unless [outcome] is [VendOutcome.fault]
+  final int fault;
+
+  /// Error code of the command that failed, e.g. `TIMEOUT`, or `null`
+  final String code;
+  final String message;
+
+  VendResult(this.slot, this.outcome, this.fault, this.code, this.message);
+
+  factory VendResult._fromEvent(dynamic event) {
+    return VendResult(
+      event['slot'],
+      VendOutcome.values.firstWhere(
+          (outcome) => outcome.toString() == "VendOutcome.${event['outcome']}"),
+      event['fault'],
+      event['code'],
+      event['message'],
+    );
+  }
+
+  @override
+  String toString() {
+    return "VendResult($slot, $outcome, $fault)";
+  }
+}
+
+/// [InDoubtVend] is a dispensing command whose outcome the journal never saw.
+class InDoubtVend {
+  /// Journal id, passed to [FlutterSerialPort.resolveVends]
+  final int txn;
+
+  /// Device path of the port it was sent on
+  final String port;
+
+  /// Command id and name, see `TcnCommand` in `constants.dart`
+  final int command;
+  final String name;
+
+  /// Encoded command as written
+  final Uint8List frame;
+
+  /// `begun` if it may not have been written, `written` if no reply came,
+  /// `accepted` if the elevator accepted it but was not seen to finish it
+  final String state;
+
+  /// When the command was journaled
+  final DateTime startedAt;
+
+  /// True when it was left over from an earlier run of the app
+  final bool recovered;
+
+  InDoubtVend(this.txn, this.port, this.command, this.name, this.frame, this.state,
+      this.startedAt, this.recovered);
+
+  factory InDoubtVend._fromMap(dynamic vend) {
+    return InDoubtVend(
+      vend['txn'],
+      vend['port'],
+      vend['command'],
+      vend['name'],
+      vend['frame'],
+      vend['state'],
+      DateTime.fromMillisecondsSinceEpoch(vend['startedAt']),
+      vend['recovered'],
+    );
+  }
+
+  @override
+  String toString() {
+    return "InDoubtVend($txn, $port, $name, $state)";
+  }
+}
+
+/// [SerialPortStats] is a snapshot of a port's native counters.
+///
+/// The latencies tell whether time goes to the serial line ([responseTime],
+/// [writeTime]) or to the main thread ([postDelay], [deliveryLatency]).
+class SerialPortStats {
+  final int bytesIn;
+  final int bytesOut;
+  final int framesIn;
+  final int framesOut;
+
+  /// Bytes skipped by the frame decoder while looking for a frame start
+  final int discardedBytes;
+
+  /// Reads that lost bytes to the [OverflowPolicy]
+  final int droppedReads;
+
+  /// Received bytes waiting natively for a listener or [SerialPort.read]
+  final int inboundBytes;
+
+  /// Bytes discarded by the [OverflowPolicy]
+  final int droppedBytes;
+
+  /// Commands refused with `QUEUE_FULL`
+  final int rejectedWrites;
+  final int writeQueueDepth;
+  final int maxWriteQueueDepth;
+  final int pendingRequests;
+
+  /// Write calls made to the device; see [coalescingRatio]
+  final int writeCalls;
+
+  /// Bytes returned by each read
+  final Histogram readSize;
+
+  /// Microseconds from a read until its bytes reach [SerialPort.receiveStream]
+  final Histogram deliveryLatency;
+
+  /// Microseconds events wait for the Android main thread
+  final Histogram postDelay;
+
+  /// Microseconds from writing a [SerialPort.request] until its reply
+  final Histogram responseTime;
+
+  /// Microseconds spent in each write call to the device
+  final Histogram writeTime;
+
+  /// Frames merged into each write call
+  final Histogram framesPerWrite;
+
+  SerialPortStats._fromMap(Map map)
+      : bytesIn = map['bytesIn'],
+        bytesOut = map['bytesOut'],
+        framesIn = map['framesIn'],
+        framesOut = map['framesOut'],
+        discardedBytes = map['discardedBytes'],
+        droppedReads = map['droppedReads'],
+        inboundBytes = map['inboundBytes'],
+        droppedBytes = map['droppedBytes'],
+        rejectedWrites = map['rejectedWrites'],
+        writeQueueDepth = map['writeQueueDepth'],
+        maxWriteQueueDepth = map['maxWriteQueueDepth'],
+        pendingRequests = map['pendingRequests'],
+        writeCalls = map['writeCalls'],
+        readSize = Histogram._fromMap(map['readSize']),
+        deliveryLatency = Histogram._fromMap(map['deliveryLatency']),
+        postDelay = Histogram._fromMap(map['postDelay']),
+        responseTime = Histogram._fromMap(map['responseTime']),
+        writeTime = Histogram._fromMap(map['writeTime']),
+        framesPerWrite = Histogram._fromMap(map['framesPerWrite']);
+
+  /// Frames written per write call, 1.0 when nothing was coalesced
+  double get coalescingRatio => writeCalls == 0 ? 1.0 : framesOut / writeCalls;
+
+  @override
+  String toString() {
+    return "SerialPortStats(in: $bytesIn, out: $bytesOut, response: $responseTime)";
+  }
+}
+
+/// [Histogram] summarizes recorded values; percentiles are within 1/16 of the exact value.
+class Histogram {
+  final int count;
+  final int mean;
+  final int p50;
+  final int p90;
+  final int p99;
+  final int max;
+
+  Histogram._fromMap(Map map)
+      : count = map['count'],
+        mean = map['mean'],
+        p50 = map['p50'],
+        p90 = map['p90'],
+        p99 = map['p99'],
+        max = map['max'];
+
+  @override
+  String toString() {
+    return "Histogram(n: $count, p50: $p50, p99: $p99, max: $max)";
+  }
+}
+
+/// [StatusPoll] is one query run by [SerialPort.startStatusPolling].
+class StatusPoll {
+  /// Command id of a query without data, e.g. `TcnCommand.statusDoor`
+  final int command;
+
+  /// At least 100
+  final int intervalMs;
+
+  StatusPoll(this.command, {this.intervalMs = 1000});
+
+  Map<String, dynamic> _toMap() {
+    return {"id": command, "intervalMs": intervalMs};
+  }
+}
+
+/// [StatusChange] is a new reply, or a new failure, of a [StatusPoll].
+class StatusChange {
+  final int command;
+  final String name;
+
+  /// Reply payload without framing, `null` on failure
+  final Uint8List data;
+
+  /// Set for `statusDoor`
+  final bool doorOpen;
+
+  /// Set for `getTemp`
+  final int temperature;
+
+  /// Set for `statusElevator` and `driveBoardStatus`
+  final int state;
+  final int fault;
+
+  /// Error code when the query failed, e.g. `TIMEOUT`
+  final String error;
+  final String message;
+
+  StatusChange._fromEvent(dynamic event)
+      : command = event['command'],
+        name = event['name'],
+        data = event['data'],
+        doorOpen = event['doorOpen'],
+        temperature = event['temperature'],
+        state = event['state'],
+        fault = event['fault'],
+        error = event['error'],
+        message = event['message'];
+
+  @override
+  String toString() {
+    return error == null ? "StatusChange($name, $data)" : "StatusChange($name, $error)";
+  }
+}
+
+/// [WriteQueueStatus] reports how many commands wait to be written.
+class WriteQueueStatus {
+  /// Commands queued or being written
+  final int depth;
+
+  /// Maximum number of queued commands
+  final int capacity;
+
+  WriteQueueStatus(this.depth, this.capacity);
+
+  @override
+  String toString() {
+    return "WriteQueueStatus($depth/$capacity)";
+  }
+}
+
+/// [PortTransport] is what a [SerialPort] is connected to.
+enum PortTransport {
+  /// The serial device at [Device.path]
+  serial,
+
+  /// A pseudo-terminal at [Device.path], e.g. one end of a `socat` pair
+  pty,
+
+  /// An in-process simulation of the vending boards
+  simulator,
+}
+
+/// [Parity] bit of each character on the serial line.
+enum Parity { none, odd, even }
+
+/// What [SerialPort] does with received bytes when its inbound buffer is full.
+enum OverflowPolicy {
+  /// Discard the oldest buffered bytes
+  dropOldest,
+
+  /// Discard the bytes that do not fit
+  dropNewest,
+
+  /// Stop reading the device until there is room; the driver and flow
+  /// control hold further data back
+  block,
+}
+
+/// [FlowControl] of the serial line.
+enum FlowControl {
+  none,
+
+  /// Hardware handshake on the RTS / CTS lines
+  rtsCts,
+
+  /// Software handshake with XON / XOFF characters
+  xonXoff,
+}
+
+/// Wire format a [Frame] was decoded from.
+enum FrameType {
+  /// `0x00 0xFF cmd ~cmd data ~data` board frame
+  board,
+
+  /// `STX len cmd data... ETX BCC` elevator / drive board packet
+  elevator,
+}
+
+/// [Frame] is one complete protocol frame received from the device.
+class Frame {
+  final FrameType type;
+  final Uint8List data;
+
+  Frame(this.type, this.data);
+
+  factory Frame._fromEvent(dynamic event) {
+    return Frame(
+      event['type'] == 'board' ? FrameType.board : FrameType.elevator,
+      event['data'],
+    );
+  }
+
+  @override
+  String toString() {
+    return "Frame($type, $data)";
   }
 }
 
@@ -110,3 +993,21 @@ class Device {
     return "Device($name, $path)";
   }
 }
+
+/// [DeviceEvent] reports a [Device] that appeared or disappeared.
+class DeviceEvent {
+  /// True when [device] was added, false when it was removed
+  final bool added;
+  final Device device;
+
+  DeviceEvent(this.added, this.device);
+
+  factory DeviceEvent._fromEvent(dynamic event) {
+    return DeviceEvent(event['event'] == 'added', Device(event['name'], event['path']));
+  }
+
+  @override
+  String toString() {
+    return "DeviceEvent(${added ? 'added' : 'removed'}, $device)";
+  }
+}